@@ -2,42 +2,54 @@ package com.sas.unravl;
 
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.io.ByteStreams;
 import com.sas.unravl.assertions.BaseUnRAVLAssertion;
 import com.sas.unravl.assertions.StatusAssertion;
 import com.sas.unravl.assertions.UnRAVLAssertion;
 import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
+import com.sas.unravl.auth.OAuth2TokenCache;
 import com.sas.unravl.auth.UnRAVLAuth;
 import com.sas.unravl.extractors.UnRAVLExtractor;
+import com.sas.unravl.extractors.UnRAVLStreamingExtractor;
 import com.sas.unravl.generators.Binary;
 import com.sas.unravl.generators.JsonRequestBodyGenerator;
+import com.sas.unravl.generators.RequestBody;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
+import com.sas.unravl.generators.UnRAVLStreamingRequestBodyGenerator;
+import com.sas.unravl.util.AsyncReporter;
+import com.sas.unravl.util.Digests;
+import com.sas.unravl.util.Headers;
 import com.sas.unravl.util.Json;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.http.Header;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.conn.EofSensorInputStream;
 import org.apache.log4j.Logger;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpStatusCodeException;
@@ -65,15 +77,23 @@ public class ApiCall {
     private static final String JSON_GENERATOR_KEY = "json";
 
     private UnRAVL script;
+    private final List<Header> requestHeaders;
     /**
-     * @deprecated use requestStream instead
+     * @deprecated use requestContent instead
      */
     private ByteArrayOutputStream requestBody;
     private ByteArrayOutputStream responseBody;
-    private InputStream requestStream;
+    private RequestBody requestContent;
 
     private int httpStatus;
-    private Header responseHeaders[];
+    private Headers responseHeaders;
+    private Digests responseDigests;
+    private UnRAVLStreamingExtractor streamingExtractor;
+    private ObjectNode streamingScriptlet;
+    private UnRAVLException streamingException;
+    private volatile InputStream streamingBody;
+    private long startTime;
+    private long elapsedTime;
 
     private List<UnRAVLAssertion> passedAssertions, failedAssertions,
             skippedAssertions;
@@ -95,11 +115,13 @@ public class ApiCall {
         passedAssertions = new ArrayList<UnRAVLAssertion>();
         failedAssertions = new ArrayList<UnRAVLAssertion>();
         skippedAssertions = new ArrayList<UnRAVLAssertion>();
+        requestHeaders = new ArrayList<Header>(script.getRequestHeaders());
 
         script.getRuntime().addApiCall(this);
     }
 
     public ApiCall run() throws UnRAVLException {
+        getRuntime().beginChangeSet();
         try {
             if (getScript().isRunnable() && conditionalExecution()) {
                 defineEnv();
@@ -114,6 +136,11 @@ public class ApiCall {
             throwException(e);
         } catch (IOException e) {
             throwException(e);
+        } finally {
+            if (startTime > 0)
+                elapsedTime = System.currentTimeMillis() - startTime;
+            getRuntime().endChangeSet(this);
+            getRuntime().completed(this);
         }
         return this;
     }
@@ -242,8 +269,7 @@ public class ApiCall {
             String s = script.expand(body.asText());
             if (!s.trim().startsWith(UnRAVL.REDIRECT_PREFIX)) {
                 try {
-                    requestStream = new ByteArrayInputStream(
-                            s.getBytes("UTF-8"));
+                    requestContent = RequestBody.of(s.getBytes("UTF-8"));
                 } catch (IOException e) {
                     throw new UnRAVLException(
                             "Could not encode string using UTF-8 for body "
@@ -273,7 +299,14 @@ public class ApiCall {
 
         try {
             UnRAVLRequestBodyGenerator gen = bgClass.newInstance();
-            requestStream = gen.getBody(script, bodyObj, this);
+            if (gen instanceof UnRAVLStreamingRequestBodyGenerator)
+                requestContent = ((UnRAVLStreamingRequestBodyGenerator) gen)
+                        .getRequestBody(script, bodyObj, this);
+            else {
+                InputStream stream = gen.getBody(script, bodyObj, this);
+                requestContent = stream == null ? null : RequestBody
+                        .of(stream);
+            }
         } catch (InstantiationException e) {
             throw new UnRAVLException(
                     "Could not instantiate body generator plugin for " + body);
@@ -322,8 +355,15 @@ public class ApiCall {
                         throw new UnRAVLException("No defined extractor " + key);
                 UnRAVLExtractor ex;
                 try {
-                    ex = ec.newInstance();
-                    ex.extract(script, ob, this);
+                    if (ob == streamingScriptlet) {
+                        ex = streamingExtractor;
+                        ex.extract(script, ob, this);
+                        if (streamingException != null)
+                            throw streamingException;
+                    } else {
+                        ex = ec.newInstance();
+                        ex.extract(script, ob, this);
+                    }
                 } catch (InstantiationException e1) {
                     throw new UnRAVLException(
                             "Could not instantiate extractor " + key
@@ -346,12 +386,15 @@ public class ApiCall {
         return UnRAVL.statusAssertion(script);
     }
 
+    /**
+     * @param headerName
+     *            the name of a response header; case is ignored
+     * @return the first response header with that name, or null if there is
+     *         no such header
+     */
     public Header getResponseHeader(String headerName) {
-        for (Header h : responseHeaders) {
-            if (h.getName().equalsIgnoreCase(headerName))
-                return h;
-        }
-        return null;
+        return responseHeaders == null ? null : responseHeaders
+                .getFirst(headerName);
     }
 
     // read all the values in "env" and bind them to this instance's env
@@ -449,10 +492,16 @@ public class ApiCall {
         return getRuntime().bound(key);
     }
 
+    /**
+     * @return a stream which reads the response body. The stream shares the
+     *         response body buffer rather than copying it.
+     */
     public InputStream getResponseBodyAsInputStream() {
-        ByteArrayInputStream i = new ByteArrayInputStream(getResponseBody()
-                .toByteArray());
-        return i;
+        ByteArrayOutputStream body = getResponseBody();
+        if (body instanceof ResponseBody)
+            return ((ResponseBody) body).inputStream();
+        return new ByteArrayInputStream(body == null ? new byte[0]
+                : body.toByteArray());
     }
 
     public void executeAPI() throws UnRAVLException {
@@ -484,6 +533,15 @@ public class ApiCall {
         // vars that should
         // be expanded in the URI
         setURI(script.expand(getURI()));
+        // Compute any digests the assertions or extractors use
+        // while the response body is read
+        final Set<String> digestNames = new LinkedHashSet<String>();
+        digestNames(script, digestNames);
+        // A "digest" scriptlet with "keepBody" : false drops the body
+        final boolean keepDigestedBody = digestNames.isEmpty()
+                || keepDigestedBody(script);
+        // A streaming extractor consumes the response body as it is read
+        findStreamingExtractor(script);
         // Use RequestCallback and ResponseExtractor
         // to handle all request bodies, including binary.
         // RestTemplate.exchange can't handle binary byte[] body
@@ -493,12 +551,27 @@ public class ApiCall {
             @Override
             public void doWithRequest(final ClientHttpRequest request)
                     throws IOException {
-                final HttpHeaders headers = mapHeaders(script
-                        .getRequestHeaders());
+                final HttpHeaders headers = mapHeaders(requestHeaders);
                 request.getHeaders().putAll(headers);
-                if (requestStream != null)
-                    Binary.copy(requestStream, request.getBody());
-                ;
+                final RequestBody body = requestContent;
+                if (body == null)
+                    return;
+                long length = body.getContentLength();
+                if (length >= 0)
+                    request.getHeaders().setContentLength(length);
+                // write the body directly to the connection when the request
+                // is not buffered
+                if (request instanceof StreamingHttpOutputMessage)
+                    ((StreamingHttpOutputMessage) request)
+                            .setBody(new StreamingHttpOutputMessage.Body() {
+                                @Override
+                                public void writeTo(OutputStream out)
+                                        throws IOException {
+                                    body.writeTo(out);
+                                }
+                            });
+                else
+                    body.writeTo(request.getBody());
             }
         };
         final ResponseExtractor<InternalResponse> responseExtractor = new ResponseExtractor<InternalResponse>() {
@@ -506,32 +579,64 @@ public class ApiCall {
             public InternalResponse extractData(ClientHttpResponse response)
                     throws IOException {
                 httpStatus = response.getStatusCode().value();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                Binary.copy(response.getBody(), baos);
+                // write the body straight into the response body buffer
+                OutputStream kept = responseBody;
+                InputStream body = response.getBody();
+                InputStream raw = body;
+                if (!digestNames.isEmpty() && body != null) {
+                    try {
+                        responseDigests = new Digests(digestNames);
+                        body = responseDigests.wrap(body);
+                    } catch (UnRAVLException e) {
+                        // reported by the assertion or extractor
+                        responseDigests = null;
+                    }
+                }
+                if (streamingExtractor != null && body != null) {
+                    streamingBody = raw;
+                    responseHeaders = new Headers(response.getHeaders());
+                    InputStream in = keepBody(streamingScriptlet) ? new TeeInputStream(
+                            body, kept) : body;
+                    try {
+                        streamingExtractor.consume(script, streamingScriptlet,
+                                ApiCall.this, in);
+                    } catch (UnRAVLException e) {
+                        // thrown when the extractor runs
+                        streamingException = e;
+                    } finally {
+                        streamingBody = null;
+                    }
+                } else if (keepDigestedBody)
+                    Binary.copy(body, kept);
+                else if (body != null)
+                    Binary.copy(body, ByteStreams.nullOutputStream());
                 return new InternalResponse(response.getStatusCode(),
-                        baos.toByteArray(), response.getHeaders());
+                        response.getHeaders());
             }
         };
 
         long start = System.currentTimeMillis();
+        startTime = start;
         try {
             logger.info(method.name() + " " + getURI());
             // create response body and a valid HTTP response code before the
             // call
             // so that even on exceptions, we have a non-null response
-            responseBody = new ByteArrayOutputStream();
+            responseBody = new ResponseBody();
+            responseDigests = null;
             httpStatus = HttpStatus.NOT_IMPLEMENTED.value();
             InternalResponse response = restTemplate.execute(getURI(),
                     HttpMethod.valueOf(method.name()), requestCallback,
                     responseExtractor);
-            setResponseHeaders(mapHeaders(response.headers));
-            responseBody.write(response.responseBody);
+            if (httpStatus == HttpStatus.UNAUTHORIZED.value())
+                invalidateBearerToken();
+            responseHeaders = new Headers(response.headers);
             responseBody.close();
             long end = System.currentTimeMillis();
             logger.info(script.getMethod() + " took " + (end - start)
                     + "ms, returned HTTP status " + response.status);
-            log("Response body:", responseBody, "Response headers:",
-                    response.headers);
+            log("Response body:", getResponseBodyAsBuffer(),
+                    "Response headers:", responseHeaders);
             assertStatus(httpStatus);
         } catch (IOException e) {
             throwException(e);
@@ -561,14 +666,11 @@ public class ApiCall {
 
     private class InternalResponse {
         private HttpStatus status;
-        private byte[] responseBody;
         private HttpHeaders headers;
 
-        public InternalResponse(HttpStatus status, byte[] responseBody,
-                HttpHeaders headers) {
+        public InternalResponse(HttpStatus status, HttpHeaders headers) {
             super();
             this.status = status;
-            this.responseBody = responseBody;
             this.headers = headers;
         }
     }
@@ -585,17 +687,38 @@ public class ApiCall {
         return headers;
     }
 
-    // Convert from Spring Headers to Apache Headers
-    private Header[] mapHeaders(HttpHeaders responseHeaders) {
-        ArrayList<Header> h = new ArrayList<Header>(responseHeaders.size());
-        for (Entry<String, List<String>> es : responseHeaders.entrySet()) {
-            String name = es.getKey();
-            for (String v : es.getValue()) {
-                Header header = new BasicHeader(name, v);
-                h.add(header);
-            }
-        }
-        return h.toArray(new Header[h.size()]);
+    /**
+     * @return the request headers for this call (before variable expansion):
+     *         a copy of the script's headers (see
+     *         {@link UnRAVL#getRequestHeaders()}) plus the headers added by
+     *         authentication and body generators for this call
+     */
+    public List<Header> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * Add a request header for this call
+     *
+     * @param header
+     *            the header
+     */
+    public void addRequestHeader(Header header) {
+        requestHeaders.add(header);
+    }
+
+    /**
+     * Set a request header for this call, replacing any headers of the same
+     * name (compared without regard to case)
+     *
+     * @param header
+     *            the header
+     */
+    public void setRequestHeader(Header header) {
+        for (Iterator<Header> i = requestHeaders.iterator(); i.hasNext();)
+            if (i.next().getName().equalsIgnoreCase(header.getName()))
+                i.remove();
+        requestHeaders.add(header);
     }
 
     private void setMethod(Method method) {
@@ -624,37 +747,335 @@ public class ApiCall {
      */
     public ByteArrayOutputStream getRequestBody() {
         if (requestBody == null) {
-            if (requestStream == null)
+            if (requestContent == null)
                 return null;
             requestBody = new ByteArrayOutputStream();
             try {
-                Binary.copy(requestStream, requestBody);
+                requestContent.writeTo(requestBody);
             } catch (IOException e) {
                 logger.error(e);
             }
-            requestStream = null;
+            // the body cannot be written again; send the buffered copy
+            if (!requestContent.isReplayable())
+                requestContent = RequestBody.of(requestBody.toByteArray());
         }
         return requestBody;
     }
 
+    /**
+     * @return a read-only buffer which views the response body buffer, without
+     *         copying it
+     */
+    public ByteBuffer getResponseBodyAsBuffer() {
+        ByteArrayOutputStream body = getResponseBody();
+        if (body instanceof ResponseBody)
+            return ((ResponseBody) body).buffer();
+        return ByteBuffer.wrap(body == null ? new byte[0] : body.toByteArray());
+    }
+
+    /**
+     * @return the request body as a stream, or null if the call has no body.
+     *         This copies the body into memory.
+     */
     public InputStream getRequestStream() {
-        return requestStream;
+        if (requestContent == null)
+            return null;
+        try {
+            return requestContent.stream();
+        } catch (IOException e) {
+            logger.error(e);
+            return null;
+        }
+    }
+
+    /** @return the request body, or null if the call has no body */
+    public RequestBody getRequestContent() {
+        return requestContent;
     }
 
     public ByteArrayOutputStream getResponseBody() {
         return responseBody;
     }
 
+    /**
+     * Return digests of the response body. Digests named by
+     * <code>"digest"</code> assertions and extractors are computed while the
+     * response body is read; others are computed from the response body when
+     * requested.
+     *
+     * @param names
+     *            digest names, such as "sha256" or "md5"
+     * @return the digests of the response body
+     * @throws UnRAVLException
+     *             if a name is not a supported digest algorithm
+     * @see Digests
+     */
+    public Digests getResponseDigests(Collection<String> names)
+            throws UnRAVLException {
+        if (responseDigests != null && responseDigests.includes(names))
+            return responseDigests;
+        byte body[] = responseBody == null ? new byte[0] : responseBody
+                .toByteArray();
+        return Digests.of(body, names);
+    }
+
+    // Add the algorithms named in "digest" assertions or extractors
+    // in the script or its templates to names
+    private static void digestNames(UnRAVL script, Set<String> names) {
+        if (script == null)
+            return;
+        digestNames(script.getTemplate(), names);
+        JsonNode assertions = script.getRoot().get(Stage.ASSERT.getName());
+        for (JsonNode a : asArray(assertions)) {
+            JsonNode digest = a.get("digest");
+            if (digest != null && digest.isObject())
+                for (Iterator<String> i = digest.fieldNames(); i.hasNext();) {
+                    String name = i.next();
+                    if (!name.equals("length"))
+                        names.add(name);
+                }
+        }
+        for (JsonNode b : asArray(script.getRoot().get("bind"))) {
+            JsonNode digest = b.get("digest");
+            if (digest != null && digest.isObject())
+                for (JsonNode name : digest)
+                    if (name.isTextual() && !name.textValue().equals("length"))
+                        names.add(name.textValue());
+        }
+    }
+
+    // Return false if a "digest" assertion or extractor in the script or its
+    // templates has the option "keepBody" : false
+    private static boolean keepDigestedBody(UnRAVL script) {
+        if (script == null)
+            return true;
+        if (!keepDigestedBody(script.getTemplate()))
+            return false;
+        List<JsonNode> scriptlets = new ArrayList<JsonNode>();
+        scriptlets.addAll(asArray(script.getRoot().get(
+                Stage.ASSERT.getName())));
+        scriptlets.addAll(asArray(script.getRoot().get("bind")));
+        for (JsonNode s : scriptlets) {
+            JsonNode keep = s.get("keepBody");
+            if (s.has("digest") && keep != null && !keep.asBoolean(true))
+                return false;
+        }
+        return true;
+    }
+
+    // Find the streaming extractor, if any, in the script or its templates
+    private void findStreamingExtractor(UnRAVL script) throws UnRAVLException {
+        if (script == null)
+            return;
+        if (script == this.script) {
+            streamingExtractor = null;
+            streamingScriptlet = null;
+            streamingException = null;
+        }
+        findStreamingExtractor(script.getTemplate());
+        for (JsonNode b : asArray(script.getRoot().get("bind"))) {
+            if (!b.isObject() || b.size() == 0)
+                continue;
+            String key = Json.firstFieldName(b);
+            Class<? extends UnRAVLExtractor> ec = getPlugins().getExtractors()
+                    .get(key);
+            if (ec == null
+                    || !UnRAVLStreamingExtractor.class.isAssignableFrom(ec))
+                continue;
+            if (streamingExtractor != null)
+                throw new UnRAVLException(String.format(
+                        "Only one streaming extractor may be used in a script; found %s and %s",
+                        Json.firstFieldName(streamingScriptlet), key));
+            try {
+                streamingExtractor = (UnRAVLStreamingExtractor) ec
+                        .newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new UnRAVLException("Could not instantiate extractor "
+                        + key + " using class " + ec.getName(), e);
+            }
+            streamingScriptlet = (ObjectNode) b;
+        }
+    }
+
+    // A streaming extractor keeps the response body only if "keepBody" is true
+    private static boolean keepBody(ObjectNode scriptlet) {
+        JsonNode keep = scriptlet.get("keepBody");
+        return keep != null && keep.asBoolean(false);
+    }
+
+    /**
+     * The response body buffer, which can be read without copying it.
+     */
+    private static class ResponseBody extends ByteArrayOutputStream {
+        synchronized InputStream inputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        synchronized ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * An input stream which copies the bytes read to an output stream.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                out.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                out.write(b, off, n);
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static List<JsonNode> asArray(JsonNode node) {
+        List<JsonNode> list = new ArrayList<JsonNode>();
+        if (node != null && node.isArray())
+            for (JsonNode n : node)
+                list.add(n);
+        else if (node != null && node.isObject())
+            list.add(node);
+        return list;
+    }
+
+    /**
+     * Abort reading the response body. A streaming extractor which stops
+     * before the end of the response body calls this so that the rest of the
+     * response (which may be unbounded, such as a stream of server-sent
+     * events) is not read when the response is closed. This may be called
+     * from another thread to interrupt a blocked read, which then throws an
+     * IOException.
+     */
+    public void abortResponse() {
+        InputStream body = streamingBody;
+        if (body == null)
+            return;
+        try {
+            if (body instanceof EofSensorInputStream)
+                ((EofSensorInputStream) body).abortConnection();
+            else
+                body.close();
+        } catch (IOException e) {
+            logger.trace("Exception while aborting response: " + e);
+        }
+    }
+
+    /**
+     * @return the time the API request was sent, in milliseconds since the
+     *         epoch, or 0 if the API has not been called
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time from sending the API request until the call (including
+     *         extractors and assertions) finished, in milliseconds, or 0 if
+     *         the API has not been called
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Create an assertion for an assertion scriptlet, such as the assertions
+     * which a streaming extractor evaluates for each record it reads. A string
+     * scriptlet is a script in the runtime's script language.
+     *
+     * @param scriptlet
+     *            the assertion scriptlet
+     * @param stage
+     *            the stage in which the assertion runs
+     * @return the assertion
+     * @throws UnRAVLException
+     *             if there is no such assertion or it cannot be created
+     * @see #recordAssertion(UnRAVLAssertion, boolean)
+     */
+    public UnRAVLAssertion newAssertion(JsonNode scriptlet, Stage stage)
+            throws UnRAVLException {
+        scriptlet = assertionScriptlet(scriptlet);
+        String aName = Json.firstFieldName(scriptlet);
+        Class<? extends UnRAVLAssertion> aClass = getPlugins().getAssertions()
+                .get(aName);
+        if (aClass == null)
+            throw new UnRAVLException("No such assertion class registered for "
+                    + stage + " keyword " + aName);
+        try {
+            UnRAVLAssertion a = aClass.newInstance();
+            a.setAssertion(Json.object(scriptlet));
+            return a;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new UnRAVLException("Assertion class " + aClass.getName()
+                    + " cannot be instantiated.", e);
+        }
+    }
+
+    // Wrap a string assertion as a script in the runtime's script language
+    private ObjectNode assertionScriptlet(JsonNode scriptlet)
+            throws UnRAVLException {
+        if (scriptlet.isTextual()) {
+            ObjectNode o = new ObjectNode(JsonNodeFactory.instance);
+            o.set(getRuntime().getScriptLanguage(), (TextNode) scriptlet);
+            return o;
+        }
+        return Json.object(scriptlet);
+    }
+
+    /**
+     * Record the result of an assertion which was not run from the script's
+     * "preconditions" or "assert" list.
+     *
+     * @param assertion
+     *            the assertion
+     * @param passed
+     *            true if the assertion passed, false if it failed
+     */
+    public void recordAssertion(UnRAVLAssertion assertion, boolean passed) {
+        if (passed)
+            passedAssertions.add(assertion);
+        else
+            failedAssertions.add(assertion);
+    }
+
     public int getHttpStatus() {
         return httpStatus;
     }
 
     public Header[] getResponseHeaders() {
+        return responseHeaders == null ? null : responseHeaders.toArray();
+    }
+
+    /**
+     * @return the response headers, indexed by name, or null if the API call
+     *         did not complete
+     */
+    public Headers getResponseHeaderMap() {
         return responseHeaders;
     }
 
     public void setResponseHeaders(Header responseHeaders[]) {
-        this.responseHeaders = responseHeaders;
+        this.responseHeaders = new Headers(responseHeaders);
     }
 
     // Check that the httpStatusCode matches the expected status
@@ -732,37 +1153,22 @@ public class ApiCall {
             return true;
         ArrayNode assertions = assertionArray(assertionNode, stage);
         for (int i = 0; !canceled() && i < assertions.size(); i++) {
-            JsonNode s = assertions.get(i);
-            ObjectNode assertionScriptlet = null;
+            ObjectNode assertionScriptlet = assertionScriptlet(assertions
+                    .get(i));
             UnRAVLAssertion a = null;
-            Class<? extends UnRAVLAssertion> aClass = null;
             try {
-                if (s.isTextual()) {
-                    ObjectNode o = new ObjectNode(JsonNodeFactory.instance);
-                    o.set(getRuntime().getScriptLanguage(), (TextNode) s);
-                    s = o;
+                a = newAssertion(assertionScriptlet, stage);
+            } catch (UnRAVLException e) {
+                if (e.getCause() instanceof ReflectiveOperationException) {
+                    failedAssertions.add(BaseUnRAVLAssertion.of(script,
+                            assertionScriptlet));
+                    logger.error(e.getCause().getMessage());
                 }
-                String aName = Json.firstFieldName(s);
-                assertionScriptlet = Json.object(s);
-                aClass = getPlugins().getAssertions().get(aName);
-                if (aClass == null)
-                    throw new UnRAVLException(
-                            "No such assertion class registered for " + stage
-                                    + " keyword " + aName);
-                a = aClass.newInstance();
-                a.setAssertion(assertionScriptlet);
+                throw e;
+            }
+            try {
                 a.check(this.script, assertionScriptlet, stage, this);
                 passedAssertions.add(a);
-            } catch (InstantiationException e) {
-                failedAssertions.add(BaseUnRAVLAssertion.of(script,
-                        assertionScriptlet));
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                failedAssertions.add(BaseUnRAVLAssertion.of(script,
-                        assertionScriptlet));
-                logger.error(e.getMessage());
-                throw new UnRAVLException("Assertion class " + aClass.getName()
-                        + " cannot be instantiated.");
             } catch (UnRAVLAssertionException e) {
                 failedAssertions.add(a);
                 for (int j = i + 1; j < assertions.size(); j++) {
@@ -814,51 +1220,41 @@ public class ApiCall {
                 + " must be a string, an object, or an array.");
     }
 
-    private void log(String bodyLabel, ByteArrayOutputStream bytes,
-            String headersLabel, HttpHeaders headers) {
-
+    private void log(String bodyLabel, ByteBuffer bytes, String headersLabel,
+            Headers headers) {
         if (headers != null && headers.size() > 0) {
             logger.info(headersLabel);
-            Header hs[] = mapHeaders(headers);
-            for (Header h : hs) {
+            for (Header h : headers.list()) {
                 // Don't log easily decoded credentials
                 logger.info(h.getName() + ": " + possiblyMaskedHeaderValue(h));
             }
         }
-        MediaType contentType = headers.getContentType();
+        Header contentType = headers.getFirst("Content-Type");
         if (contentType == null)
             return;
-        Header ct[] = new Header[] { new BasicHeader("Content-Type",
-                contentType.toString()) };
-        if (script.bodyIsTextual(ct))
-            try {
-                if (bytes == null || bytes.size() == 0) {
-                    if (getMethod() != Method.HEAD)
-                        logger.warn("Warning: Non-HEAD request returned a text Content-Type header but defines no body.");
-                    return;
-                }
-                if (logger.isInfoEnabled()) {
-                    logger.info(bodyLabel);
-                    if (script.bodyIsJson(ct) && bytes.size() > 0) {
-                        try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-                            JsonNode json = Json.parse(bytes.toString("UTF-8"));
-                            ByteArrayOutputStream os = new ByteArrayOutputStream();
-                            os.write(mapper.writeValueAsBytes(json));
-                            os.close();
-                            bytes = os;
-                        } catch (UnRAVLException e) {
-                            // ignore parse/format errors; just print bytes w/o
-                            // pretty print.
-                        }
-                    }
-                    bytes.writeTo(System.out);
-                    System.out.println();
-                }
-            } catch (IOException e) {
-                logger.error(e);
+        Header ct[] = new Header[] { contentType };
+        if (script.bodyIsTextual(ct)) {
+            if (bytes == null || !bytes.hasRemaining()) {
+                if (getMethod() != Method.HEAD)
+                    logger.warn("Warning: Non-HEAD request returned a text Content-Type header but defines no body.");
+                return;
             }
+            // formatted and written on the reporter's thread
+            AsyncReporter reporter = AsyncReporter.getInstance();
+            if (logger.isInfoEnabled() && !reporter.isQuiet())
+                reporter.body(bodyLabel, bytes, script.bodyIsJson(ct), script
+                        .getRuntime().getOutputCounts());
+        }
+    }
+
+    // The server rejected the request's OAuth2 access token (if any), so do
+    // not use it again
+    private void invalidateBearerToken() {
+        for (Header h : requestHeaders)
+            if (h.getName().equalsIgnoreCase(AUTHORIZATION)
+                    && h.getValue().startsWith("Bearer "))
+                OAuth2TokenCache.invalidate(h.getValue().substring(
+                        "Bearer ".length()));
     }
 
     private String possiblyMaskedHeaderValue(Header h) {
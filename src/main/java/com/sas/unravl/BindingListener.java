@@ -0,0 +1,59 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.util.Map;
+
+/**
+ * A listener which is notified when variables are bound in an
+ * {@link UnRAVLRuntime} environment. Register a listener with
+ * {@link UnRAVLRuntime#addBindingListener(BindingListener)}.
+ * <p>
+ * A change is detected by identity: rebinding a variable to the same object
+ * is not reported, but binding an equal, different object is. Values are not
+ * compared with <code>equals</code>, so rebinding large JSON response bodies
+ * does not cost a deep comparison.
+ *
+ * @author David.Biesack@sas.com
+ */
+public interface BindingListener {
+
+    /**
+     * Called when a variable is bound or unbound
+     *
+     * @param runtime
+     *            the runtime which changed
+     * @param varName
+     *            the variable name
+     * @param oldValue
+     *            the previous value, or null
+     * @param newValue
+     *            the new value, or null if the variable was unbound
+     */
+    void bound(UnRAVLRuntime runtime, String varName, Object oldValue,
+            Object newValue);
+
+    /**
+     * A listener which is notified once per API call with all the variables
+     * bound during the call, rather than once per binding. Register a
+     * listener with
+     * {@link UnRAVLRuntime#addBindingChangeSetListener(ChangeSet)}.
+     */
+    public interface ChangeSet {
+
+        /**
+         * Called after an API call with the variables which were bound (or
+         * unbound) while it ran. Bindings made outside of an API call are
+         * reported immediately, with a null call.
+         *
+         * @param runtime
+         *            the runtime which changed
+         * @param call
+         *            the API call, or null
+         * @param changes
+         *            the changed variables and their final values (null if
+         *            unbound), in the order they were first changed
+         */
+        void changed(UnRAVLRuntime runtime, ApiCall call,
+                Map<String, Object> changes);
+    }
+}
@@ -0,0 +1,193 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The history of the API calls made in an {@link UnRAVLRuntime}. Each
+ * {@link ApiCall} keeps its request and response bodies, headers and
+ * assertions, so keeping every call for a long run can exhaust the heap. The
+ * history's {@link Retention retention} limits what is kept:
+ * <dl>
+ * <dt>all</dt>
+ * <dd>keep every call (the default)</dd>
+ * <dt>last</dt>
+ * <dd>keep only the last <em>size</em> calls</dd>
+ * <dt>failures</dt>
+ * <dd>keep every call which had failed assertions or ended with an exception;
+ * replace other calls with a compact {@link CallSummary} when they finish, and
+ * keep only the last <em>size</em> summaries</dd>
+ * </dl>
+ * The retention and size are set with the system properties
+ * <code>unravl.calls.history</code> and
+ * <code>unravl.calls.history.size</code> (default 1000). The total number of
+ * calls and of failed assertions include the calls which are no longer kept.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class CallHistory {
+
+    private static final Logger logger = Logger.getLogger(CallHistory.class);
+
+    /** What a {@link CallHistory} keeps */
+    public enum Retention {
+        /** keep all calls */
+        ALL,
+        /** keep the most recent calls */
+        LAST,
+        /** keep failed calls, and summaries of the most recent other calls */
+        FAILURES;
+    }
+
+    private final Retention retention;
+    private final int size;
+    private final ArrayDeque<CallSummary> records = new ArrayDeque<CallSummary>();
+    private int summaries; // the number of records without a call
+    private long callCount;
+    private long droppedFailedAssertions;
+
+    /**
+     * Create a history with the retention and size set by the system
+     * properties <code>unravl.calls.history</code> and
+     * <code>unravl.calls.history.size</code>
+     */
+    public CallHistory() {
+        this(retention(System.getProperty("unravl.calls.history")), Integer
+                .getInteger("unravl.calls.history.size", 1000).intValue());
+    }
+
+    /**
+     * Create a history
+     *
+     * @param retention
+     *            what to keep
+     * @param size
+     *            the number of calls ({@link Retention#LAST}) or summaries
+     *            ({@link Retention#FAILURES}) to keep; ignored for
+     *            {@link Retention#ALL}
+     */
+    public CallHistory(Retention retention, int size) {
+        this.retention = retention;
+        this.size = Math.max(1, size);
+    }
+
+    private static Retention retention(String name) {
+        if (name == null)
+            return Retention.ALL;
+        try {
+            return Retention.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid unravl.calls.history value " + name);
+            return Retention.ALL;
+        }
+    }
+
+    /** @return what this history keeps */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    /** @return the number of calls or summaries this history keeps */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Add a new call to the history
+     *
+     * @param call
+     *            the call, which has not run yet
+     */
+    public synchronized void add(ApiCall call) {
+        records.addLast(new CallSummary(call));
+        callCount++;
+        if (retention == Retention.LAST)
+            while (records.size() > size)
+                drop(records.removeFirst());
+    }
+
+    /**
+     * Notify the history that a call has finished. With
+     * {@link Retention#FAILURES}, a call which did not fail is replaced by its
+     * summary.
+     *
+     * @param call
+     *            the call
+     */
+    public synchronized void completed(ApiCall call) {
+        if (retention != Retention.FAILURES)
+            return;
+        Iterator<CallSummary> i = records.descendingIterator();
+        while (i.hasNext()) {
+            CallSummary record = i.next();
+            if (record.getApiCall() == call) {
+                if (!record.isFailure()) {
+                    record.summarize();
+                    summaries++;
+                }
+                break;
+            }
+        }
+        for (i = records.iterator(); summaries > size && i.hasNext();) {
+            CallSummary record = i.next();
+            if (record.getApiCall() == null) {
+                i.remove();
+                summaries--;
+                drop(record);
+            }
+        }
+    }
+
+    private void drop(CallSummary record) {
+        droppedFailedAssertions += record.getFailedCount();
+    }
+
+    /** @return the number of calls or summaries this history has now */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /** @return the number of calls added, including calls no longer kept */
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return the number of failed assertions of all the calls added,
+     *         including calls no longer kept
+     */
+    public synchronized long getFailedAssertionCount() {
+        long failed = droppedFailedAssertions;
+        for (CallSummary record : records)
+            failed += record.getFailedCount();
+        return failed;
+    }
+
+    /** @return the calls and summaries this history has, oldest first */
+    public synchronized List<CallSummary> getSummaries() {
+        return new ArrayList<CallSummary>(records);
+    }
+
+    /** @return the calls this history has (not summaries), oldest first */
+    public synchronized List<ApiCall> getApiCalls() {
+        List<ApiCall> calls = new ArrayList<ApiCall>(records.size()
+                - summaries);
+        for (CallSummary record : records)
+            if (record.getApiCall() != null)
+                calls.add(record.getApiCall());
+        return calls;
+    }
+
+    /** Remove all calls and reset the counts */
+    public synchronized void clear() {
+        records.clear();
+        summaries = 0;
+        callCount = 0;
+        droppedFailedAssertions = 0;
+    }
+}
@@ -0,0 +1,146 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+/**
+ * A compact record of an {@link ApiCall} in a runtime's {@link CallHistory}:
+ * the method, URI, status, timing and assertion counts, without the request
+ * and response bodies, headers or assertion objects. While the history
+ * retains the full call, {@link #getApiCall()} returns it and the other
+ * methods read it; once the call is summarized, only the summary remains.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class CallSummary {
+
+    private ApiCall call;
+    private String scriptName;
+    private Method method;
+    private String uri;
+    private int httpStatus;
+    private long startTime;
+    private long elapsedTime;
+    private int passed, failed, skipped;
+    private String exception;
+    private boolean error, cancelled, wasSkipped;
+
+    /**
+     * Create a summary which reads the values of a call until it is
+     * summarized
+     *
+     * @param call
+     *            the API call
+     */
+    public CallSummary(ApiCall call) {
+        this.call = call;
+    }
+
+    /**
+     * Copy the summary values from the call and release it, so that it may be
+     * garbage collected.
+     */
+    void summarize() {
+        if (call == null)
+            return;
+        scriptName = call.getScript().getName();
+        method = call.getMethod();
+        uri = call.getURI();
+        httpStatus = call.getHttpStatus();
+        startTime = call.getStartTime();
+        elapsedTime = call.getElapsedTime();
+        passed = call.getPassedAssertions().size();
+        failed = call.getFailedAssertions().size();
+        skipped = call.getSkippedAssertions().size();
+        error = call.getException() != null;
+        exception = error ? call.getException().getMessage() : null;
+        cancelled = call.wasCancelled();
+        wasSkipped = call.wasSkipped();
+        call = null;
+    }
+
+    /**
+     * @return the API call, or null if the history no longer retains it
+     */
+    public ApiCall getApiCall() {
+        return call;
+    }
+
+    /** @return the name of the script which made the call */
+    public String getScriptName() {
+        return call == null ? scriptName : call.getScript().getName();
+    }
+
+    /** @return the HTTP method, or null if the script has none */
+    public Method getMethod() {
+        return call == null ? method : call.getMethod();
+    }
+
+    /** @return the URI, or null if the script has none */
+    public String getURI() {
+        return call == null ? uri : call.getURI();
+    }
+
+    /** @return the HTTP status code */
+    public int getHttpStatus() {
+        return call == null ? httpStatus : call.getHttpStatus();
+    }
+
+    /** @return see {@link ApiCall#getStartTime()} */
+    public long getStartTime() {
+        return call == null ? startTime : call.getStartTime();
+    }
+
+    /** @return see {@link ApiCall#getElapsedTime()} */
+    public long getElapsedTime() {
+        return call == null ? elapsedTime : call.getElapsedTime();
+    }
+
+    /** @return the number of assertions which passed */
+    public int getPassedCount() {
+        return call == null ? passed : call.getPassedAssertions().size();
+    }
+
+    /** @return the number of assertions which failed */
+    public int getFailedCount() {
+        return call == null ? failed : call.getFailedAssertions().size();
+    }
+
+    /** @return the number of assertions which were skipped */
+    public int getSkippedCount() {
+        return call == null ? skipped : call.getSkippedAssertions().size();
+    }
+
+    /** @return the message of the exception which ended the call, or null */
+    public String getExceptionMessage() {
+        if (call == null)
+            return exception;
+        return call.getException() == null ? null : call.getException()
+                .getMessage();
+    }
+
+    /** @return true if the call was cancelled */
+    public boolean wasCancelled() {
+        return call == null ? cancelled : call.wasCancelled();
+    }
+
+    /** @return true if the call was skipped because of its preconditions */
+    public boolean wasSkipped() {
+        return call == null ? wasSkipped : call.wasSkipped();
+    }
+
+    /**
+     * @return true if the call had failed assertions or ended with an
+     *         exception
+     */
+    public boolean isFailure() {
+        return getFailedCount() > 0
+                || (call == null ? error : call.getException() != null);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s -> %d (%d ms): %d passed, %d failed,"
+                + " %d skipped", getScriptName(), getMethod(), getURI(),
+                getHttpStatus(), getElapsedTime(), getPassedCount(),
+                getFailedCount(), getSkippedCount());
+    }
+}
@@ -6,13 +6,16 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sas.unravl.assertions.UnRAVLAssertion;
 import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
 import com.sas.unravl.extractors.UnRAVLExtractor;
+import com.sas.unravl.util.AsyncReporter;
 import com.sas.unravl.util.Json;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -49,8 +52,10 @@ public class UnRAVL {
     private static final String TEMPLATE_KEY = "template";
     private static final String NAME_KEY = "name";
     private static final String TEMPLATE_EXTENSION = ".template";
-    private static final String TEXT_MEDIA_TYPES_REGEX = "^(text/.*|.*/.*(xml|json)).*$";
-    private static final String JSON_MEDIA_TYPES_REGEX = "^.*(\\.|\\+)*json.*$";
+    private static final Pattern TEXT_MEDIA_TYPES = Pattern
+            .compile("^(text/.*|.*/.*(xml|json)).*$");
+    private static final Pattern JSON_MEDIA_TYPES = Pattern
+            .compile("^.*(\\.|\\+)*json.*$");
     public static final String REDIRECT_PREFIX = "@";
     private UnRAVLRuntime runtime;
     private ObjectNode root;
@@ -60,6 +65,9 @@ public class UnRAVL {
     private Method method;
     private String uri;
     private List<UnRAVLExtractor> extractors;
+    // the call this script is running on the current thread, if any; a
+    // script may run on several threads at once
+    private final ThreadLocal<ApiCall> call = new ThreadLocal<ApiCall>();
     static Logger logger = Logger.getLogger(UnRAVL.class);
 
     public UnRAVL(UnRAVLRuntime runtime) {
@@ -167,8 +175,15 @@ public class UnRAVL {
         }
     }
 
+    /**
+     * @return the request headers defined by this script and its templates,
+     *         before variable expansion. This list may not be modified; each
+     *         {@link ApiCall} copies it (see {@link ApiCall#getRequestHeaders()}
+     *         and adds headers to its own copy.
+     */
     public List<Header> getRequestHeaders() {
-        return requestHeaders;
+        return requestHeaders == null ? Collections.<Header> emptyList()
+                : Collections.unmodifiableList(requestHeaders);
     }
 
     public Method getMethod() {
@@ -250,8 +265,24 @@ public class UnRAVL {
         this.requestHeaders = headers;
     }
 
+    /**
+     * Add a header to the request of the API call which this script is
+     * running on the current thread, or if it is not running on this thread,
+     * to the script's headers.
+     *
+     * @param header
+     *            the header
+     * @deprecated Use {@link ApiCall#addRequestHeader(Header)} or
+     *             {@link ApiCall#setRequestHeader(Header)}, so that headers
+     *             are not added to the script each time it runs.
+     */
+    @Deprecated
     public void addRequestHeader(Header header) {
-        requestHeaders.add(header);
+        ApiCall running = call.get();
+        if (running != null)
+            running.addRequestHeader(header);
+        else
+            requestHeaders.add(header);
     }
 
     private void defineHeaders(UnRAVL from, List<Header> headers)
@@ -277,10 +308,13 @@ public class UnRAVL {
 
     public ApiCall run() throws UnRAVLException, IOException {
         ApiCall apiCall = new ApiCall(this);
+        call.set(apiCall);
         try {
             return apiCall.run();
         } finally {
-            apiCall.report(System.out);
+            call.remove();
+            AsyncReporter.getInstance().report(apiCall,
+                    getRuntime().getOutputCounts());
         }
     }
 
@@ -331,16 +365,16 @@ public class UnRAVL {
     }
 
     public boolean bodyIsTextual(Header headers[]) {
-        return headersMatchPattern(headers, TEXT_MEDIA_TYPES_REGEX);
+        return headersMatchPattern(headers, TEXT_MEDIA_TYPES);
     }
 
     public boolean bodyIsJson(Header headers[]) {
-        return headersMatchPattern(headers, JSON_MEDIA_TYPES_REGEX);
+        return headersMatchPattern(headers, JSON_MEDIA_TYPES);
     }
 
-    private boolean headersMatchPattern(Header headers[], String pattern) {
+    private boolean headersMatchPattern(Header headers[], Pattern pattern) {
         for (Header h : headers)
-            if (h.getValue().matches(pattern))
+            if (pattern.matcher(h.getValue()).matches())
                 return true;
         return false;
     }
@@ -13,6 +13,7 @@ import com.sas.unravl.extractors.UnRAVLExtractor;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,10 +24,16 @@ import javax.script.ScriptEngineManager;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.ResponseErrorHandler;
@@ -49,6 +56,8 @@ public class UnRAVLPlugins {
     private CredentialsProvider credentialsProvider;
 
     private RestTemplate defaultRestTemplate;
+    private RestTemplate pooledRestTemplate;
+    private CloseableHttpClient httpClient;
 
     // must be "Groovy", "groovy", "JavaScript", "js", "javascript", or another
     // valid ScriptEngine name
@@ -188,11 +197,66 @@ public class UnRAVLPlugins {
 
     /**
      * @return the default RestTemplate instance that UnRAVL and ApiCall will
-     *         use
+     *         use; if none was set, a RestTemplate which uses the shared
+     *         {@link #getHttpClient() HTTP client}
      */
-    public RestTemplate getRestTemplate() {
-        return defaultRestTemplate == null ? newRestTemplate()
-                : defaultRestTemplate;
+    public synchronized RestTemplate getRestTemplate() {
+        if (defaultRestTemplate != null)
+            return defaultRestTemplate;
+        if (pooledRestTemplate == null)
+            pooledRestTemplate = newRestTemplate(getHttpClient());
+        return pooledRestTemplate;
+    }
+
+    /**
+     * Set the HTTP client which the default RestTemplate and auth plugins such
+     * as {@link com.sas.unravl.auth.CentralAuthenticationServiceAuth} use.
+     * 
+     * @param httpClient
+     *            the HTTP client; if null, a new pooled client is created when
+     *            needed
+     */
+    public synchronized void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+        this.pooledRestTemplate = null;
+    }
+
+    /**
+     * Return the shared HTTP client. This client keeps a pool of connections,
+     * so that calls to the same host reuse connections (and TLS sessions)
+     * rather than opening new ones. The connections are shared by all
+     * runtimes which use these plugins. Cookies are kept only while following
+     * the redirects of one call made through {@link #getRestTemplate()}; a
+     * response's cookies are never sent with a later call. The system
+     * property <code>unravl.http.connections</code> sets the maximum number of
+     * connections, in total and per host (default 100).
+     * 
+     * @return the shared HTTP client
+     */
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null)
+            httpClient = newHttpClient();
+        return httpClient;
+    }
+
+    private static CloseableHttpClient newHttpClient() {
+        int connections = Integer.getInteger("unravl.http.connections", 100)
+                .intValue();
+        return HttpClientBuilder.create()
+                .setRedirectStrategy(new UnRAVLRedirectStrategy())
+                .setDefaultCookieStore(new NoCookieStore())
+                .setMaxConnTotal(connections).setMaxConnPerRoute(connections)
+                .build();
+    }
+
+    // The cookie store for calls made without their own context, such as
+    // auth plugin calls, so that these calls do not share cookies
+    private static class NoCookieStore extends BasicCookieStore {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized void addCookie(Cookie cookie) {
+        }
     }
 
     /**
@@ -215,6 +279,10 @@ public class UnRAVLPlugins {
      *         UnRAVL scripts.
      */
     public static RestTemplate newRestTemplate() {
+        return newRestTemplate(newHttpClient());
+    }
+
+    private static RestTemplate newRestTemplate(HttpClient httpClient) {
 
         final ResponseErrorHandler ignoreResponseErrors = new ResponseErrorHandler() {
 
@@ -232,10 +300,20 @@ public class UnRAVLPlugins {
                 return false;
             }
         };
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory();
-        final HttpClient httpClient = HttpClientBuilder.create()
-                .setRedirectStrategy(new UnRAVLRedirectStrategy()).build();
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory() {
+            @Override
+            protected HttpContext createHttpContext(HttpMethod httpMethod,
+                    URI uri) {
+                // each call has its own cookies, which are sent only while
+                // following its redirects
+                HttpClientContext context = HttpClientContext.create();
+                context.setCookieStore(new BasicCookieStore());
+                return context;
+            }
+        };
         factory.setHttpClient(httpClient);
+        // request bodies are written directly to the connection, not buffered
+        factory.setBufferRequestBody(false);
 
         RestTemplate rt = new RestTemplate(factory);
         rt.setErrorHandler(ignoreResponseErrors);
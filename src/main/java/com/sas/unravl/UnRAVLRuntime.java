@@ -14,10 +14,14 @@ import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
+import com.sas.unravl.util.AsyncReporter;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.LayeredMap;
 import com.sas.unravl.util.VariableResolver;
 
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
 import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.io.IOException;
@@ -25,11 +29,13 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
@@ -57,11 +63,13 @@ public class UnRAVLRuntime implements Cloneable {
      */
     public static final String ENV_PROPERTY_CHANGE_PREFIX = "env.";
     private static final Logger logger = Logger.getLogger(UnRAVLRuntime.class);
-    private Map<String, Object> env; // script variables
+    private LayeredMap<String, Object> env; // script variables
     private Map<String, UnRAVL> scripts = new LinkedHashMap<String, UnRAVL>();
     private Map<String, UnRAVL> templates = new LinkedHashMap<String, UnRAVL>();
     // a history of the API calls we've made in this runtime
-    private ArrayList<ApiCall> calls = new ArrayList<ApiCall>();
+    private CallHistory calls = new CallHistory();
+    // the output of this runtime's API calls; see AsyncReporter
+    private final AsyncReporter.Counts output = new AsyncReporter.Counts();
     private int failedAssertionCount;
 
     // used to expand variable references {varName} in strings:
@@ -74,33 +82,53 @@ public class UnRAVLRuntime implements Cloneable {
     }
 
     /**
-     * Instantiate a new runtime with the given environment
+     * Instantiate a new runtime with the given environment. The bindings are
+     * copied; later changes to <var>environment</var> do not affect the
+     * runtime.
+     * <p>
+     * Java system properties are also visible as variables, and if the system
+     * property <code>unravl.env.os</code> is true, so are the operating
+     * system environment variables. These are not copied into the
+     * environment; they are read when a variable is not otherwise bound, so
+     * they do not slow down creating a runtime. Variables in
+     * <var>environment</var> or bound later take precedence over them.
      * 
      * @param environment
      *            name/value bindings
      */
     public UnRAVLRuntime(Map<String, Object> environment) {
         configure();
-        this.env = environment;
+        this.env = new LayeredMap<String, Object>(environment,
+                systemBindings());
         setScriptLanguage(getPlugins().getScriptLanguage());
-        for (Map.Entry<Object, Object> e : System.getProperties().entrySet())
-            bind(e.getKey().toString(), e.getValue());
         bind("failedAssertionCount", Integer.valueOf(0));
         resetBindings();
     }
 
+    // the maps which the environment reads when a variable is not bound
+    private static List<Map<?, ?>> systemBindings() {
+        List<Map<?, ?>> bindings = new ArrayList<Map<?, ?>>(2);
+        bindings.add(System.getProperties());
+        if (Boolean.getBoolean("unravl.env.os"))
+            bindings.add(System.getenv());
+        return bindings;
+    }
+
     /**
      * Instantiate a new runtime with the environment of the input runtime
      * instance. The environment is copied, but the new runtime gets its own
-     * empty list of calls, scripts, and templates.
+     * empty list of calls, scripts, and templates. The copy is made in
+     * constant time: the two runtimes share the existing bindings (see
+     * {@link LayeredMap#fork()}), and changes made by either runtime are not
+     * seen by the other.
      * 
      * @param runtime
      *            an existing Runtime (may not be null)
      */
     public UnRAVLRuntime(UnRAVLRuntime runtime) {
-        env = new LinkedHashMap<String, Object>();
-        env.putAll(runtime.env);
-        calls = new ArrayList<ApiCall>();
+        env = runtime.env.fork();
+        calls = new CallHistory(runtime.calls.getRetention(),
+                runtime.calls.getSize());
         scripts = new LinkedHashMap<String, UnRAVL>();
         cancelled = false;
         variableResolver = new VariableResolver(env);
@@ -400,11 +428,14 @@ public class UnRAVLRuntime implements Cloneable {
      * binding if <var>varName</var> is not yet bound, or replace the old
      * binding.
      * <p>
-     * THis also fires a <code>PropertyChangeEvent</code> to all listeners, with
+     * This also notifies {@link BindingListener}s, and fires a
+     * <code>PropertyChangeEvent</code> to all property change listeners, with
      * the property name being the <var>varName</var> with
      * <code>{@link #ENV_PROPERTY_CHANGE_PREFIX}</code> prefixed. For example,
      * on <code>bind("two", Integer.valueOf(2))</code>, this will fire an event
-     * with the property named <code>"env.two"</code>.
+     * with the property named <code>"env.two"</code>. Nothing is fired if the
+     * variable is already bound to the same object (values are compared by
+     * identity, not with <code>equals</code>).
      * </p>
      * 
      * @see #unbind(String)
@@ -421,18 +452,19 @@ public class UnRAVLRuntime implements Cloneable {
             throw new RuntimeException(ue);
         }
 
-        Object oldValue = binding(varName);
-        env.put(varName, value);
-        pcs.firePropertyChange(ENV_PROPERTY_CHANGE_PREFIX + varName, oldValue,
-                value);
-
-        logger.trace("bind("
-                + varName
-                + ","
-                + value
-                + ")"
-                + ((value instanceof String) ? "" : " "
-                        + (value == null ? "null" : value.getClass().getName())));
+        Object oldValue = env.put(varName, value);
+        if (oldValue != value)
+            fireBound(varName, oldValue, value);
+
+        if (logger.isTraceEnabled())
+            logger.trace("bind("
+                    + varName
+                    + ","
+                    + value
+                    + ")"
+                    + ((value instanceof String) ? "" : " "
+                            + (value == null ? "null" : value.getClass()
+                                    .getName())));
         return this;
     }
 
@@ -445,7 +477,9 @@ public class UnRAVLRuntime implements Cloneable {
      * @see #bind(String,Object)
      */
     public void unbind(String varName) {
-        env.remove(varName);
+        Object oldValue = env.remove(varName);
+        if (oldValue != null)
+            fireBound(varName, oldValue, null);
     }
 
     /**
@@ -515,25 +549,67 @@ public class UnRAVLRuntime implements Cloneable {
         return roots;
     }
 
+    /**
+     * Wait for queued output to be written (see {@link AsyncReporter}); in
+     * quiet mode, print a summary of this runtime's API calls. Otherwise, if
+     * any of this runtime's output was dropped or truncated, print how much.
+     *
+     * @return the number of failed assertions, or 1 if there were no API calls
+     */
     public int report() {
-        int failed = (calls.size() == 0 ? 1 : 0);
-        for (ApiCall call : calls) {
-            failed += call.getFailedAssertions().size();
-        }
+        int failed = (calls.getCallCount() == 0 ? 1 : 0)
+                + (int) calls.getFailedAssertionCount();
+        AsyncReporter reporter = AsyncReporter.getInstance();
+        reporter.flush();
+        if (reporter.isQuiet())
+            System.out.println(output.summary());
+        else if (output.getDroppedCount() > 0
+                || output.getTruncatedCount() > 0)
+            System.out.println(String.format(
+                    "Output: %d dropped, %d bodies truncated",
+                    output.getDroppedCount(), output.getTruncatedCount()));
         if (cancelled)
             System.out.println("UnRAVL script execution was canceled.");
         return failed;
     }
 
     /**
-     * @return a list of the API calls
+     * @return a list of the API calls which the call history keeps (see
+     *         {@link #getCallHistory()})
      */
     public List<ApiCall> getApiCalls() {
+        return calls.getApiCalls();
+    }
+
+    /**
+     * @return the counts of this runtime's API calls and of their dropped and
+     *         truncated output (see {@link AsyncReporter})
+     */
+    public AsyncReporter.Counts getOutputCounts() {
+        return output;
+    }
+
+    /**
+     * @return the history of API calls in this runtime
+     */
+    public CallHistory getCallHistory() {
         return calls;
     }
 
     /**
-     * @return The size of this runtime, which is the number of API calls
+     * Set the history of API calls, to change what it keeps
+     *
+     * @param history
+     *            the new, empty history
+     */
+    public void setCallHistory(CallHistory history) {
+        calls = history;
+        pcs.firePropertyChange("calls", null, calls);
+    }
+
+    /**
+     * @return The size of this runtime, which is the number of API calls or
+     *         call summaries in the call history
      */
     public int size() {
         return calls.size();
@@ -544,6 +620,11 @@ public class UnRAVLRuntime implements Cloneable {
         pcs.firePropertyChange("calls", null, calls);
     }
 
+    // notify the call history that an API call has finished
+    void completed(ApiCall apiCall) {
+        calls.completed(apiCall);
+    }
+
     public UnRAVLPlugins getPlugins() {
         return ctx.getBean(UnRAVLPlugins.class);
     }
@@ -579,6 +660,105 @@ public class UnRAVLRuntime implements Cloneable {
     }
 
     private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    private final List<BindingListener> bindingListeners = new CopyOnWriteArrayList<BindingListener>();
+    private final List<BindingListener.ChangeSet> changeSetListeners = new CopyOnWriteArrayList<BindingListener.ChangeSet>();
+    private Map<String, Object> changeSet; // bindings during the current call
+    private int changeSetDepth;
+
+    // Notify listeners of a binding change; this does nothing (and allocates
+    // nothing) if there are no listeners.
+    private void fireBound(String varName, Object oldValue, Object newValue) {
+        for (BindingListener listener : bindingListeners)
+            listener.bound(this, varName, oldValue, newValue);
+        if (!changeSetListeners.isEmpty()) {
+            if (changeSet != null)
+                changeSet.put(varName, newValue);
+            else
+                fireChangeSet(null,
+                        Collections.singletonMap(varName, newValue));
+        }
+        String property = ENV_PROPERTY_CHANGE_PREFIX + varName;
+        if (pcs.hasListeners(property)) {
+            // Deliver directly: PropertyChangeSupport would compare the old
+            // and new values with equals(), which is a deep comparison for
+            // JSON values.
+            PropertyChangeEvent event = new PropertyChangeEvent(this,
+                    property, oldValue, newValue);
+            for (PropertyChangeListener listener : pcs
+                    .getPropertyChangeListeners()) {
+                if (listener instanceof PropertyChangeListenerProxy) {
+                    PropertyChangeListenerProxy proxy = (PropertyChangeListenerProxy) listener;
+                    if (!proxy.getPropertyName().equals(property))
+                        continue;
+                    listener = proxy.getListener();
+                }
+                listener.propertyChange(event);
+            }
+        }
+    }
+
+    private void fireChangeSet(ApiCall call, Map<String, Object> changes) {
+        for (BindingListener.ChangeSet listener : changeSetListeners)
+            listener.changed(this, call, changes);
+    }
+
+    /**
+     * Start collecting variable bindings for
+     * {@link BindingListener.ChangeSet} listeners. Calls may be nested; only
+     * the outermost call collects bindings.
+     *
+     * @see #endChangeSet(ApiCall)
+     */
+    public void beginChangeSet() {
+        if (changeSetDepth++ == 0 && !changeSetListeners.isEmpty())
+            changeSet = new LinkedHashMap<String, Object>();
+    }
+
+    /**
+     * Deliver the bindings collected since {@link #beginChangeSet()} to the
+     * {@link BindingListener.ChangeSet} listeners
+     *
+     * @param call
+     *            the API call which made the bindings
+     */
+    public void endChangeSet(ApiCall call) {
+        if (changeSetDepth == 0 || --changeSetDepth > 0)
+            return;
+        Map<String, Object> changes = changeSet;
+        changeSet = null;
+        if (changes != null && !changes.isEmpty())
+            fireChangeSet(call, Collections.unmodifiableMap(changes));
+    }
+
+    /**
+     * Add a listener which is notified of each variable binding
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addBindingListener(BindingListener listener) {
+        bindingListeners.add(listener);
+    }
+
+    public void removeBindingListener(BindingListener listener) {
+        bindingListeners.remove(listener);
+    }
+
+    /**
+     * Add a listener which is notified once per API call of the variables
+     * bound during the call
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addBindingChangeSetListener(BindingListener.ChangeSet listener) {
+        changeSetListeners.add(listener);
+    }
+
+    public void removeBindingChangeSetListener(
+            BindingListener.ChangeSet listener) {
+        changeSetListeners.remove(listener);
+    }
 
     public void addPropertyChangeListener(PropertyChangeListener listener) {
         this.pcs.addPropertyChangeListener(listener);
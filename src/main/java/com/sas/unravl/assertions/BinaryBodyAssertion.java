@@ -7,14 +7,23 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.Resources;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Asserts that the HTTP response body matches some text. There are several
  * forms for specifying the expected text response, as defined by {@link Binary}
  * .
- * 
+ * <p>
+ * If the expected value is a single <code>"@file-or-url"</code>, the response
+ * body is compared directly to the (cached, and for large files, memory
+ * mapped) content of the file, so large expected files are not copied onto the
+ * heap.
+ *
  * @author David.Biesack@sas.com
  *
  */
@@ -22,35 +31,94 @@ import java.io.IOException;
 public class BinaryBodyAssertion extends BaseUnRAVLAssertion implements
         UnRAVLAssertion {
 
+    private static final int CHUNK = 64 * 1024;
+
     @Override
     public void check(UnRAVL current, ObjectNode assertion, Stage when,
             ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
         super.check(current, assertion, when, call);
         JsonNode value = assertion.get("binary");
         try {
-            Binary binary = new Binary(current, value);
-            byte[] expected = binary.bytes();
-            byte[] actual = call.getResponseBody().toByteArray();
-            assertArrayEquals(expected, actual);
+            ByteBuffer expected;
+            if (value != null && value.isTextual()
+                    && value.textValue().startsWith(UnRAVL.REDIRECT_PREFIX)) {
+                String path = value.textValue().substring(
+                        UnRAVL.REDIRECT_PREFIX.length());
+                expected = Resources.get(current.expand(path)).buffer();
+            } else {
+                Binary binary = new Binary(current, value);
+                expected = ByteBuffer.wrap(binary.bytes());
+            }
+            assertContentEquals(expected, call.getResponseBody());
         } catch (IOException e1) {
             throw new UnRAVLException(e1.getMessage(), e1);
         }
 
     }
 
-    private void assertArrayEquals(byte[] expected, byte[] actual)
-            throws UnRAVLAssertionException {
-        if (expected.length != actual.length)
+    private void assertContentEquals(ByteBuffer expected,
+            ByteArrayOutputStream actual) throws UnRAVLAssertionException,
+            IOException {
+        int actualLength = actual == null ? 0 : actual.size();
+        if (expected.remaining() != actualLength)
             throw new UnRAVLAssertionException(
                     String.format(
                             "binary array contents not equal: length %d not equal to expected length %d",
-                            actual.length, expected.length));
-        for (int i = 0; i < actual.length; i++) {
-            if (actual[i] != expected[i])
-                throw new UnRAVLAssertionException(
-                        String.format(
-                                "binary array contents not equal at byte %d: found %d, expected %d",
-                                i, actual[i], expected[i]));
+                            actualLength, expected.remaining()));
+        if (actual == null)
+            return;
+        // writeTo passes the stream's own buffer, so the response body
+        // is not copied for the comparison.
+        Comparison comparison = new Comparison(expected);
+        actual.writeTo(comparison);
+        if (comparison.mismatch >= 0)
+            throw new UnRAVLAssertionException(
+                    String.format(
+                            "binary array contents not equal at byte %d: found %d, expected %d",
+                            comparison.mismatch, comparison.found,
+                            comparison.wanted));
+    }
+
+    /**
+     * An output stream which compares the bytes written to it to the expected
+     * content, a chunk at a time, and remembers the first mismatch.
+     */
+    private static class Comparison extends OutputStream {
+        private final ByteBuffer expected;
+        private long offset;
+        long mismatch = -1;
+        byte found, wanted;
+
+        Comparison(ByteBuffer expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (mismatch < 0 && len > 0) {
+                int n = Math.min(CHUNK, len);
+                ByteBuffer want = expected.slice();
+                want.limit(n);
+                if (!ByteBuffer.wrap(b, off, n).equals(want)) {
+                    for (int i = 0; i < n; i++) {
+                        if (b[off + i] != want.get(i)) {
+                            mismatch = offset + i;
+                            found = b[off + i];
+                            wanted = want.get(i);
+                            return;
+                        }
+                    }
+                }
+                expected.position(expected.position() + n);
+                offset += n;
+                off += n;
+                len -= n;
+            }
         }
     }
 
@@ -0,0 +1,82 @@
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
+import com.sas.unravl.util.Digests;
+import com.sas.unravl.util.Json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Asserts that a digest (hash) of the HTTP response body matches an expected
+ * value, without comparing the body byte by byte.
+ *
+ * <pre>
+ * { "digest" : { "sha256" : "hex-digest", "length" : length } }
+ * </pre>
+ *
+ * The digest names may be <code>"md5"</code>, <code>"sha1"</code>,
+ * <code>"sha256"</code>, <code>"sha512"</code>, <code>"crc32"</code> or
+ * another Java {@link java.security.MessageDigest} algorithm name. The expected
+ * values are hexadecimal strings (case is ignored) and may contain environment
+ * variable references. The optional <code>"length"</code> is the expected
+ * number of bytes in the response body. Digests are computed while the
+ * response body is read. With the option <code>"keepBody" : false</code>, the
+ * response body is not kept after it is read.
+ *
+ * @author David.Biesack@sas.com
+ * @see Digests
+ */
+@UnRAVLAssertionPlugin("digest")
+public class DigestAssertion extends BaseUnRAVLAssertion {
+
+    private static final Logger logger = Logger
+            .getLogger(DigestAssertion.class);
+
+    @Override
+    public void check(UnRAVL current, ObjectNode assertion, Stage when,
+            ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
+        super.check(current, assertion, when, call);
+        JsonNode spec = assertion.get("digest");
+        if (spec == null || !spec.isObject())
+            throw new UnRAVLException(
+                    "digest assertion value must be an object: { \"sha256\" : \"hex-digest\" }");
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, JsonNode> e : Json.fields(spec)) {
+            if (!e.getKey().equals("length"))
+                names.add(e.getKey());
+        }
+        Digests digests = call.getResponseDigests(names);
+        for (Map.Entry<String, JsonNode> e : Json.fields(spec)) {
+            String name = e.getKey();
+            JsonNode value = e.getValue();
+            if (name.equals("length")) {
+                long expected = value.isNumber() ? value.longValue() : Long
+                        .parseLong(current.expand(value.asText()).trim());
+                if (digests.length() != expected)
+                    throw new UnRAVLAssertionException(String.format(
+                            "digest length %d does not match expected %d",
+                            digests.length(), expected));
+                continue;
+            }
+            if (!value.isTextual())
+                throw new UnRAVLException("digest " + name + " value "
+                        + value + " is not a string");
+            String expected = current.expand(value.textValue()).trim();
+            String actual = digests.hex(name);
+            if (!actual.equalsIgnoreCase(expected))
+                throw new UnRAVLAssertionException(String.format(
+                        "digest %s value %s does not match expected %s", name,
+                        actual, expected));
+            logger.trace("digest " + name + " matches " + expected);
+        }
+    }
+}
@@ -6,13 +6,12 @@ import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
+import com.sas.unravl.util.Headers;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
-import java.util.Arrays;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.http.Header;
 import org.apache.log4j.Logger;
@@ -41,13 +40,13 @@ public class HeadersAssertion extends BaseUnRAVLAssertion {
     public void check(UnRAVL current, ObjectNode assertion, Stage when,
             ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
         super.check(current, assertion, when, call);
-        Header headers[] = call.getResponseHeaders();
+        Headers headers = call.getResponseHeaderMap();
         JsonNode spec = assertion.get("headers");
         check(spec, headers, current);
         return;
     }
 
-    private void check(JsonNode headerNode, Header[] headers, UnRAVL current)
+    private void check(JsonNode headerNode, Headers headers, UnRAVL current)
             throws UnRAVLException {
         for (Map.Entry<String, JsonNode> next : Json.fields(headerNode)) {
             String header = next.getKey();
@@ -57,31 +56,24 @@ public class HeadersAssertion extends BaseUnRAVLAssertion {
                         + " is not a string (regular expression expected)");
             String pattern = current.expand(valNode.textValue());
             Header h = findHeader(header, headers);
-            try {
-                Matcher matcher = Pattern.compile(pattern)
-                        .matcher(h.getValue());
-                if (!matcher.matches())
-                    throw new UnRAVLAssertionException("header " + header
-                            + " does not match required pattern " + pattern);
-                else {
-                    logger.trace("header " + header
-                            + " matches required pattern " + pattern);
-                }
-            } catch (PatternSyntaxException e) {
-                throw new UnRAVLException(
-                        "Invalid header pattern regular expression, " + pattern);
+            if (!Patterns.matches(pattern, h.getValue(), "headers assertion"))
+                throw new UnRAVLAssertionException("header " + header
+                        + " does not match required pattern " + pattern);
+            else {
+                logger.trace("header " + header + " matches required pattern "
+                        + pattern);
             }
 
         }
 
     }
 
-    private Header findHeader(String header, Header[] headers)
+    private Header findHeader(String header, Headers headers)
             throws UnRAVLAssertionException {
-        for (Header h : headers)
-            if (h.getName().equalsIgnoreCase(header))
-                return h;
+        Header h = headers == null ? null : headers.getFirst(header);
+        if (h != null)
+            return h;
         throw new UnRAVLAssertionException("Required header " + header
-                + " not found. Existing headers:" + Arrays.asList(headers));
+                + " not found. Existing headers:" + headers);
     }
 }
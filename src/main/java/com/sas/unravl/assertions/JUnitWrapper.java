@@ -5,6 +5,7 @@ import com.google.common.io.PatternFilenameFilter;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.AsyncReporter;
 
 import java.io.File;
 import java.io.FilenameFilter;
@@ -160,13 +161,19 @@ public class JUnitWrapper {
                 UnRAVLRuntime rt = runtime == null ? new UnRAVLRuntime(newEnv)
                         : runtime;
                 System.out.println("Run UnRAVL script " + scriptFile);
-                rt.execute(scriptFile);
-                for (ApiCall call : rt.getApiCalls()) {
-                    if (call.getFailedAssertions().size() > 0) {
+                try {
+                    rt.execute(scriptFile);
+                } finally {
+                    // write the script's reports before its failures
+                    AsyncReporter.getInstance().flush();
+                }
+                // the call history may not keep every call, but it counts
+                // all the failed assertions
+                if (rt.getCallHistory().getFailedAssertionCount() > 0) {
+                    for (ApiCall call : rt.getApiCalls())
                         printFailedAssertions(call);
-                        throw new AssertionError("script " + scriptFile
-                                + " should have had 0 assertion failures.");
-                    }
+                    throw new AssertionError("script " + scriptFile
+                            + " should have had 0 assertion failures.");
                 }
             } catch (Throwable t) {
                 logger.error(t.getMessage());
@@ -269,7 +276,11 @@ public class JUnitWrapper {
             try {
                 count++;
                 UnRAVLRuntime runtime = rt == null ? new UnRAVLRuntime() : rt;
-                runtime.execute(scriptFile);
+                try {
+                    runtime.execute(scriptFile);
+                } finally {
+                    AsyncReporter.getInstance().flush();
+                }
 
                 if (runtime.getFailedAssertionCount() > 0) {
                     logger.info("UnRAVL script file " + scriptFile
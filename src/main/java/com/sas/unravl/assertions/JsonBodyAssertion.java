@@ -20,15 +20,28 @@ import java.io.IOException;
  * <pre>
  * { "json" : expected-json-body }
  * { "json" : "@file-or-url" }
+ * { "json" : expected, "subset" : boolean, "ignoreOrder" : boolean }
+ * { "json" : expected, "from" : "varName" }
  * </pre>
  * 
- * In the first form the JSON body is coded directly in the UnRAVL script. In
- * the second form, the JSON is in an external file or URL. It is assumed to be
- * in UTF-8 encoding.
+ * In the first form the JSON body is coded directly in the UnRAVL script;
+ * string values and field names are expanded in the environment as they are
+ * compared. In the second form, the JSON is in an external file or URL. It is
+ * assumed to be in UTF-8 encoding; the entire text is expanded before it is
+ * parsed.
  * <p>
- * This body assertion operation performs a somewhat strict definition of
- * equality: arrays and JSON objects must match in cardinality and order.
- * Numbers are matched exactly. Whitespace is ignored.
+ * By default, this body assertion operation performs a somewhat strict
+ * definition of equality: arrays and JSON objects must match in cardinality
+ * and order. Numbers are matched exactly. Whitespace is ignored. If
+ * <code>"subset"</code> is true, objects in the response may have fields, and
+ * arrays may have elements, which are not in the expected value. If
+ * <code>"ignoreOrder"</code> is true, array elements may be in any order. The
+ * comparison stops at the first difference, which is reported with its JSON
+ * Pointer path in the response body. See {@link JsonComparator}.
+ * <p>
+ * By default the expected value is compared to the response body. The
+ * <code>"from"</code> option names a variable whose value (a JSON value, or a
+ * Map, List, String, number or boolean) is compared instead.
  * <h3>Examples</h3>
  * 
  * <pre>
@@ -52,20 +65,28 @@ public class JsonBodyAssertion extends BaseUnRAVLAssertion implements
         super.check(current, assertion, when, call);
 
         JsonNode expected = Json.firstFieldValue(assertion);
+        boolean subset = option(assertion, "subset");
+        boolean ignoreOrder = option(assertion, "ignoreOrder");
+
+        JsonNode from = assertion.get("from");
+        if (from != null && !from.isTextual())
+            throw new UnRAVLException("json assertion 'from' value " + from
+                    + " is not a variable name");
 
         ObjectMapper mapper = new ObjectMapper();
-        String content;
         try {
-            content = current.expand(Text.utf8ToString(call.getResponseBody()
-                    .toByteArray()));
-            JsonNode actual = mapper.readTree(content);
-            JsonNode mapped = Json.expand(actual, current);
+            JsonNode actual = from == null ? mapper.readTree(call
+                    .getResponseBodyAsInputStream()) : variable(current,
+                    from.textValue());
+            // strings in an expected @file-or-url are already expanded
+            UnRAVL expander = expected.isTextual() ? null : current;
             expected = realize(expected, mapper);
-            boolean same = mapped.equals(expected);
-            if (!same)
-                throw new UnRAVLAssertionException(
-                        "Response body does not match expected. Received:"
-                                + actual);
+            String difference = new JsonComparator(expander, subset,
+                    ignoreOrder).compare(expected, actual);
+            if (difference != null)
+                throw new UnRAVLAssertionException((from == null ? "Response body"
+                        : "Variable " + from.textValue())
+                        + " does not match expected " + difference);
         } catch (JsonProcessingException e) {
             throw new UnRAVLException("Could not parse response body as JSON: "
                     + e.getMessage(), e);
@@ -73,22 +94,27 @@ public class JsonBodyAssertion extends BaseUnRAVLAssertion implements
             throw new UnRAVLException("Could not parse response body as JSON: "
                     + e.getMessage(), e);
         }
+    }
 
-        // Following JSONAssert fails - I get java.lang.NoClassDefFoundError:
-        // org/skyscreamer/jsonassert/JSONAssert
-        // even though it is right here...
-        // Bummer, JSONAssert uses org.json.JSONObject, not Jackson JsonNode
-        // So I'll convert to string then compare with JSONAssert
-        // String expected = expectedj.toString();
-        // String body = new String(current.responseBody().toByteArray());
-        // try {
-        // // TODO: add additional fields to control the strictness,
-        // // maybe to ignore some values?
-        // JSONAssert.assertEquals(expected, body, false);
-        // } catch (JSONException e) {
-        // throw new UnravlAssertionException(e.getMessage(), e);
-        // }
+    // The JSON value of a variable, which may also be a Map, List, or scalar
+    private static JsonNode variable(UnRAVL script, String name)
+            throws UnRAVLException {
+        if (!script.bound(name))
+            throw new UnRAVLException("json assertion 'from' variable " + name
+                    + " is not bound");
+        Object val = script.binding(name);
+        return val instanceof JsonNode ? (JsonNode) val : Json.wrap(val);
+    }
 
+    private static boolean option(ObjectNode assertion, String name)
+            throws UnRAVLException {
+        JsonNode value = assertion.get(name);
+        if (value == null)
+            return false;
+        if (!value.isBoolean())
+            throw new UnRAVLException("json assertion " + name
+                    + " value must be a boolean");
+        return value.booleanValue();
     }
 
     // If node is "@file-or-URL , read text from that file and parse as JSON
@@ -0,0 +1,421 @@
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.UnRAVL;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares an expected JSON value to an actual JSON value by walking both
+ * trees together. Comparison stops at the first difference, which is
+ * described with the <a href="https://tools.ietf.org/html/rfc6901">JSON
+ * Pointer</a> path to the difference in the actual value.
+ * <p>
+ * String values and field names in the expected value are expanded in the
+ * script's environment as they are compared (unless the comparator has no
+ * script); the actual value is never expanded or copied.
+ * <p>
+ * Options:
+ * <dl>
+ * <dt>subset</dt>
+ * <dd>the actual value may contain more than the expected value: objects may
+ * have additional fields and arrays may have additional elements.</dd>
+ * <dt>ignoreOrder</dt>
+ * <dd>array elements may be in any order. The actual elements are indexed by a
+ * structural hash code, so each expected element is compared only to the
+ * actual elements with the same hash; this takes expected linear time. The
+ * difference lists the expected elements which were not found and the
+ * unexpected elements. (With <code>subset</code>, an expected element may
+ * match an actual element which has more fields, so elements are compared
+ * pairwise instead.)</dd>
+ * </dl>
+ * Numbers are equal if they have the same value and are both integers or both
+ * floating point numbers, so <code>1</code> equals a long <code>1</code> but
+ * not <code>1.0</code>.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class JsonComparator {
+
+    private static final int MAX_VALUE_LENGTH = 80;
+    private static final int MAX_REPORTED = 5;
+
+    private final UnRAVL script;
+    private final boolean subset;
+    private final boolean ignoreOrder;
+
+    /**
+     * Create a comparator
+     *
+     * @param script
+     *            the script used to expand expected strings; if null, expected
+     *            strings are not expanded
+     * @param subset
+     *            if true, the actual value may contain fields and array
+     *            elements which are not in the expected value
+     * @param ignoreOrder
+     *            if true, array elements may be in any order
+     */
+    public JsonComparator(UnRAVL script, boolean subset, boolean ignoreOrder) {
+        this.script = script;
+        this.subset = subset;
+        this.ignoreOrder = ignoreOrder;
+    }
+
+    /**
+     * Compare two JSON values.
+     *
+     * @param expected
+     *            the expected value
+     * @param actual
+     *            the actual value
+     * @return null if actual matches expected, else a description of the first
+     *         difference, such as
+     *         <code>"at /items/3/id: found 7, expected 6"</code>
+     */
+    public String compare(JsonNode expected, JsonNode actual) {
+        return compare(expected, actual, "");
+    }
+
+    /**
+     * @param expected
+     *            the expected value
+     * @param actual
+     *            the actual value
+     * @return true iff actual matches expected
+     */
+    public boolean matches(JsonNode expected, JsonNode actual) {
+        return compare(expected, actual, "") == null;
+    }
+
+    private String compare(JsonNode expected, JsonNode actual, String path) {
+        if (expected.isTextual()) {
+            String e = expand(expected.textValue());
+            if (actual.isTextual() && actual.textValue().equals(e))
+                return null;
+            return difference(path, actual, quote(e));
+        }
+        if (expected.isNumber()) {
+            if (actual.isNumber()
+                    && expected.isIntegralNumber() == actual
+                            .isIntegralNumber()
+                    && expected.decimalValue().compareTo(actual.decimalValue()) == 0)
+                return null;
+            return difference(path, actual, expected.toString());
+        }
+        if (expected.isObject()) {
+            if (!actual.isObject())
+                return difference(path, actual, "an object");
+            return compareObjects(expected, actual, path);
+        }
+        if (expected.isArray()) {
+            if (!actual.isArray())
+                return difference(path, actual, "an array");
+            if (ignoreOrder)
+                return compareUnordered(expected, actual, path);
+            return compareOrdered(expected, actual, path);
+        }
+        if (expected.equals(actual))
+            return null;
+        return difference(path, actual, expected.toString());
+    }
+
+    private String compareObjects(JsonNode expected, JsonNode actual,
+            String path) {
+        Set<String> names = subset ? null : new HashSet<String>();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = expected.fields(); fields
+                .hasNext();) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = expand(field.getKey());
+            String fieldPath = path + "/" + escape(name);
+            JsonNode value = actual.get(name);
+            if (value == null)
+                return at(fieldPath) + ": missing field " + quote(name);
+            String diff = compare(field.getValue(), value, fieldPath);
+            if (diff != null)
+                return diff;
+            if (names != null)
+                names.add(name);
+        }
+        if (names != null && actual.size() > names.size()) {
+            for (Iterator<String> i = actual.fieldNames(); i.hasNext();) {
+                String name = i.next();
+                if (!names.contains(name))
+                    return at(path + "/" + escape(name))
+                            + ": unexpected field " + quote(name);
+            }
+        }
+        return null;
+    }
+
+    private String compareOrdered(JsonNode expected, JsonNode actual,
+            String path) {
+        if (!subset) {
+            int n = Math.min(expected.size(), actual.size());
+            for (int i = 0; i < n; i++) {
+                String diff = compare(expected.get(i), actual.get(i), path
+                        + "/" + i);
+                if (diff != null)
+                    return diff;
+            }
+            if (actual.size() > n)
+                return at(path + "/" + n) + ": unexpected element "
+                        + abbreviate(actual.get(n));
+            if (expected.size() > n)
+                return at(path + "/" + n) + ": missing element "
+                        + abbreviate(expected.get(n));
+            return null;
+        }
+        // subset: the expected elements must occur in order
+        int a = 0;
+        for (int e = 0; e < expected.size(); e++) {
+            JsonNode element = expected.get(e);
+            while (a < actual.size() && !matches(element, actual.get(a)))
+                a++;
+            if (a == actual.size())
+                return at(path) + ": no element matches expected element "
+                        + e + " " + abbreviate(element);
+            a++;
+        }
+        return null;
+    }
+
+    private String compareUnordered(JsonNode expected, JsonNode actual,
+            String path) {
+        if (subset)
+            return compareUnorderedSubset(expected, actual, path);
+        // Index the actual elements by structural hash, then match each
+        // expected element against the elements with the same hash.
+        Map<Integer, List<Integer>> index = new HashMap<Integer, List<Integer>>(
+                actual.size() * 2);
+        for (int a = 0; a < actual.size(); a++) {
+            Integer h = Integer.valueOf(hash(actual.get(a), false));
+            List<Integer> bucket = index.get(h);
+            if (bucket == null) {
+                bucket = new LinkedList<Integer>();
+                index.put(h, bucket);
+            }
+            bucket.add(Integer.valueOf(a));
+        }
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int e = 0; e < expected.size(); e++) {
+            JsonNode element = expected.get(e);
+            List<Integer> bucket = index.get(Integer.valueOf(hash(element,
+                    true)));
+            boolean found = false;
+            if (bucket != null)
+                for (Iterator<Integer> i = bucket.iterator(); !found
+                        && i.hasNext();) {
+                    if (matches(element, actual.get(i.next().intValue()))) {
+                        i.remove();
+                        found = true;
+                    }
+                }
+            if (!found)
+                missing.add(Integer.valueOf(e));
+        }
+        if (missing.isEmpty() && expected.size() == actual.size())
+            return null;
+        List<Integer> extra = new ArrayList<Integer>();
+        for (List<Integer> bucket : index.values())
+            extra.addAll(bucket);
+        Collections.sort(extra);
+        StringBuilder b = new StringBuilder(at(path)).append(':');
+        if (expected.size() != actual.size())
+            b.append(" array has ").append(actual.size())
+                    .append(" elements, expected ").append(expected.size())
+                    .append(';');
+        describe(b, "expected element", "not found", missing, expected);
+        describe(b, "unexpected element", "", extra, actual);
+        b.setLength(b.length() - 1);
+        return b.toString();
+    }
+
+    // Append a description of up to MAX_REPORTED elements, followed by ';'
+    private static void describe(StringBuilder b, String what, String suffix,
+            List<Integer> indexes, JsonNode array) {
+        int count = indexes.size();
+        if (count == 0)
+            return;
+        b.append(' ').append(count).append(' ').append(what)
+                .append(count == 1 ? "" : "s");
+        if (suffix.length() > 0)
+            b.append(' ').append(suffix);
+        b.append(':');
+        for (int i = 0; i < count && i < MAX_REPORTED; i++) {
+            int index = indexes.get(i).intValue();
+            b.append(" [").append(index).append("] ")
+                    .append(abbreviate(array.get(index)));
+        }
+        if (count > MAX_REPORTED)
+            b.append(" ...");
+        b.append(';');
+    }
+
+    // In subset mode, an expected element matches any actual element
+    // which contains it, so elements cannot be matched by hash. Each expected
+    // element needs a different actual element; this is a bipartite matching,
+    // found with augmenting paths (Kuhn's algorithm), so an early choice
+    // does not cause a false failure.
+    private String compareUnorderedSubset(JsonNode expected, JsonNode actual,
+            String path) {
+        int owner[] = new int[actual.size()]; // expected element, or -1
+        Arrays.fill(owner, -1);
+        int candidates[][] = new int[expected.size()][];
+        for (int e = 0; e < expected.size(); e++) {
+            if (!augment(e, expected, actual, candidates, owner))
+                return at(path) + ": no element matches expected element "
+                        + e + " " + abbreviate(expected.get(e));
+        }
+        return null;
+    }
+
+    // The indexes of the actual elements which match expected element e
+    private int[] candidates(int e, JsonNode expected, JsonNode actual,
+            int candidates[][]) {
+        if (candidates[e] == null) {
+            JsonNode element = expected.get(e);
+            int found[] = new int[actual.size()];
+            int n = 0;
+            for (int a = 0; a < actual.size(); a++)
+                if (matches(element, actual.get(a)))
+                    found[n++] = a;
+            candidates[e] = Arrays.copyOf(found, n);
+        }
+        return candidates[e];
+    }
+
+    // Match expected element e to a free actual element, reassigning matched
+    // elements along an augmenting path if needed. The search uses an
+    // explicit stack, since the path may be as long as the array.
+    private boolean augment(int e, JsonNode expected, JsonNode actual,
+            int candidates[][], int owner[]) {
+        for (int a : candidates(e, expected, actual, candidates))
+            if (owner[a] < 0) {
+                owner[a] = e;
+                return true;
+            }
+        boolean visited[] = new boolean[owner.length];
+        int n = expected.size();
+        int elements[] = new int[n], next[] = new int[n], via[] = new int[n];
+        int depth = 0;
+        elements[0] = e;
+        while (depth >= 0) {
+            int c[] = candidates(elements[depth], expected, actual,
+                    candidates);
+            if (next[depth] == c.length) {
+                depth--;
+                continue;
+            }
+            int a = c[next[depth]++];
+            if (visited[a])
+                continue;
+            visited[a] = true;
+            via[depth] = a;
+            if (owner[a] < 0) {
+                for (int d = depth; d >= 0; d--)
+                    owner[via[d]] = elements[d];
+                return true;
+            }
+            depth++;
+            elements[depth] = owner[a];
+            next[depth] = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Compute a structural hash code of a JSON value which is consistent with
+     * {@link #matches(JsonNode, JsonNode)} when not in subset mode: values
+     * which match have the same hash. Object fields, and array elements when
+     * ignoring order, are combined so that their order does not matter.
+     *
+     * @param node
+     *            a JSON value
+     * @param expand
+     *            if true, expand strings and field names (for expected values)
+     * @return the hash code
+     */
+    private int hash(JsonNode node, boolean expand) {
+        if (node.isTextual())
+            return (expand ? expand(node.textValue()) : node.textValue())
+                    .hashCode();
+        if (node.isNumber()) {
+            if (node.isIntegralNumber())
+                return node.bigIntegerValue().hashCode();
+            BigDecimal d = node.decimalValue();
+            return 31 * (d.signum() == 0 ? 0 : d.stripTrailingZeros()
+                    .hashCode()) + 1;
+        }
+        if (node.isObject()) {
+            int h = 7;
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields
+                    .hasNext();) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String name = expand ? expand(field.getKey()) : field.getKey();
+                h += name.hashCode() ^ hash(field.getValue(), expand);
+            }
+            return h;
+        }
+        if (node.isArray()) {
+            int h = 11;
+            for (JsonNode element : node) {
+                if (ignoreOrder)
+                    h += hash(element, expand);
+                else
+                    h = 31 * h + hash(element, expand);
+            }
+            return h;
+        }
+        return node.hashCode();
+    }
+
+    private String expand(String text) {
+        return script == null ? text : script.expand(text);
+    }
+
+    private static String difference(String path, JsonNode actual,
+            String expected) {
+        return at(path) + ": found "
+                + abbreviate(actual) + ", expected " + expected;
+    }
+
+    // the root is shown as "/" rather than the empty JSON Pointer ""
+    private static String at(String path) {
+        return "at " + (path.length() == 0 ? "/" : path);
+    }
+
+    private static String quote(String text) {
+        StringBuilder b = new StringBuilder("\"");
+        b.append(text.length() > MAX_VALUE_LENGTH ? text.substring(0,
+                MAX_VALUE_LENGTH) + "..." : text);
+        return b.append('"').toString();
+    }
+
+    private static String abbreviate(JsonNode node) {
+        String text = node.toString();
+        return text.length() > MAX_VALUE_LENGTH ? text.substring(0,
+                MAX_VALUE_LENGTH) + "..." : text;
+    }
+
+    /**
+     * Escape a field name for use in a JSON Pointer
+     *
+     * @param name
+     *            a field name
+     * @return the name, with "~" replaced by "~0" and "/" replaced by "~1"
+     */
+    public static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+}
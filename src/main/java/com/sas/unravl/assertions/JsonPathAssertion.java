@@ -0,0 +1,339 @@
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Asserts that the values selected by one or more <a
+ * href='https://github.com/jayway/JsonPath'>JsonPath expressions</a> match
+ * expected JSON values.
+ *
+ * <pre>
+ * { "jsonPath" : { path : value, ..., path : value } }
+ * { "jsonPath" : { path : value, ..., path : value }, "from" : "varName" }
+ * </pre>
+ *
+ * Each <var>path</var> is a JsonPath expression and each <var>value</var> is
+ * any JSON value. Paths and the strings in the expected values are subject to
+ * environment expansion. By default the paths are applied to the JSON response
+ * body; the <code>"from"</code> option names a variable which holds a JSON
+ * value (or a Map or List) to test instead.
+ * <p>
+ * All simple paths (<code>$</code> followed by <code>.name</code>,
+ * <code>['name']</code>, <code>[index]</code>, <code>.*</code> or
+ * <code>[*]</code> steps) are compiled into a single path tree, and the JSON
+ * is walked once to collect the values of all of them. Values of definite
+ * paths are compared as soon as they are reached, so the assertion stops at the
+ * first mismatch. Paths which use a wildcard select a JSON array of all
+ * matching values. Other JsonPath expressions (filters, deep scan, slices) are
+ * evaluated individually with {@link JsonPath#read(Object, String, com.jayway.jsonpath.Predicate...)}
+ * after the walk.
+ * <p>
+ * Numbers are compared by value, so <code>1</code> matches <code>1.0</code>.
+ * <h3>Example</h3>
+ *
+ * <pre>
+ * { "jsonPath" : { "$.status" : "OK",
+ *                  "$.results[0].location.lat" : 27.988056,
+ *                  "$.results[*].resolution" : [ 152.7032318115234 ] } }
+ * </pre>
+ *
+ * @author David.Biesack@sas.com
+ */
+@UnRAVLAssertionPlugin({ "jsonPath", "jsonpath" })
+public class JsonPathAssertion extends BaseUnRAVLAssertion {
+
+    private static final Logger logger = Logger
+            .getLogger(JsonPathAssertion.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    public void check(UnRAVL current, ObjectNode assertion, Stage when,
+            ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
+        super.check(current, assertion, when, call);
+        ObjectNode paths = Json.object(Json.firstFieldValue(assertion));
+        JsonNode source = source(current, assertion, call);
+
+        PathNode root = new PathNode();
+        List<Expectation> expectations = new ArrayList<Expectation>();
+        List<Expectation> general = new ArrayList<Expectation>();
+        for (Map.Entry<String, JsonNode> entry : Json.fields(paths)) {
+            Expectation e = new Expectation(current.expand(entry.getKey()),
+                    Json.expand(entry.getValue(), current));
+            expectations.add(e);
+            if (!root.compile(e)) {
+                e.general = true;
+                general.add(e);
+            }
+        }
+
+        root.walk(source);
+
+        for (Expectation e : expectations) {
+            if (e.general)
+                continue;
+            if (e.definite) {
+                if (!e.matched)
+                    throw new UnRAVLAssertionException(String.format(
+                            "jsonPath %s not found in %s", e.path, source));
+            } else
+                e.compare(e.found);
+        }
+
+        if (!general.isEmpty()) {
+            Object json = mapper.convertValue(source, Object.class);
+            for (Expectation e : general) {
+                Object value;
+                try {
+                    value = JsonPath.read(json, e.path);
+                } catch (InvalidPathException ex) {
+                    throw new UnRAVLAssertionException(String.format(
+                            "jsonPath %s could not be evaluated: %s", e.path,
+                            ex.getMessage()));
+                }
+                e.compare(Json.wrap(value));
+            }
+        }
+    }
+
+    private JsonNode source(UnRAVL script, ObjectNode assertion, ApiCall call)
+            throws UnRAVLException {
+        JsonNode from = assertion.get("from");
+        if (from == null)
+            return Json.parse(Text.utf8ToString(call.getResponseBody()
+                    .toByteArray()));
+        if (!from.isTextual()) {
+            String msg = String.format(
+                    "'from' value %s in %s assertion is not a string.", from,
+                    key(assertion));
+            logger.error(msg);
+            throw new UnRAVLException(msg);
+        }
+        Object val = script.binding(from.textValue());
+        if (val instanceof JsonNode)
+            return (JsonNode) val;
+        if (val instanceof Map || val instanceof List)
+            return Json.wrap(val);
+        String msg = String
+                .format("Variable named by 'from' value %s in %s assertion is not an object or array. Value is %s",
+                        from, key(assertion), val);
+        logger.error(msg);
+        throw new UnRAVLException(msg);
+    }
+
+    /**
+     * Compare two JSON values; numbers are compared by value, not by their
+     * JsonNode type.
+     */
+    static boolean same(JsonNode actual, JsonNode expected) {
+        if (actual.isNumber() && expected.isNumber())
+            return actual.decimalValue().compareTo(expected.decimalValue()) == 0;
+        if (actual.isArray() && expected.isArray()) {
+            if (actual.size() != expected.size())
+                return false;
+            for (int i = 0; i < actual.size(); i++)
+                if (!same(actual.get(i), expected.get(i)))
+                    return false;
+            return true;
+        }
+        if (actual.isObject() && expected.isObject()) {
+            if (actual.size() != expected.size())
+                return false;
+            for (Iterator<String> names = expected.fieldNames(); names
+                    .hasNext();) {
+                String name = names.next();
+                JsonNode a = actual.get(name);
+                if (a == null || !same(a, expected.get(name)))
+                    return false;
+            }
+            return true;
+        }
+        return actual.equals(expected);
+    }
+
+    /** One path : value pair from the assertion */
+    private static class Expectation {
+        final String path;
+        final JsonNode expected;
+        boolean definite = true;
+        boolean general; // evaluated by JsonPath
+        boolean matched;
+        ArrayNode found;
+
+        Expectation(String path, JsonNode expected) {
+            this.path = path;
+            this.expected = expected;
+        }
+
+        void compare(JsonNode actual) throws UnRAVLAssertionException {
+            if (!same(actual, expected))
+                throw new UnRAVLAssertionException(String.format(
+                        "jsonPath %s value %s does not match expected %s",
+                        path, actual, expected));
+        }
+    }
+
+    /**
+     * A node in the tree of compiled paths. Paths which share a prefix share
+     * the nodes for that prefix, so walking the tree against the JSON visits
+     * each selected JSON node once for all the paths.
+     */
+    private static class PathNode {
+        private final Map<String, PathNode> fields = new LinkedHashMap<String, PathNode>();
+        private final Map<Integer, PathNode> indexes = new LinkedHashMap<Integer, PathNode>();
+        private PathNode wildcard;
+        private final List<Expectation> terminals = new ArrayList<Expectation>();
+
+        /**
+         * Add the expectation's path to this tree.
+         *
+         * @return false if the path is not a simple path and must be evaluated
+         *         by JsonPath
+         */
+        boolean compile(Expectation e) {
+            String p = e.path.trim();
+            if (!p.startsWith("$"))
+                return false;
+            List<Object> steps = new ArrayList<Object>();
+            int i = 1;
+            int n = p.length();
+            while (i < n) {
+                char c = p.charAt(i);
+                if (c == '.') {
+                    int start = ++i;
+                    while (i < n && p.charAt(i) != '.' && p.charAt(i) != '[')
+                        i++;
+                    String name = p.substring(start, i);
+                    if (name.isEmpty() || !simpleName(name))
+                        return false; // deep scan ".." or other syntax
+                    steps.add(name.equals("*") ? WILDCARD : name);
+                } else if (c == '[') {
+                    int end = p.indexOf(']', i);
+                    if (end < 0)
+                        return false;
+                    String sel = p.substring(i + 1, end).trim();
+                    i = end + 1;
+                    if (sel.equals("*"))
+                        steps.add(WILDCARD);
+                    else if (index(sel))
+                        steps.add(Integer.valueOf(sel));
+                    else if (sel.length() >= 2
+                            && (sel.charAt(0) == '\'' || sel.charAt(0) == '"')
+                            && sel.charAt(sel.length() - 1) == sel.charAt(0)
+                            && simpleName(sel.substring(1, sel.length() - 1)))
+                        steps.add(sel.substring(1, sel.length() - 1));
+                    else
+                        return false; // filters, slices, unions, ...
+                } else
+                    return false;
+            }
+            PathNode node = this;
+            for (Object step : steps) {
+                if (step == WILDCARD) {
+                    e.definite = false;
+                    if (node.wildcard == null)
+                        node.wildcard = new PathNode();
+                    node = node.wildcard;
+                } else if (step instanceof Integer) {
+                    PathNode next = node.indexes.get(step);
+                    if (next == null)
+                        node.indexes.put((Integer) step, next = new PathNode());
+                    node = next;
+                } else {
+                    PathNode next = node.fields.get(step);
+                    if (next == null)
+                        node.fields.put((String) step, next = new PathNode());
+                    node = next;
+                }
+            }
+            if (!e.definite)
+                e.found = new ArrayNode(Json.jsonNodeFactory());
+            node.terminals.add(e);
+            return true;
+        }
+
+        // true if sel is an array index (a non-negative int)
+        private static boolean index(String sel) {
+            int n = sel.length();
+            if (n == 0 || n > 9)
+                return false;
+            for (int i = 0; i < n; i++)
+                if (sel.charAt(i) < '0' || sel.charAt(i) > '9')
+                    return false;
+            return true;
+        }
+
+        private static boolean simpleName(String name) {
+            for (int i = 0; i < name.length(); i++) {
+                switch (name.charAt(i)) {
+                case '(':
+                case ')':
+                case '?':
+                case '@':
+                case ',':
+                case ':':
+                case '\'':
+                case '"':
+                case ' ':
+                    return false;
+                default:
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Walk the JSON, visiting only the nodes selected by some path.
+         * Definite paths are compared when reached.
+         */
+        void walk(JsonNode json) throws UnRAVLAssertionException {
+            for (Expectation e : terminals) {
+                if (e.definite) {
+                    e.compare(json);
+                    e.matched = true;
+                } else
+                    e.found.add(json);
+            }
+            if (json.isObject()) {
+                for (Map.Entry<String, PathNode> f : fields.entrySet()) {
+                    JsonNode child = json.get(f.getKey());
+                    if (child != null)
+                        f.getValue().walk(child);
+                }
+                if (wildcard != null)
+                    for (Iterator<JsonNode> it = json.elements(); it.hasNext();)
+                        wildcard.walk(it.next());
+            } else if (json.isArray()) {
+                for (Map.Entry<Integer, PathNode> x : indexes.entrySet()) {
+                    JsonNode child = json.get(x.getKey().intValue());
+                    if (child != null)
+                        x.getValue().walk(child);
+                }
+                if (wildcard != null)
+                    for (JsonNode child : json)
+                        wildcard.walk(child);
+            }
+        }
+    }
+
+    private static final Object WILDCARD = new Object();
+}
@@ -2,12 +2,9 @@ package com.sas.unravl.assertions;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
 import com.github.fge.jsonschema.core.report.ProcessingReport;
 import com.github.fge.jsonschema.main.JsonSchema;
-import com.github.fge.jsonschema.main.JsonSchemaFactory;
-import com.github.fge.jsonschema.processors.syntax.SyntaxValidator;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
@@ -16,7 +13,14 @@ import com.sas.unravl.generators.Text;
 import com.sas.unravl.util.Json;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Asserts that one or more JSON structures conform to a JSON schema. There are
@@ -50,6 +54,14 @@ import java.util.Iterator;
  * If <code>"values"</code> is omitted, the default value is the current
  * response body which is assumed to be JSON.
  * <p>
+ * When there are many values (at least 16, or the number set by the system
+ * property <code>unravl.schema.parallel.threshold</code>) or the values are
+ * large, the values are validated in parallel. Failures are still reported in
+ * the order of the values.
+ * <p>
+ * The schema is loaded, checked and compiled once and reused by later
+ * assertions; see {@link SchemaCache}.
+ * <p>
  * TThe assertion fails if any value does not conform to the JSON schema, or if
  * the elements do not have the forms described above or if the referenced JSON
  * schema is not a valid schema.
@@ -59,13 +71,22 @@ import java.util.Iterator;
 @UnRAVLAssertionPlugin("schema")
 public class SchemaAssertion extends BaseUnRAVLAssertion {
 
+    private static final int PARALLELISM = Runtime.getRuntime()
+            .availableProcessors();
+    // minimum number of values, or total number of JSON nodes in the values,
+    // that are validated in parallel
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger(
+            "unravl.schema.parallel.threshold", 16);
+    private static final int PARALLEL_SIZE_THRESHOLD = 10000;
+    private static ForkJoinPool pool;
+
     @Override
     public void check(UnRAVL current, ObjectNode assertion, Stage when,
             ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
         super.check(current, assertion, when, call);
         JsonNode schemaRef = Json.firstFieldValue(assertion);
         JsonNode jsonSchema = resolveSchema(current, schemaRef);
-        JsonSchema validatingSchema = validateSchema(jsonSchema);
+        JsonSchema validatingSchema = SchemaCache.compile(jsonSchema);
         JsonNode values = assertion.get("values");
         if (values == null) {
             values = assertion.get("value");
@@ -75,10 +96,12 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
                     .getResponseBody().toByteArray()));
             validateValueAgainstSchema(responseBody, validatingSchema);
         } else if (values.isArray()) {
-            Iterator<JsonNode> iter = values.elements();
-            while (iter.hasNext()) {
-                assertSchema(call, validatingSchema, iter.next());
-            }
+            List<JsonNode> items = Json.toArray(values);
+            if (parallel(call, items))
+                assertSchemaInParallel(call, validatingSchema, items);
+            else
+                for (JsonNode item : items)
+                    assertSchema(call, validatingSchema, item);
         } else if (values.isTextual()) {
             assertSchema(call, validatingSchema, values);
         } else { // Should we allow an object or array and validate it?
@@ -99,6 +122,98 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         validateVarAgainstSchema(call, varName, validatingSchema);
     }
 
+    // Validate in parallel if there are many values or if the values are
+    // large, and there is more than one processor to use.
+    private boolean parallel(ApiCall call, List<JsonNode> items) {
+        if (items.size() < 2 || PARALLELISM < 2)
+            return false;
+        if (items.size() >= PARALLEL_THRESHOLD)
+            return true;
+        int size = 0;
+        for (JsonNode item : items) {
+            Object value = item.isTextual() ? call.getScript().binding(
+                    item.textValue()) : null;
+            if (value instanceof JsonNode)
+                size += nodeCount((JsonNode) value, PARALLEL_SIZE_THRESHOLD
+                        - size);
+            if (size >= PARALLEL_SIZE_THRESHOLD)
+                return true;
+        }
+        return false;
+    }
+
+    // The number of nodes in a JSON tree, counting at most limit nodes
+    private static int nodeCount(JsonNode node, int limit) {
+        int count = 0;
+        Deque<JsonNode> pending = new ArrayDeque<JsonNode>();
+        pending.push(node);
+        while (!pending.isEmpty() && count < limit) {
+            JsonNode next = pending.pop();
+            count++;
+            if (next.isContainerNode())
+                for (JsonNode child : next)
+                    pending.push(child);
+        }
+        return count;
+    }
+
+    /**
+     * Validate each value in a separate fork-join task. The results are
+     * examined in the order the values were listed, so the failure that is
+     * reported is the same one a sequential validation would report. Once
+     * that failure is known, the remaining tasks are cancelled.
+     */
+    private void assertSchemaInParallel(final ApiCall call,
+            final JsonSchema validatingSchema, List<JsonNode> items)
+            throws UnRAVLException {
+        List<Callable<UnRAVLException>> tasks = new ArrayList<Callable<UnRAVLException>>(
+                items.size());
+        for (final JsonNode item : items) {
+            tasks.add(new Callable<UnRAVLException>() {
+                @Override
+                public UnRAVLException call() {
+                    try {
+                        assertSchema(call, validatingSchema, item);
+                        return null;
+                    } catch (UnRAVLException e) {
+                        return e;
+                    }
+                }
+            });
+        }
+        List<Future<UnRAVLException>> results = new ArrayList<Future<UnRAVLException>>(
+                tasks.size());
+        for (Callable<UnRAVLException> task : tasks)
+            results.add(pool().submit(task));
+        try {
+            for (Future<UnRAVLException> result : results) {
+                UnRAVLException failure;
+                try {
+                    failure = result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UnRAVLException(
+                            "Schema validation was interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new UnRAVLException(e.getCause().getMessage(),
+                            e.getCause());
+                }
+                if (failure != null)
+                    throw failure;
+            }
+        } finally {
+            // no-op for the tasks which are done
+            for (Future<UnRAVLException> result : results)
+                result.cancel(true);
+        }
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(PARALLELISM);
+        return pool;
+    }
+
     private JsonNode resolveSchema(UnRAVL current, JsonNode schemaRef)
             throws UnRAVLException {
 
@@ -106,12 +221,9 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         if (schemaRef.isTextual()) {
             String request = schemaRef.textValue();
             if (request.startsWith(UnRAVL.REDIRECT_PREFIX)) {
-                Text text;
                 try {
-                    TextNode expanded = new TextNode(current.expand(schemaRef
-                            .textValue()));
-                    text = new Text(current, expanded);
-                    jsonSchema = Json.parse(text.text());
+                    jsonSchema = SchemaCache.load(current,
+                            current.expand(schemaRef.textValue()));
                 } catch (IOException e) {
                     throw new UnRAVLException(String.format(
                             "Unable to load schema from @ reference %s",
@@ -135,28 +247,6 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         return jsonSchema;
     }
 
-    private JsonSchema validateSchema(JsonNode jsonSchema)
-            throws UnRAVLException {
-
-        try {
-            final JsonSchemaFactory factory = JsonSchemaFactory.byDefault();
-            final JsonSchema schema = factory.getJsonSchema(jsonSchema);
-            SyntaxValidator syntaxValidator = factory.getSyntaxValidator();
-            if (!syntaxValidator.schemaIsValid(jsonSchema)) {
-                throw new UnRAVLException("JSON schema is invalid");
-            }
-            ProcessingReport report = syntaxValidator
-                    .validateSchema(jsonSchema);
-            boolean success = report.isSuccess();
-            if (!success) {
-                throw new UnRAVLAssertionException(report.toString());
-            }
-            return schema;
-        } catch (ProcessingException e) {
-            throw new UnRAVLException(e);
-        }
-    }
-
     private void validateVarAgainstSchema(ApiCall call, String varName,
             JsonSchema jsonSchema) throws UnRAVLException {
         Object value = call.getScript().binding(varName);
@@ -0,0 +1,303 @@
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import com.github.fge.jsonschema.core.load.configuration.LoadingConfiguration;
+import com.github.fge.jsonschema.core.load.download.DefaultURIDownloader;
+import com.github.fge.jsonschema.core.load.download.URIDownloader;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+import com.github.fge.jsonschema.processors.syntax.SyntaxValidator;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Caches used by {@link SchemaAssertion} so that a JSON schema is loaded,
+ * syntax checked and compiled once rather than on every assertion.
+ * <ul>
+ * <li>One {@link JsonSchemaFactory} is shared by all schema assertions.</li>
+ * <li>Schemas referenced as <code>"@location"</code> are cached by their
+ * (expanded) location.</li>
+ * <li>Compiled, valid {@link JsonSchema} instances are cached by schema
+ * content.</li>
+ * <li>Documents fetched to resolve <code>http:</code>, <code>https:</code>
+ * and <code>file:</code> <code>"$ref"</code> references are cached by URI.</li>
+ * </ul>
+ * Local files are reloaded when their modification time or size changes.
+ * Other locations, and compiled schemas (which hold on to the documents their
+ * references resolved to), expire after a time to live. The time to live in
+ * seconds may be set with the system property
+ * <code>unravl.schema.cache.ttl</code> (default 300) and the maximum number of
+ * entries in each cache with <code>unravl.schema.cache.size</code> (default
+ * 64).
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class SchemaCache {
+
+    private static final Logger logger = Logger.getLogger(SchemaCache.class);
+
+    private static final int maximumSize = Math.max(1,
+            Integer.getInteger("unravl.schema.cache.size", 64));
+    private static final long ttl = Long.getLong("unravl.schema.cache.ttl",
+            300) * 1000L;
+
+    private static final Map<String, Document> locations = lru();
+    private static final Map<URI, Document> references = lru();
+    private static final Map<JsonNode, Compiled> schemas = lru();
+
+    // replaced when a reference document is stale, since the factory's
+    // loader and validators keep the references they have resolved
+    private static JsonSchemaFactory factory = newFactory();
+
+    // incremented whenever a cached reference document is found to be stale
+    private static long generation;
+
+    private SchemaCache() {
+    }
+
+    private static <K, V> Map<K, V> lru() {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    private static JsonSchemaFactory newFactory() {
+        URIDownloader download = new CachingDownloader(
+                DefaultURIDownloader.getInstance());
+        LoadingConfiguration loading = LoadingConfiguration.newBuilder()
+                .addScheme("http", download).addScheme("https", download)
+                .addScheme("file", download).freeze();
+        return JsonSchemaFactory.newBuilder()
+                .setLoadingConfiguration(loading).freeze();
+    }
+
+    /**
+     * @return the shared schema factory
+     */
+    public static JsonSchemaFactory getFactory() {
+        synchronized (references) {
+            return factory;
+        }
+    }
+
+    /**
+     * Load and parse a JSON schema from an <code>"@location"</code>.
+     *
+     * @param script
+     *            the current script
+     * @param location
+     *            the expanded <code>"@file-or-URL"</code> string
+     * @return the schema JSON
+     * @throws IOException
+     *             if the schema cannot be read
+     * @throws UnRAVLException
+     *             if the schema is not valid JSON
+     */
+    public static JsonNode load(UnRAVL script, String location)
+            throws IOException, UnRAVLException {
+        File file = file(location.substring(UnRAVL.REDIRECT_PREFIX.length()));
+        Document doc;
+        synchronized (locations) {
+            doc = locations.get(location);
+        }
+        if (doc != null && doc.isFresh(file))
+            return (JsonNode) doc.content;
+        JsonNode json = Json.parse(new Text(script, location).text());
+        synchronized (locations) {
+            locations.put(location, new Document(json, file));
+        }
+        return json;
+    }
+
+    /**
+     * Return a compiled schema for the JSON schema, checking the schema
+     * syntax the first time it is seen.
+     *
+     * @param jsonSchema
+     *            the schema JSON
+     * @return the compiled schema
+     * @throws UnRAVLAssertionException
+     *             if the schema is not a valid JSON schema
+     * @throws UnRAVLException
+     *             if the schema could not be processed
+     */
+    public static JsonSchema compile(JsonNode jsonSchema)
+            throws UnRAVLException {
+        expireReferences();
+        Compiled compiled;
+        synchronized (schemas) {
+            compiled = schemas.get(jsonSchema);
+        }
+        if (compiled != null && compiled.isFresh())
+            return compiled.schema;
+        try {
+            JsonSchemaFactory factory = getFactory();
+            SyntaxValidator syntaxValidator = factory.getSyntaxValidator();
+            if (!syntaxValidator.schemaIsValid(jsonSchema)) {
+                throw new UnRAVLException("JSON schema is invalid");
+            }
+            ProcessingReport report = syntaxValidator
+                    .validateSchema(jsonSchema);
+            if (!report.isSuccess()) {
+                throw new UnRAVLAssertionException(report.toString());
+            }
+            JsonSchema schema = factory.getJsonSchema(jsonSchema);
+            synchronized (schemas) {
+                schemas.put(jsonSchema.deepCopy(), new Compiled(schema));
+            }
+            return schema;
+        } catch (ProcessingException e) {
+            throw new UnRAVLException(e);
+        }
+    }
+
+    /**
+     * Remove stale reference documents. Compiled schemas and the schema
+     * factory keep the documents their references resolved to, so if any
+     * reference has changed, all compiled schemas are considered stale and
+     * a new factory is created.
+     */
+    private static void expireReferences() {
+        synchronized (references) {
+            long before = generation;
+            for (Iterator<Map.Entry<URI, Document>> it = references.entrySet()
+                    .iterator(); it.hasNext();) {
+                Document doc = it.next().getValue();
+                if (!doc.isFresh(doc.file)) {
+                    it.remove();
+                    generation++;
+                }
+            }
+            if (generation != before)
+                factory = newFactory();
+        }
+    }
+
+    /** Discard all cached schemas and documents. */
+    public static void clear() {
+        synchronized (locations) {
+            locations.clear();
+        }
+        synchronized (references) {
+            references.clear();
+        }
+        synchronized (schemas) {
+            schemas.clear();
+        }
+    }
+
+    /** @return the number of compiled schemas in the cache */
+    public static int size() {
+        synchronized (schemas) {
+            return schemas.size();
+        }
+    }
+
+    // The local file for a location, or null if it is not a local file
+    private static File file(String location) {
+        File f = null;
+        if (location.startsWith("file:"))
+            f = new File(URI.create(location));
+        else if (location.indexOf(':') < 2) // not a URL; allow C:\...
+            f = new File(location);
+        return f != null && f.isFile() ? f : null;
+    }
+
+    private static class Document {
+        final Object content;
+        final File file;
+        final long lastModified;
+        final long length;
+        final long loaded = System.currentTimeMillis();
+
+        Document(Object content, File file) {
+            this.content = content;
+            this.file = file;
+            this.lastModified = file == null ? 0L : file.lastModified();
+            this.length = file == null ? 0L : file.length();
+        }
+
+        boolean isFresh(File current) {
+            if (file != null)
+                return file.equals(current)
+                        && file.lastModified() == lastModified
+                        && file.length() == length;
+            return current == null
+                    && System.currentTimeMillis() - loaded < ttl;
+        }
+    }
+
+    private static class Compiled {
+        final JsonSchema schema;
+        final long created = System.currentTimeMillis();
+        final long createdGeneration;
+
+        Compiled(JsonSchema schema) {
+            this.schema = schema;
+            synchronized (references) {
+                this.createdGeneration = generation;
+            }
+        }
+
+        boolean isFresh() {
+            synchronized (references) {
+                if (createdGeneration != generation)
+                    return false;
+            }
+            return System.currentTimeMillis() - created < ttl;
+        }
+    }
+
+    /**
+     * Resolves <code>"$ref"</code> documents through the reference cache.
+     */
+    private static class CachingDownloader implements URIDownloader {
+        private final URIDownloader delegate;
+
+        CachingDownloader(URIDownloader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InputStream fetch(URI uri) throws IOException {
+            File file = "file".equals(uri.getScheme()) ? new File(
+                    uri.getPath()) : null;
+            Document doc;
+            synchronized (references) {
+                doc = references.get(uri);
+            }
+            if (doc == null || !doc.isFresh(file)) {
+                logger.trace("Loading JSON schema reference " + uri);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                Binary.copy(delegate.fetch(uri), bytes);
+                doc = new Document(bytes.toByteArray(), file);
+                synchronized (references) {
+                    references.put(uri, doc);
+                }
+            }
+            return new ByteArrayInputStream((byte[]) doc.content);
+        }
+    }
+}
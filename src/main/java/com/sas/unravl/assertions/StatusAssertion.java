@@ -7,6 +7,7 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 /**
  * StatusAssertion asserts that the API call returned an HTTP status code that
@@ -64,8 +65,9 @@ public class StatusAssertion extends BaseUnRAVLAssertion {
     }
 
     private boolean check(String pattern, int httpStatus)
-            throws UnRAVLAssertionException {
-        return Integer.toString(httpStatus).matches(pattern);
+            throws UnRAVLException {
+        return Patterns.matches(pattern, Integer.toString(httpStatus),
+                "status assertion");
     }
 
     private boolean check(JsonNode j, int httpStatus) throws UnRAVLException {
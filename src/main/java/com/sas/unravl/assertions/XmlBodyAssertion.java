@@ -0,0 +1,231 @@
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Xml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Asserts that the HTTP response body is XML which matches the expected XML.
+ * The expected XML is specified as for {@link TextBodyAssertion}, with the
+ * forms defined by {@link Text}:
+ *
+ * <pre>
+ * { "xml" : "xml-text" }
+ * { "xml" : "@file-or-url" }
+ * { "xml" : array-of-text }
+ * </pre>
+ *
+ * Variables in the expected XML, including text read from files, are
+ * expanded.
+ * <p>
+ * Both documents are read with a streaming (StAX) parser and compared as they
+ * are read, so the response body is not loaded into a DOM; the comparison
+ * stops at the first difference. Elements must have the same (namespace
+ * qualified) names, in the same order, with the same attributes (in any
+ * order). Text content is compared after trimming leading and trailing
+ * whitespace; whitespace-only text, comments, processing instructions and the
+ * DOCTYPE are ignored. The location of a difference is reported as an XPath
+ * such as <code>/order/item[2]/price</code>.
+ *
+ * @author David.Biesack@sas.com
+ */
+@UnRAVLAssertionPlugin("xml")
+public class XmlBodyAssertion extends BaseUnRAVLAssertion {
+
+    @Override
+    public void check(UnRAVL current, ObjectNode assertion, Stage when,
+            ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
+        super.check(current, assertion, when, call);
+        JsonNode value = assertion.get("xml");
+        String expected;
+        try {
+            expected = current.expand(new Text(current, value).text());
+        } catch (IOException e) {
+            throw new UnRAVLException(e.getMessage(), e);
+        }
+        Tokens e, a;
+        try {
+            e = new Tokens(Xml.reader(new StringReader(expected)),
+                    "expected XML");
+        } catch (XMLStreamException x) {
+            throw new UnRAVLException(x.getMessage(), x);
+        }
+        try {
+            a = new Tokens(Xml.reader(call.getResponseBodyAsInputStream()),
+                    "XML response body");
+        } catch (XMLStreamException x) {
+            throw new UnRAVLAssertionException("Invalid XML response body: "
+                    + x.getMessage(), x);
+        }
+        compare(e, a);
+    }
+
+    private static void compare(Tokens expected, Tokens actual)
+            throws UnRAVLException {
+        Xml.Path path = new Xml.Path();
+        while (true) {
+            int e = expected.next();
+            int a = actual.next();
+            if (a == XMLStreamConstants.START_ELEMENT)
+                path.start(actual.name.getLocalPart());
+            if (e != a || !expected.matches(actual))
+                throw mismatch(path,
+                        String.format("found %s, expected %s",
+                                actual.describe(), expected.describe()));
+            if (e == XMLStreamConstants.START_ELEMENT)
+                compareAttributes(path, expected.attributes, actual.attributes);
+            else if (e == XMLStreamConstants.END_ELEMENT)
+                path.end();
+            else if (e == XMLStreamConstants.END_DOCUMENT)
+                return;
+        }
+    }
+
+    private static void compareAttributes(Xml.Path path,
+            Map<QName, String> expected, Map<QName, String> actual)
+            throws UnRAVLAssertionException {
+        for (Map.Entry<QName, String> attribute : expected.entrySet()) {
+            String value = actual.get(attribute.getKey());
+            if (value == null)
+                throw mismatch(path, String.format("missing attribute %s",
+                        attribute.getKey()));
+            if (!value.equals(attribute.getValue()))
+                throw mismatch(path, String.format(
+                        "attribute %s is \"%s\", expected \"%s\"",
+                        attribute.getKey(), value, attribute.getValue()));
+        }
+        for (QName name : actual.keySet())
+            if (!expected.containsKey(name))
+                throw mismatch(path,
+                        String.format("unexpected attribute %s", name));
+    }
+
+    private static UnRAVLAssertionException mismatch(Xml.Path path,
+            String message) {
+        return new UnRAVLAssertionException(String.format(
+                "XML body does not match expected at %s: %s", path, message));
+    }
+
+    /**
+     * Reads the significant parts of an XML document: elements (with their
+     * attributes), non-blank text, and the end of the document.
+     */
+    private static class Tokens {
+        private static final int MAX_TEXT = 80;
+
+        private final XMLStreamReader reader;
+        private final String source;
+        private boolean pending;
+        private int type;
+        private QName name;
+        private final Map<QName, String> attributes = new HashMap<QName, String>();
+        private final StringBuilder text = new StringBuilder();
+
+        Tokens(XMLStreamReader reader, String source) {
+            this.reader = reader;
+            this.source = source;
+        }
+
+        /**
+         * Advance to the next significant token
+         *
+         * @return the token type, START_ELEMENT, END_ELEMENT, CHARACTERS or
+         *         END_DOCUMENT
+         */
+        int next() throws UnRAVLException {
+            text.setLength(0);
+            try {
+                while (true) {
+                    int event = pending ? reader.getEventType() : reader
+                            .next();
+                    pending = false;
+                    switch (event) {
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.START_ELEMENT:
+                    case XMLStreamConstants.END_ELEMENT:
+                    case XMLStreamConstants.END_DOCUMENT:
+                        if (text.toString().trim().length() > 0) {
+                            // return the text; process this event next time
+                            pending = true;
+                            String t = text.toString().trim();
+                            text.setLength(0);
+                            text.append(t);
+                            return type = XMLStreamConstants.CHARACTERS;
+                        }
+                        text.setLength(0);
+                        return token(event);
+                    default:
+                        // comments, processing instructions, DTD
+                        break;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                String message = String.format("Invalid %s: %s", source,
+                        e.getMessage());
+                if (source.startsWith("expected"))
+                    throw new UnRAVLException(message, e);
+                throw new UnRAVLAssertionException(message, e);
+            }
+        }
+
+        private int token(int event) {
+            type = event;
+            attributes.clear();
+            if (event == XMLStreamConstants.START_ELEMENT
+                    || event == XMLStreamConstants.END_ELEMENT)
+                name = reader.getName();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                for (int i = 0, n = reader.getAttributeCount(); i < n; i++)
+                    attributes.put(reader.getAttributeName(i),
+                            reader.getAttributeValue(i));
+            }
+            return event;
+        }
+
+        boolean matches(Tokens other) {
+            switch (type) {
+            case XMLStreamConstants.START_ELEMENT:
+            case XMLStreamConstants.END_ELEMENT:
+                return name.equals(other.name);
+            case XMLStreamConstants.CHARACTERS:
+                return text.toString().equals(other.text.toString());
+            default:
+                return true;
+            }
+        }
+
+        String describe() {
+            switch (type) {
+            case XMLStreamConstants.START_ELEMENT:
+                return "element <" + name + ">";
+            case XMLStreamConstants.END_ELEMENT:
+                return "end of element </" + name + ">";
+            case XMLStreamConstants.CHARACTERS:
+                String t = text.length() > MAX_TEXT ? text.substring(0,
+                        MAX_TEXT) + "..." : text.toString();
+                return "text \"" + t + "\"";
+            default:
+                return "end of document";
+            }
+        }
+    }
+}
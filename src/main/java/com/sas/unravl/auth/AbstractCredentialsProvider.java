@@ -36,9 +36,9 @@ abstract public class AbstractCredentialsProvider implements
 
     /**
      * Get credentials for the host. Note: If reading credentials from a .netrc
-     * file, the credentials are <em>not</em> cached; we reread the .netrc file
-     * each time. (This allows one script to obtain credentials from a service
-     * and store them in .netrc in the current directory.)
+     * file, the file is read again whenever it changes. (This allows one
+     * script to obtain credentials from a service and store them in .netrc in
+     * the current directory.)
      * 
      * @param host
      *            the host name or host:port string
@@ -114,9 +114,7 @@ public class BasicAuth extends BaseUnRAVLAuth {
         String creds = new Base64().encodeToString(Text.utf8(credentials
                 .getUserName() + ":" + credentials.getPassword()));
         credentials.clear();
-        // TODO: use the ApiCall and add headers there instead of mutating the
-        // script
-        getScript().addRequestHeader(
+        getCall().setRequestHeader(
                 new BasicHeader("Authorization", "Basic " + creds));
         logger.info("\"basic\" auth added 'Authorization: Basic ********' header");
     }
@@ -19,16 +19,24 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.http.Header;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.log4j.Logger;
 
@@ -63,6 +71,19 @@ import org.apache.log4j.Logger;
  * <code>&lt;<em>hostname</em>&gt;.TGT</code> where hostname is taken from the
  * logon-URL value in the JSON specification
  * <p>
+ * The CAS requests use the shared, pooled HTTP client of the runtime's
+ * {@link com.sas.unravl.UnRAVLPlugins#getHttpClient() plugins}, so they reuse
+ * connections. A TGT is used for at most <code>unravl.cas.tgt.ttl</code>
+ * seconds (default 7200) before logging in again, and if the CAS server
+ * rejects a TGT with 401 or 404 when requesting a service ticket, this logs in
+ * again and retries once.
+ * <p>
+ * If the system property <code>unravl.cas.prefetch</code> is true, after
+ * obtaining a service ticket for a service URL, this requests the next service
+ * ticket for the same URL in the background, so that a later call to that URL
+ * need not wait for it. A prefetched ticket older than
+ * <code>unravl.cas.st.ttl</code> seconds (default 10) is not used.
+ * <p>
  * If mock is true, this auth object will create a mock service ticket.
  *
  * @author DavidBiesack@sas.com
@@ -74,10 +95,31 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
     private boolean mock; // JSON spec contains "mock" : true, then mock out the
                           // CAS responses and create a fake ?ticket=
                           // parameter
-    private ByteArrayOutputStream responseBody;
     private static final Logger logger = Logger
             .getLogger(CentralAuthenticationServiceAuth.class);
 
+    private static final long tgtTtl = Long.getLong("unravl.cas.tgt.ttl",
+            7200) * 1000L;
+    private static final boolean prefetch = Boolean
+            .getBoolean("unravl.cas.prefetch");
+    private static final long stTtl = Long.getLong("unravl.cas.st.ttl", 10) * 1000L;
+    private static final int MAX_PREFETCHED = 100;
+
+    // when each TGT was obtained, by TGT location
+    private static final ConcurrentMap<String, Long> tgtTimes = new ConcurrentHashMap<String, Long>();
+    // prefetched service tickets, by TGT location and service URL
+    private static final ConcurrentMap<String, Prefetch> prefetched = new ConcurrentHashMap<String, Prefetch>();
+
+    private static final ExecutorService prefetcher = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "UnRAVL CAS ticket prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     @Override
     public void authenticate(UnRAVL script, ObjectNode casAuthSpec, ApiCall call)
             throws UnRAVLException {
@@ -107,8 +149,18 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
             if (getScriptlet().get("mock") != null)
                 mock = getScriptlet().get("mock").booleanValue();
             logonUrl = getScript().expand(logon.textValue());
-            String tgtLocation = logon(new URI(logonUrl), auth);
+            URI logonURI = new URI(logonUrl);
+            String tgtLocation = logon(logonURI, auth, false);
             String st = serviceTicket(tgtLocation, uri);
+            if (st == null) {
+                logger.info("CAS TGT " + tgtLocation
+                        + " was rejected; logging in again.");
+                tgtLocation = logon(logonURI, auth, true);
+                st = serviceTicket(tgtLocation, uri);
+                if (st == null)
+                    throw new UnRAVLException("Cannot get Service Ticket for "
+                            + uri + ", TGT was rejected after logging in.");
+            }
             getScript().bind("casAuth.ST", st);
             String ticketedUri = serviceTicket(location, st);
             getCall().setURI(ticketedUri);
@@ -116,9 +168,9 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
             logger.trace("CAS authentication took " + (end - start) + "ms");
 
         } catch (URISyntaxException e) {
-            new UnRAVLException(e.getMessage(), e);
+            throw new UnRAVLException(e.getMessage(), e);
         } catch (IOException e) {
-            new UnRAVLException(e.getMessage(), e);
+            throw new UnRAVLException(e.getMessage(), e);
         }
 
     }
@@ -155,38 +207,102 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
             return location + "&ticket=" + encodedTicket;
     }
 
+    // Return a service ticket for the URI, or null if the TGT was rejected
     private String serviceTicket(String tgt, URI uri) throws UnRAVLException,
             URISyntaxException, ClientProtocolException, IOException {
         if (mock)
             return "ST-18-umUeNL4yUkWHES2VdtKki5mFzatga43kNNCe3niguLWaUxl1aK-cas";
-        CloseableHttpClient httpclient = HttpClients.createDefault();
+        CloseableHttpClient httpclient = getScript().getRuntime().getPlugins()
+                .getHttpClient();
+        String service = uri.toString();
+        String st = prefetch ? prefetched(tgt, service) : null;
+        if (st == null)
+            st = requestServiceTicket(httpclient, tgt, service);
+        if (st != null && prefetch)
+            prefetch(httpclient, tgt, service);
+        return st;
+    }
+
+    // TODO: make this call via UnRAVL, not HttpPost
+    private static String requestServiceTicket(CloseableHttpClient httpclient,
+            String tgt, String service) throws UnRAVLException,
+            URISyntaxException, ClientProtocolException, IOException {
+        HttpPost post = new HttpPost();
+        post.setURI(new URI(tgt));
+        Header requestHeaders[] = new Header[] { new BasicHeader(
+                "Content-Type", "text/plain") };
+        post.setHeaders(requestHeaders);
+        String body = "service=" + Text.urlEncode(service);
+        post.setEntity(new StringEntity(body));
+        CasResponse response = httpclient.execute(post,
+                new CasAuthResponseHandler());
+        int status = response.statusLine.getStatusCode();
+        if (status == 401 || status == 404) // TGT expired or logged out
+            return null;
+        if (status != 200 || response.body == null)
+            throw new UnRAVLException("Cannot get Service Ticket for "
+                    + service + ", response returned " + status);
+        return response.body;
+    }
+
+    // Take the prefetched service ticket for the TGT and service, if there is
+    // one which is not too old
+    private static String prefetched(String tgt, String service) {
+        Prefetch p = prefetched.remove(tgt + " " + service);
+        if (p == null)
+            return null;
+        if (System.currentTimeMillis() - p.started > stTtl) {
+            p.ticket.cancel(true);
+            return null;
+        }
         try {
-            // TODO: make this call via UnRAVL, not HttpPost
-            HttpPost post = new HttpPost();
-            post.setURI(new URI(tgt));
-            Header requestHeaders[] = new Header[] { new BasicHeader(
-                    "Content-Type", "text/plain") };
-            post.setHeaders(requestHeaders);
-            String body = "service=" + Text.urlEncode(uri.toString());
-            HttpEntity entity = new StringEntity(body);
-            post.setEntity(entity);
-            ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
-            HttpResponse response = httpclient.execute(post, responseHandler);
-            // TODO: If we get back a response that indicates a timed out
-            // TGT, we should login again.
-            int status = response.getStatusLine().getStatusCode();
-            if (status != 200)
-                throw new UnRAVLException("Cannot get Service Ticket for "
-                        + uri + ", response returned " + status);
-            String st = Text.utf8ToString(responseBody.toByteArray());
-            return st;
-        } finally {
-            httpclient.close();
+            return p.ticket.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.debug("CAS service ticket prefetch failed: "
+                    + e.getCause().getMessage());
+            return null;
         }
     }
 
-    private String logon(URI logonURI, ObjectNode auth) throws UnRAVLException,
-            URISyntaxException, ClientProtocolException, IOException {
+    private static void prefetch(final CloseableHttpClient httpclient,
+            final String tgt, final String service) {
+        evictPrefetched(null);
+        if (prefetched.size() >= MAX_PREFETCHED)
+            return;
+        FutureTask<String> ticket = new FutureTask<String>(
+                new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return requestServiceTicket(httpclient, tgt, service);
+                    }
+                });
+        Prefetch old = prefetched.put(tgt + " " + service, new Prefetch(tgt,
+                ticket));
+        if (old != null)
+            old.ticket.cancel(true);
+        prefetcher.execute(ticket);
+    }
+
+    // Remove the prefetched service tickets which are too old to use, and
+    // (if tgt is not null) those obtained with a TGT which has been replaced
+    private static void evictPrefetched(String tgt) {
+        long now = System.currentTimeMillis();
+        for (Iterator<Prefetch> i = prefetched.values().iterator(); i
+                .hasNext();) {
+            Prefetch p = i.next();
+            if (p.tgt.equals(tgt) || now - p.started > stTtl) {
+                i.remove();
+                p.ticket.cancel(true);
+            }
+        }
+    }
+
+    private String logon(URI logonURI, ObjectNode auth, boolean relogin)
+            throws UnRAVLException, URISyntaxException,
+            ClientProtocolException, IOException {
         if (mock)
             return "https://sasserver:port/SASLogon/v1/tickets/TGT-18-umUeNL4yUkWHES2VdtKki5mFzatga43kNNCe3niguLWaUxl1aK-cas";
         String host = logonURI.getHost();
@@ -201,68 +317,94 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
         String user = credentials.getUserName();
         String key = user + "." + host + ".TGT";
         String tgt = null;
-        // See if the TGT is cached for this user/host
-        // Note that this risks a TGT timeout
+        // See if the TGT is cached for this user/host and has not expired
         if (getCall().bound(key)) {
             Object tgto = getCall().getVariable(key);
             if (tgto instanceof String) {
-                tgt = (String) getCall().getVariable(key);
-                logger.info("Using cached CAS TGT " + tgt);
-                return tgt;
+                tgt = (String) tgto;
+                Long obtained = tgtTimes.get(tgt);
+                if (relogin || obtained != null
+                        && System.currentTimeMillis() - obtained >= tgtTtl) {
+                    tgtTimes.remove(tgt);
+                    evictPrefetched(tgt);
+                    logger.info("Replacing expired CAS TGT " + tgt);
+                } else {
+                    logger.info("Using cached CAS TGT " + tgt);
+                    return tgt;
+                }
             }
         }
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        try {
-            HttpPost post = new HttpPost();
-            Header requestHeaders[] = new Header[] { new BasicHeader(
-                    "Content-Type", "application/x-www-form-urlencoded") };
-            String u = Text.urlEncode(user);
-            String p = Text.urlEncode(credentials.getPassword());
-            String body = String.format("username=%s&password=%s", u, p);
-            // security: don't hold onto credentials in memory
-            credentials.clear();
-            credentials = null;
-            p = null;
-            post.setURI(logonURI);
-            post.setHeaders(requestHeaders);
-            post.setEntity(new StringEntity(body));
-            ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
-            HttpResponse response = httpclient.execute(post, responseHandler);
-            // security: don't hold onto credentials in memory
-            body = null;
-            int status = response.getStatusLine().getStatusCode();
-            if (status != 201)
-                throw new UnRAVLException("Cannot login via " + logonURI
-                        + ", response: " + response.getStatusLine());
-            Header location = response.getFirstHeader("Location");
-            if (location == null)
-                throw new UnRAVLException("Cannot login via " + logonURI
-                        + ", no Location header returned.");
+        HttpPost post = new HttpPost();
+        Header requestHeaders[] = new Header[] { new BasicHeader(
+                "Content-Type", "application/x-www-form-urlencoded") };
+        String u = Text.urlEncode(user);
+        String p = Text.urlEncode(credentials.getPassword());
+        String body = String.format("username=%s&password=%s", u, p);
+        // security: don't hold onto credentials in memory
+        credentials.clear();
+        credentials = null;
+        p = null;
+        post.setURI(logonURI);
+        post.setHeaders(requestHeaders);
+        post.setEntity(new StringEntity(body));
+        long obtained = System.currentTimeMillis();
+        CasResponse response = getScript().getRuntime().getPlugins()
+                .getHttpClient().execute(post, new CasAuthResponseHandler());
+        // security: don't hold onto credentials in memory
+        body = null;
+        int status = response.statusLine.getStatusCode();
+        if (status != 201)
+            throw new UnRAVLException("Cannot login via " + logonURI
+                    + ", response: " + response.statusLine);
+        if (response.location == null)
+            throw new UnRAVLException("Cannot login via " + logonURI
+                    + ", no Location header returned.");
+
+        tgt = response.location;
+        tgtTimes.put(tgt, obtained);
+        bindTGT(tgt, logonURI, user);
+        return tgt;
+    }
+
+    /** A service ticket request running in the background */
+    private static final class Prefetch {
+        final String tgt;
+        final FutureTask<String> ticket;
+        final long started = System.currentTimeMillis();
 
-            tgt = location.getValue();
-            bindTGT(tgt, logonURI, user);
-            return tgt;
-        } finally {
-            httpclient.close();
+        Prefetch(String tgt, FutureTask<String> ticket) {
+            this.tgt = tgt;
+            this.ticket = ticket;
         }
     }
 
-    private class CasAuthResponseHandler implements
-            ResponseHandler<HttpResponse> {
+    /** The parts of a CAS response this uses, read before it is released */
+    private static final class CasResponse {
+        StatusLine statusLine;
+        String location;
+        String body;
+    }
+
+    private static class CasAuthResponseHandler implements
+            ResponseHandler<CasResponse> {
         @Override
-        public HttpResponse handleResponse(HttpResponse response)
+        public CasResponse handleResponse(HttpResponse response)
                 throws ClientProtocolException, IOException {
+            CasResponse result = new CasResponse();
+            result.statusLine = response.getStatusLine();
+            Header location = response.getFirstHeader("Location");
+            if (location != null)
+                result.location = location.getValue();
             if (response.getEntity() == null)
-                return response;
+                return result;
             InputStream input = response.getEntity().getContent();
             if (input != null) {
-                responseBody = new ByteArrayOutputStream();
+                ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
                 Binary.copy(input, responseBody);
                 responseBody.close();
-            } else
-                responseBody = null;
-
-            return response;
+                result.body = Text.utf8ToString(responseBody.toByteArray());
+            }
+            return result;
         }
 
     }
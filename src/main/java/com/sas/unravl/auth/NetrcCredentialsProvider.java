@@ -6,7 +6,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Objects;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,6 +45,12 @@ import org.apache.log4j.Logger;
  * <p>
  * Passwords with whitespace in them must be quoted with double quotes. Thus,
  * passwords may not contain double quote characters.
+ * </p>
+ * <p>
+ * The file is read once and indexed by host, port and login; it is read again
+ * only when its modification time or size changes. The cached passwords,
+ * client secrets and access tokens are held in masked character arrays rather
+ * than strings.
  * 
  * @author DavidBiesack@sas.com
  */
@@ -99,71 +109,159 @@ public class NetrcCredentialsProvider extends AbstractCredentialsProvider {
         // split host:port into its parts. :port is optional
         String host = host(hostPort);
         String port = port(hostPort);
-        // Note: We can read and cache all the credentials, but that
-        // is a security issue; we should probably encrypt the cached content.
-        // Also, if we do cache the file content, we would still have to check
-        // the modification time stamp of the file, in case it has been updated
-        // since we cached the content.
-        // Also, the loop below would need to read all rows, not stop when a
-        // match is found. So we don't cache and simply read the file each time
-        // it is needed
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(netrc))) {
-            for (String line = reader.readLine(); line != null; line = reader
-                    .readLine()) {
-                if (line.trim().startsWith("#"))
-                    continue;
-                Matcher m = KEY_VALUE.matcher(line);
-                String lHost = null, lPort = null, lLogin = null, lPassword = null, lClientId = null, lClientSecret = null, lAccessToken = null;
-                while (m.find()) {
-                    String key = m.group(KEY_GROUP).toLowerCase();
-                    String val = m.group(QUOTED_VAL_GROUP);
-                    if (val == null)
-                        val = m.group(UNQUOTED_VAL_GROUP);
-                    switch (key) {
-                    case "login":
-                    case "user":
-                        lLogin = val;
-                        break;
-                    case "host":
-                    case "machine":
-                        lHost = val;
-                        break;
-                    case "port":
-                        lPort = val;
-                        break;
-                    case "password":
-                        lPassword = val;
-                        break;
-                    case "clientid":
-                        lClientId = val;
-                        break;
-                    case "clientsecret":
-                        lClientSecret = val;
-                        break;
-                    case "accesstoken":
-                        lAccessToken = val;
-                        break;
-                    default:
-                        logger.warn("Ignoring unknown key " + key
-                                + " in netrc file");
-                    }
+        Entry e = index(netrc).find(host, port, login);
+        if (e == null)
+            return null;
+        if (e.clientId != null || e.clientSecret != null
+                || e.accessToken != null)
+            return credentials(e.login, Secret.reveal(e.password), e.clientId,
+                    Secret.reveal(e.clientSecret), Secret.reveal(e.accessToken));
+        return credentials(e.login, Secret.reveal(e.password));
+    }
+
+    // The index of the most recently used netrc file. The file is read again
+    // only when its modification time or size changes (which allows one script
+    // to obtain credentials from a service and store them in .netrc in the
+    // current directory).
+    private static Index index;
+
+    private static synchronized Index index(File netrc) throws IOException {
+        File file = netrc.getAbsoluteFile();
+        long modified = file.lastModified();
+        long length = file.length();
+        if (index == null || !index.file.equals(file)
+                || index.modified != modified || index.length != length) {
+            index = new Index(file, modified, length);
+            logger.debug("Read " + index.size + " netrc entries from " + file);
+        }
+        return index;
+    }
+
+    /**
+     * The entries of a netrc file, indexed by host and port and by host, port
+     * and login. Where several lines match, the first line is used.
+     */
+    private static final class Index {
+        final File file;
+        final long modified, length;
+        final Map<String, Entry> byHost = new HashMap<String, Entry>();
+        final Map<String, Entry> byLogin = new HashMap<String, Entry>();
+        int size;
+
+        Index(File file, long modified, long length) throws IOException {
+            this.file = file;
+            this.modified = modified;
+            this.length = length;
+            try (BufferedReader reader = new BufferedReader(
+                    new FileReader(file))) {
+                for (String line = reader.readLine(); line != null; line = reader
+                        .readLine()) {
+                    if (line.trim().startsWith("#"))
+                        continue;
+                    Entry e = parse(line);
+                    if (e.host == null)
+                        continue;
+                    size++;
+                    String key = key(e.host, e.port);
+                    if (!byHost.containsKey(key))
+                        byHost.put(key, e);
+                    if (e.login != null && !byLogin.containsKey(key + " " + e.login))
+                        byLogin.put(key + " " + e.login, e);
                 }
-                if (host.equalsIgnoreCase(lHost) && Objects.equals(port, lPort)) {
-                    if (login == null || lLogin.equals(login)) {
-                        login = lLogin;
-                        password = lPassword;
-                        if (lClientId != null || lClientSecret != null
-                                || lAccessToken != null)
-                            return credentials(login, password, lClientId,
-                                    lClientSecret, lAccessToken);
-                        else
-                            return credentials(login, password);
-                    }
+            }
+        }
+
+        private static String key(String host, String port) {
+            return host.toLowerCase(Locale.ROOT)
+                    + (port == null ? "" : ":" + port);
+        }
+
+        Entry find(String host, String port, String login) {
+            String key = key(host, port);
+            return login == null ? byHost.get(key) : byLogin.get(key + " "
+                    + login);
+        }
+
+        private static Entry parse(String line) {
+            Matcher m = KEY_VALUE.matcher(line);
+            Entry e = new Entry();
+            while (m.find()) {
+                String key = m.group(KEY_GROUP).toLowerCase(Locale.ROOT);
+                String val = m.group(QUOTED_VAL_GROUP);
+                if (val == null)
+                    val = m.group(UNQUOTED_VAL_GROUP);
+                switch (key) {
+                case "login":
+                case "user":
+                    e.login = val;
+                    break;
+                case "host":
+                case "machine":
+                    e.host = val;
+                    break;
+                case "port":
+                    e.port = val;
+                    break;
+                case "password":
+                    e.password = Secret.of(val);
+                    break;
+                case "clientid":
+                    e.clientId = val;
+                    break;
+                case "clientsecret":
+                    e.clientSecret = Secret.of(val);
+                    break;
+                case "accesstoken":
+                    e.accessToken = Secret.of(val);
+                    break;
+                default:
+                    logger.warn("Ignoring unknown key " + key
+                            + " in netrc file");
                 }
             }
+            return e;
+        }
+    }
+
+    /** One line of a netrc file */
+    private static final class Entry {
+        String host, port, login, clientId;
+        Secret password, clientSecret, accessToken;
+    }
+
+    /**
+     * A secret (password, client secret or access token) held in memory only
+     * as characters masked with a random key, so that the cached secrets do
+     * not appear as plain strings in the heap.
+     */
+    private static final class Secret {
+        private static final SecureRandom random = new SecureRandom();
+        private final char[] masked;
+        private final char[] mask;
+
+        private Secret(String value) {
+            masked = value.toCharArray();
+            mask = new char[masked.length];
+            for (int i = 0; i < masked.length; i++) {
+                mask[i] = (char) random.nextInt(Character.MAX_VALUE + 1);
+                masked[i] ^= mask[i];
+            }
+        }
+
+        static Secret of(String value) {
+            return value == null ? null : new Secret(value);
+        }
+
+        static String reveal(Secret secret) {
+            if (secret == null)
+                return null;
+            char[] chars = new char[secret.masked.length];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = (char) (secret.masked[i] ^ secret.mask[i]);
+            String value = new String(chars);
+            Arrays.fill(chars, '\0');
+            return value;
         }
-        return null;
     }
 
 }
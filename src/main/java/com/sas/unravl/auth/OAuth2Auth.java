@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.concurrent.Callable;
 
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.message.BasicHeader;
@@ -59,6 +60,7 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
 
     private static final String PARAMETER_KEY = "parameter";
     private static final String ACCESS_TOKEN = "access_token";
+    private static final String EXPIRES_IN = "expires_in";
     private static final String BIND_ACCESS_TOKEN_KEY = "bindAccessToken";
     private static final String DEFAULT_ACCESS_TOKEN_JSON_PATH = "$.access_token";
     private static final String DEFAULT_OATH_SCRIPT_RESOURCE = "/com/sas/unravl/auth/get-oauth-token.unravl";
@@ -116,11 +118,7 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
         String callerKey = stringOption(auth, BIND_ACCESS_TOKEN_KEY,
                 ACCESS_TOKEN);
         getScript().bind(callerKey, access_token);
-        // TODO: this should be added to the ApiCall; this means
-        // we need to add headers field to the ApiCall. Ditto for Basic auth
-        // which also adds
-        // an Authentication header
-        getScript().addRequestHeader(
+        getCall().setRequestHeader(
                 new BasicHeader("Authorization", "Bearer " + access_token));
         logger.info("\"oauth2\" auth added 'Authorization: Bearer "
                 + access_token + "' header");
@@ -183,7 +181,11 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
      * Get the access token. If it is part of the credentials for the OAuth2
      * host, return that static access token.
      * <p>
-     * If a cached token exists, return it.
+     * If the process-wide {@link OAuth2TokenCache} has a token for the token
+     * server, client and user credentials and token script options which has
+     * not expired, return it. The cache
+     * refreshes tokens before they expire, and concurrent requests for a
+     * missing token wait for a single fetch.
      * </p>
      * <p>
      * Otherwise, use UnRAVL to run an REST API POST call to the authentication
@@ -212,7 +214,9 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
      * the text option <code>"OAauth2Script" : "/paths/to/unravl/script"</code>
      * in the <code>"oath2"</code> element. The UnRAVL script should invoke the
      * POST to the authentication server, then extract and bind the variable
-     * <code>access_token</code> from the response.
+     * <code>access_token</code> from the response. The token's lifetime is
+     * the variable <code>expires_in</code> if the script binds it, else the
+     * <code>expires_in</code> member of the JSON response.
      * </p>
      * 
      * @param authTokenURI
@@ -249,58 +253,108 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
             return cacheAccessToken(user, host, access_token);
         }
 
-        String key = accessTokenCacheKey(user, host);
-        if (runtime.bound(key)) {
-            access_token = (String) getScript().getRuntime().binding(key);
-            logger.info(String.format(
-                    "Found cached OAuth2 access_token for user %s and host %s",
-                    user, host));
-            return cacheAccessToken(user, host, access_token);
-        }
-
-        // See if the access token is cached for this user/host
-        if (runtime.bound(key)) {
-            access_token = (String) getCall().getVariable(key);
-            logger.info("Using cached oauth2 access token: " + access_token);
-            return cacheAccessToken(user, host, access_token);
-        }
-
-        // Else, use UnRAVL to send a request to the server to generate an
-        // access_token
-
         String oAuthScriptResourcePath = stringOption(getScriptlet(),
                 OAUTH_SCRIPT_KEY, DEFAULT_OATH_SCRIPT_RESOURCE);
         String accessTokenJsonPath = stringOption(auth,
                 ACCESS_TOKEN_JSON_PATH_KEY, DEFAULT_ACCESS_TOKEN_JSON_PATH);
+        String key = OAuth2TokenCache.key(authTokenURI.toString(),
+                creds.getClientId(), creds.getClientSecret(), user,
+                creds.getPassword(), oAuthScriptResourcePath,
+                accessTokenJsonPath);
+        access_token = OAuth2TokenCache.getAccessToken(key, user,
+                new TokenFetcher(authTokenURI, creds, oAuthScriptResourcePath,
+                        accessTokenJsonPath));
+        return cacheAccessToken(user, host, access_token);
+    }
 
-        // We need a new runtime because we don't want this script to
-        // be recorded in the calling runtime's history of scripts, or these
-        // values to affect the calling runtime.
+    /**
+     * Fetches an access token by running the OAuth2 token script (see
+     * {@link OAuth2Auth#getAccessToken(URI, ObjectNode)}).
+     */
+    private class TokenFetcher implements OAuth2TokenCache.Fetcher {
+        private final URI authTokenURI;
+        private final OAuth2Credentials creds;
+        private final String oAuthScriptResourcePath;
+        private final String accessTokenJsonPath;
 
-        UnRAVLRuntime tokenRuntime = new UnRAVLRuntime(getScript().getRuntime());
-        tokenRuntime.bind(ACCESS_TOKEN_JSON_PATH_KEY, accessTokenJsonPath);
+        TokenFetcher(URI authTokenURI, OAuth2Credentials creds,
+                String oAuthScriptResourcePath, String accessTokenJsonPath) {
+            this.authTokenURI = authTokenURI;
+            this.creds = creds;
+            this.oAuthScriptResourcePath = oAuthScriptResourcePath;
+            this.accessTokenJsonPath = accessTokenJsonPath;
+        }
 
-        // @formatter:off
-        tokenRuntime
-                // Hmmmm, is it worth defining constants for these keys?
-                .bind("oath2TokenUrl", authTokenURI.toString())
-                .bind("clientId", creds.getClientId())
-                .bind("clientSecret", creds.getClientSecret())
-                .bind("userId", creds.getUserName())
-                .bind("password", creds.getPassword())
-                .bind(ACCESS_TOKEN_JSON_PATH_KEY, accessTokenJsonPath);
-        // @formatter:on
-        ObjectMapper mapper = new ObjectMapper();
-        try (InputStream in = openScriptStream(oAuthScriptResourcePath)) {
-            ObjectNode accessAuthJson = (ObjectNode) mapper.readTree(in);
-            UnRAVL oathAccessTokenScript = new UnRAVL(tokenRuntime,
-                    accessAuthJson);
-            oathAccessTokenScript.run();
-            access_token = (String) tokenRuntime.binding(ACCESS_TOKEN);
-        } catch (IOException e) {
-            throw new UnRAVLException(e.getMessage(), e);
+        @Override
+        public Callable<OAuth2TokenCache.Token> prepare()
+                throws UnRAVLException {
+            // We need a new runtime because we don't want this script to
+            // be recorded in the calling runtime's history of scripts, or
+            // these values to affect the calling runtime. The token may be
+            // fetched on another thread, so copy the runtime now.
+
+            final UnRAVLRuntime tokenRuntime = new UnRAVLRuntime(getScript()
+                    .getRuntime());
+
+            // @formatter:off
+            tokenRuntime
+                    // Hmmmm, is it worth defining constants for these keys?
+                    .bind("oath2TokenUrl", authTokenURI.toString())
+                    .bind("clientId", creds.getClientId())
+                    .bind("clientSecret", creds.getClientSecret())
+                    .bind("userId", creds.getUserName())
+                    .bind("password", creds.getPassword())
+                    .bind(ACCESS_TOKEN_JSON_PATH_KEY, accessTokenJsonPath);
+            // @formatter:on
+            final ObjectNode accessAuthJson;
+            try (InputStream in = openScriptStream(oAuthScriptResourcePath)) {
+                accessAuthJson = (ObjectNode) new ObjectMapper().readTree(in);
+            } catch (IOException e) {
+                throw new UnRAVLException(e.getMessage(), e);
+            }
+            return new Callable<OAuth2TokenCache.Token>() {
+                @Override
+                public OAuth2TokenCache.Token call() throws Exception {
+                    UnRAVL oathAccessTokenScript = new UnRAVL(tokenRuntime,
+                            accessAuthJson);
+                    ApiCall call = oathAccessTokenScript.run();
+                    String accessToken = (String) tokenRuntime
+                            .binding(ACCESS_TOKEN);
+                    return new OAuth2TokenCache.Token(accessToken, expiresIn(
+                            tokenRuntime, call));
+                }
+            };
+        }
+    }
+
+    // the token lifetime in seconds, from the expires_in variable or the
+    // response, or 0 if unknown
+    private static long expiresIn(UnRAVLRuntime tokenRuntime, ApiCall call) {
+        Object bound = tokenRuntime.binding(EXPIRES_IN);
+        if (bound != null)
+            return seconds(bound.toString());
+        try {
+            if (call.getResponseBody() != null
+                    && call.getResponseBody().size() > 0) {
+                JsonNode expires = Json.parse(
+                        call.getResponseBody().toString("UTF-8")).get(
+                        EXPIRES_IN);
+                if (expires != null)
+                    return seconds(expires.asText());
+            }
+        } catch (UnRAVLException | IOException e) {
+            logger.debug("Could not read expires_in: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid OAuth2 expires_in " + value);
+            return 0;
         }
-        return cacheAccessToken(user, host, access_token);
     }
 
     private InputStream openScriptStream(String path) throws UnRAVLException {
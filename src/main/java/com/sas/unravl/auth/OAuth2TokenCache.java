@@ -0,0 +1,279 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.auth;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A process-wide cache of OAuth2 access tokens used by {@link OAuth2Auth}, so
+ * that all runtimes (and all threads) share one token per {@link #key(String...)
+ * key}: the token server URL, client credentials, user credentials and the
+ * options which affect how the token is fetched.
+ * <ul>
+ * <li>A token expires after the <code>expires_in</code> seconds returned by
+ * the token server. A token without <code>expires_in</code> expires after
+ * <code>unravl.oauth2.default.expires</code> seconds, or never if that is 0
+ * (the default).</li>
+ * <li>A token is removed from the cache when a call which used it returns
+ * 401 Unauthorized (see {@link #invalidate(String)}), so the next call fetches
+ * a new token.</li>
+ * <li>When a token is near its expiry, it is still used, but a new token is
+ * fetched in the background. A token is near its expiry when less than
+ * <code>unravl.oauth2.refresh.margin</code> seconds (default 60), or half its
+ * lifetime, remain.</li>
+ * <li>Concurrent requests for a token which is missing or expired wait for
+ * a single fetch.</li>
+ * </ul>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class OAuth2TokenCache {
+
+    private static final Logger logger = Logger
+            .getLogger(OAuth2TokenCache.class);
+
+    private static final long refreshMargin = Long.getLong(
+            "unravl.oauth2.refresh.margin", 60) * 1000L;
+
+    private static final long defaultExpiresIn = Long.getLong(
+            "unravl.oauth2.default.expires", 0);
+
+    private static final ConcurrentMap<String, Entry> tokens = new ConcurrentHashMap<String, Entry>();
+    private static final ConcurrentMap<String, FutureTask<Entry>> fetches = new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+    private static final ExecutorService refresher = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "UnRAVL OAuth2 token refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private OAuth2TokenCache() {
+    }
+
+    /** An access token and its lifetime */
+    public static final class Token {
+        private final String accessToken;
+        private final long expiresIn;
+
+        /**
+         * @param accessToken
+         *            the access token
+         * @param expiresIn
+         *            the lifetime of the token in seconds, or 0 or less if the
+         *            token does not expire
+         */
+        public Token(String accessToken, long expiresIn) {
+            this.accessToken = accessToken;
+            this.expiresIn = expiresIn;
+        }
+
+        /** @return the access token */
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        /** @return the lifetime in seconds, or 0 or less if none */
+        public long getExpiresIn() {
+            return expiresIn;
+        }
+    }
+
+    /**
+     * Prepares fetching a new token from the token server. The cache calls
+     * {@link #prepare()} on the thread which needs the token; the returned
+     * task may run on another thread, so it must not use state which that
+     * thread may change.
+     */
+    public interface Fetcher {
+        /**
+         * @return a task which fetches a new token
+         * @throws UnRAVLException
+         *             if the fetch cannot be prepared
+         */
+        Callable<Token> prepare() throws UnRAVLException;
+    }
+
+    private static final class Entry {
+        final String accessToken;
+        final long expires; // Long.MAX_VALUE if never
+        final long refresh;
+
+        Entry(Token token) {
+            long now = System.currentTimeMillis();
+            accessToken = token.getAccessToken();
+            long expiresIn = token.getExpiresIn() > 0 ? token.getExpiresIn()
+                    : defaultExpiresIn;
+            if (expiresIn > 0) {
+                long lifetime = expiresIn * 1000L;
+                expires = now + lifetime;
+                refresh = expires - Math.min(refreshMargin, lifetime / 2);
+            } else {
+                expires = refresh = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Return a cache key for the values which determine the token. The key is
+     * a hash, so that the cache does not keep secrets or passwords.
+     *
+     * @param values
+     *            the values, such as the token server URL and the client and
+     *            user credentials; null values are allowed
+     * @return the key
+     */
+    public static String key(String... values) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String value : values) {
+            if (value == null)
+                hasher.putByte((byte) 1);
+            else
+                hasher.putByte((byte) 0).putString(value, Text.UTF_8);
+            hasher.putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Return the cached access token for the token server, client and user,
+     * fetching a new token if there is none or it has expired.
+     *
+     * @param tokenUrl
+     *            the token server URL
+     * @param clientId
+     *            the client ID
+     * @param user
+     *            the user ID
+     * @param fetcher
+     *            fetches a new token
+     * @return the access token
+     * @throws UnRAVLException
+     *             if a new token is needed and could not be fetched
+     */
+    public static String getAccessToken(String tokenUrl, String clientId,
+            String user, Fetcher fetcher) throws UnRAVLException {
+        return getAccessToken(key(tokenUrl, clientId, user), user, fetcher);
+    }
+
+    /**
+     * Return the cached access token for the key, fetching a new token if
+     * there is none or it has expired.
+     *
+     * @param key
+     *            the {@link #key(String...) key} of the token
+     * @param user
+     *            the user ID, for logging
+     * @param fetcher
+     *            fetches a new token
+     * @return the access token
+     * @throws UnRAVLException
+     *             if a new token is needed and could not be fetched
+     */
+    public static String getAccessToken(String key, String user,
+            Fetcher fetcher) throws UnRAVLException {
+        Entry entry = tokens.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.expires) {
+            if (now >= entry.refresh && !fetches.containsKey(key)) {
+                final FutureTask<Entry> fetch = start(key, fetcher);
+                if (fetch != null) {
+                    logger.info("Refreshing OAuth2 access token for user "
+                            + user);
+                    refresher.execute(fetch);
+                }
+            }
+            return entry.accessToken;
+        }
+        FutureTask<Entry> fetch = start(key, fetcher);
+        if (fetch != null)
+            fetch.run();
+        else
+            fetch = fetches.get(key);
+        if (fetch == null) // finished before we could wait for it
+            return getAccessToken(key, user, fetcher);
+        try {
+            return fetch.get().accessToken;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnRAVLException("Interrupted while fetching OAuth2 token",
+                    e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnRAVLException)
+                throw (UnRAVLException) cause;
+            throw new UnRAVLException(cause.getMessage(), cause);
+        }
+    }
+
+    // Register a fetch of a new token, or return null if a fetch is already
+    // running
+    private static FutureTask<Entry> start(final String key, Fetcher fetcher)
+            throws UnRAVLException {
+        if (fetches.containsKey(key))
+            return null;
+        final Callable<Token> task = fetcher.prepare();
+        FutureTask<Entry> fetch = new FutureTask<Entry>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                try {
+                    Token token = task.call();
+                    if (token == null || token.getAccessToken() == null)
+                        throw new UnRAVLException(
+                                "OAuth2 token server did not return an access_token");
+                    Entry entry = new Entry(token);
+                    tokens.put(key, entry);
+                    return entry;
+                } catch (Exception e) {
+                    logger.warn("Could not fetch OAuth2 access token: "
+                            + e.getMessage());
+                    throw e;
+                } finally {
+                    fetches.remove(key);
+                }
+            }
+        });
+        return fetches.putIfAbsent(key, fetch) == null ? fetch : null;
+    }
+
+    /**
+     * Remove an access token which the server no longer accepts, such as one
+     * which was revoked, so that the next request fetches a new token.
+     *
+     * @param accessToken
+     *            the access token
+     */
+    public static void invalidate(String accessToken) {
+        for (Iterator<Map.Entry<String, Entry>> i = tokens.entrySet()
+                .iterator(); i.hasNext();) {
+            Map.Entry<String, Entry> e = i.next();
+            if (e.getValue().accessToken.equals(accessToken)) {
+                i.remove();
+                logger.info("Removed rejected OAuth2 access token from the cache");
+            }
+        }
+    }
+
+    /** Remove all cached tokens */
+    public static void clear() {
+        tokens.clear();
+    }
+}
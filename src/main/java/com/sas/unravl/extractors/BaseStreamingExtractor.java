@@ -0,0 +1,265 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
+import com.sas.unravl.assertions.UnRAVLAssertionException;
+import com.sas.unravl.util.Json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The base implementation of the {@link UnRAVLStreamingExtractor}s which
+ * read a response body as a sequence of items (records, rows or events).
+ * <p>
+ * Subclasses implement
+ * {@link #consume(UnRAVL, ObjectNode, ApiCall, java.io.InputStream)}, calling
+ * {@link #start(ApiCall)} before reading, {@link #counted()} for each item,
+ * {@link #check(UnRAVL, ApiCall, List)} to run the item assertions, and
+ * {@link #finished()} when done. {@link #extract(UnRAVL, ObjectNode, ApiCall)}
+ * consumes the kept response body if the body was not streamed, then binds
+ * the <code>"count"</code>, <code>"sample"</code> and <code>"metrics"</code>
+ * variables and calls {@link #bindResults(UnRAVL, ObjectNode)} for the rest.
+ *
+ * @author David.Biesack@sas.com
+ */
+public abstract class BaseStreamingExtractor extends BaseUnRAVLExtractor
+        implements UnRAVLStreamingExtractor {
+
+    protected static final int DEFAULT_SAMPLE_SIZE = 10;
+
+    private final String name;
+    private final String item;
+    private final String label;
+
+    private boolean consumed;
+    private long start;
+    private List<JsonNode> sample;
+    private int sampleSize;
+    private Random random;
+
+    protected long count;
+    protected long timeToFirst = -1;
+    protected long elapsed;
+
+    /**
+     * @param name
+     *            the extractor key, used in error messages
+     * @param item
+     *            the name of one item of the stream, such as "record", used
+     *            for the metrics field names
+     * @param label
+     *            the description of an item in assertion failure messages,
+     *            such as "NDJSON record"
+     */
+    protected BaseStreamingExtractor(String name, String item, String label) {
+        this.name = name;
+        this.item = item;
+        this.label = label;
+    }
+
+    /**
+     * Note the start of reading the response.
+     *
+     * @param call
+     *            the API call
+     * @return the start time: the time the request was sent, if known
+     */
+    protected long start(ApiCall call) {
+        consumed = true;
+        start = call.getStartTime() > 0 ? call.getStartTime() : System
+                .currentTimeMillis();
+        return start;
+    }
+
+    /** Count one more item of the stream */
+    protected void counted() {
+        if (count == 0)
+            timeToFirst = System.currentTimeMillis() - start;
+        count++;
+    }
+
+    /** Note the end of reading the response */
+    protected void finished() {
+        elapsed = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Start a random sample of at most <code>"sampleSize"</code> items
+     * (default {@value #DEFAULT_SAMPLE_SIZE}) of the stream.
+     *
+     * @param spec
+     *            the extractor's value
+     */
+    protected void sampling(ObjectNode spec) {
+        sampleSize = spec.has("sampleSize") ? spec.get("sampleSize").asInt()
+                : DEFAULT_SAMPLE_SIZE;
+        sample = new ArrayList<JsonNode>(Math.max(0, sampleSize));
+        random = new Random();
+    }
+
+    /**
+     * Add the most recently {@link #counted()} item to the sample, using
+     * reservoir sampling so that each item is equally likely to be kept.
+     *
+     * @param value
+     *            the item
+     */
+    protected void sample(JsonNode value) {
+        if (sample.size() < sampleSize)
+            sample.add(value);
+        else if (sampleSize > 0) {
+            long r = (long) (random.nextDouble() * count);
+            if (r < sampleSize)
+                sample.set((int) r, value);
+        }
+    }
+
+    /**
+     * @param spec
+     *            the extractor's value
+     * @param call
+     *            the API call
+     * @return the <code>"assert"</code> assertions to check for each item
+     * @throws UnRAVLException
+     *             if an assertion cannot be created
+     */
+    protected List<UnRAVLAssertion> assertions(ObjectNode spec, ApiCall call)
+            throws UnRAVLException {
+        List<UnRAVLAssertion> assertions = new ArrayList<UnRAVLAssertion>();
+        JsonNode asserts = spec.get("assert");
+        if (asserts != null)
+            for (JsonNode a : ApiCall.assertionArray(asserts, Stage.ASSERT))
+                assertions.add(call.newAssertion(a, Stage.ASSERT));
+        return assertions;
+    }
+
+    /**
+     * Check the assertions for the current item, which the caller has bound.
+     *
+     * @param current
+     *            the current script
+     * @param call
+     *            the API call
+     * @param assertions
+     *            the assertions
+     * @throws UnRAVLAssertionException
+     *             if an assertion fails; it is recorded as failed
+     * @throws UnRAVLException
+     *             if an assertion cannot be evaluated
+     */
+    protected void check(UnRAVL current, ApiCall call,
+            List<UnRAVLAssertion> assertions) throws UnRAVLException {
+        for (UnRAVLAssertion a : assertions) {
+            try {
+                a.check(current, a.getAssertion(), Stage.ASSERT, call);
+            } catch (UnRAVLAssertionException e) {
+                call.recordAssertion(a, false);
+                throw new UnRAVLAssertionException(String.format("%s %d: %s",
+                        label, count, e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Record the assertions as passed, after all the items have been checked.
+     *
+     * @param call
+     *            the API call
+     * @param assertions
+     *            the assertions
+     */
+    protected void passed(ApiCall call, List<UnRAVLAssertion> assertions) {
+        for (UnRAVLAssertion a : assertions)
+            call.recordAssertion(a, true);
+    }
+
+    @Override
+    public void extract(UnRAVL current, ObjectNode extractor, ApiCall call)
+            throws UnRAVLException {
+        super.extract(current, extractor, call);
+        if (!consumed) {
+            try {
+                consume(current, extractor, call,
+                        call.getResponseBodyAsInputStream());
+            } catch (IOException e) {
+                throw new UnRAVLException(e.getMessage(), e);
+            }
+        }
+        ObjectNode spec = spec(extractor);
+        bind(current, spec, "count", Long.valueOf(count));
+        if (sample != null && spec.has("sample")) {
+            ArrayNode a = Json.jsonNodeFactory().arrayNode();
+            a.addAll(sample);
+            bind(current, spec, "sample", a);
+        }
+        if (spec.has("metrics"))
+            bind(current, spec, "metrics", metrics());
+        bindResults(current, spec);
+    }
+
+    /**
+     * Bind the extractor specific variables after the stream has been read.
+     *
+     * @param current
+     *            the current script
+     * @param spec
+     *            the extractor's value
+     * @throws UnRAVLException
+     *             if a variable name is not valid
+     */
+    protected abstract void bindResults(UnRAVL current, ObjectNode spec)
+            throws UnRAVLException;
+
+    /**
+     * @return the <code>"metrics"</code> value: <code>count</code>,
+     *         <code>timeToFirst<i>Item</i></code>, <code>elapsed</code> and
+     *         <code><i>item</i>sPerSecond</code>
+     */
+    protected ObjectNode metrics() {
+        ObjectNode m = Json.jsonNodeFactory().objectNode();
+        m.put("count", count);
+        m.put("timeToFirst" + Character.toUpperCase(item.charAt(0))
+                + item.substring(1), timeToFirst);
+        m.put("elapsed", elapsed);
+        m.put(item + "sPerSecond", count * 1000.0 / Math.max(1, elapsed));
+        return m;
+    }
+
+    protected ObjectNode spec(ObjectNode extractor) throws UnRAVLException {
+        JsonNode spec = Json.firstFieldValue(extractor);
+        if (!spec.isObject())
+            throw new UnRAVLException(String.format(
+                    "%s extractor value must be an object", name));
+        return (ObjectNode) spec;
+    }
+
+    protected String stringField(ObjectNode spec, String field,
+            String defaultValue) throws UnRAVLException {
+        JsonNode val = spec.get(field);
+        if (val == null)
+            return defaultValue;
+        if (!val.isTextual())
+            throw new UnRAVLException(String.format(
+                    "%s %s value %s must be a string", name, field, val));
+        return val.textValue();
+    }
+
+    /**
+     * Bind a value to the variable named by a field of the spec, if present
+     */
+    protected void bind(UnRAVL current, ObjectNode spec, String field,
+            Object value) throws UnRAVLException {
+        String var = stringField(spec, field, null);
+        if (var != null)
+            current.bind(var, value);
+    }
+}
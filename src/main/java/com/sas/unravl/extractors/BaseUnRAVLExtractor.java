@@ -7,6 +7,15 @@ import com.sas.unravl.BaseUnRAVLPlugin;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.UnRAVLPlugins;
+import com.sas.unravl.util.Json;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -38,11 +47,62 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class BaseUnRAVLExtractor extends BaseUnRAVLPlugin implements
         UnRAVLExtractor {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     protected static boolean unwrapOption(ObjectNode scriptlet)
             throws UnRAVLException {
         return booleanOption(scriptlet, "unwrap");
     }
 
+    /**
+     * Write the response body to a file, directly from the response body
+     * buffer, or pretty print it as JSON while it is written.
+     *
+     * @param call
+     *            the API call
+     * @param where
+     *            the file name, or "-" for standard output
+     * @param pretty
+     *            if true, pretty print the body as JSON (see
+     *            {@link Json#prettyPrint(InputStream, OutputStream)});
+     *            otherwise write the body unchanged
+     * @throws UnRAVLException
+     *             if the file cannot be written, or if pretty is true and the
+     *             body is not valid JSON
+     */
+    protected static void writeResponseBody(ApiCall call, String where,
+            boolean pretty) throws UnRAVLException {
+        try {
+            if (where.equals("-")) {
+                if (pretty)
+                    Json.prettyPrint(call.getResponseBodyAsInputStream(),
+                            System.out);
+                else
+                    call.getResponseBody().writeTo(System.out);
+                System.out.println();
+                return;
+            }
+            FileOutputStream out = new FileOutputStream(where);
+            try {
+                if (pretty) {
+                    BufferedOutputStream b = new BufferedOutputStream(out,
+                            BUFFER_SIZE);
+                    Json.prettyPrint(call.getResponseBodyAsInputStream(), b);
+                    b.flush();
+                } else {
+                    FileChannel channel = out.getChannel();
+                    ByteBuffer body = call.getResponseBodyAsBuffer();
+                    while (body.hasRemaining())
+                        channel.write(body);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new UnRAVLException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public ObjectNode extractor() {
         return getScriptlet();
@@ -6,14 +6,8 @@ import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
-import com.sas.unravl.generators.Binary;
 import com.sas.unravl.util.Json;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
 import org.apache.log4j.Logger;
 
 /**
@@ -42,15 +36,8 @@ public class BinaryExtractor extends BaseUnRAVLExtractor {
         if (to.startsWith(UnRAVL.REDIRECT_PREFIX)) {
             String where = to.substring(UnRAVL.REDIRECT_PREFIX.length());
             where = getScript().expand(where);
-            try {
-                BufferedOutputStream b = new BufferedOutputStream(
-                        new FileOutputStream(where));
-                Binary.copy(new ByteArrayInputStream(bytes), b);
-                b.close();
-                logger.info("Wrote binary to file " + where);
-            } catch (IOException e) {
-                throw new UnRAVLException(e.getMessage(), e);
-            }
+            writeResponseBody(call, where, false);
+            logger.info("Wrote binary to file " + where);
         } else {
             current.bind(to, bytes);
         }
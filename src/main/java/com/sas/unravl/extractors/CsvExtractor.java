@@ -0,0 +1,269 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An extractor for CSV (<code>text/csv</code>) response bodies. Rows are
+ * parsed as the response is read, so large CSV exports can be checked without
+ * holding the body (or all the rows) in memory.
+ *
+ * <pre>
+ * { "csv" : { "row" : "varName",
+ *             "assert" : [ assertion, ..., assertion ],
+ *             "header" : boolean,
+ *             "delimiter" : "character",
+ *             "headers" : "varName",
+ *             "columns" : { "varName" : "column", ..., "varName" : "column" },
+ *             "count" : "varName",
+ *             "first" : "varName",
+ *             "last" : "varName",
+ *             "sample" : "varName",
+ *             "sampleSize" : number,
+ *             "metrics" : "varName" },
+ *   "keepBody" : boolean
+ * }
+ * </pre>
+ *
+ * All the fields are optional. The body is parsed as
+ * <a href="https://tools.ietf.org/html/rfc4180">RFC 4180</a> CSV, in UTF-8,
+ * with fields separated by the <code>"delimiter"</code> (default
+ * <code>","</code>). Unless <code>"header"</code> is false, the first row
+ * holds the column names, which are bound to the <code>"headers"</code>
+ * variable as a JSON array of strings.
+ * <p>
+ * Each row is bound to the <code>"row"</code> variable (default
+ * <code>"row"</code>) as a JSON object which maps column names to the
+ * (string) field values, or as a JSON array of strings if there is no header
+ * row. Then the <code>"assert"</code> assertions are evaluated, for example
+ * the Groovy assertion <code>"row.amount.asDouble() &gt;= 0"</code>. Reading
+ * stops at the first row which fails an assertion.
+ * <p>
+ * After the response is read, the number of data rows, the first and last
+ * rows, and a random sample of at most <code>"sampleSize"</code> rows (default
+ * 10) are bound to the named variables. Each <code>"columns"</code> variable
+ * is bound to a JSON array of all the values of a column, named by its header
+ * or its (0-based) index; other rows are not kept. The <code>"metrics"</code>
+ * variable is bound to a JSON object with the fields <code>count</code>,
+ * <code>timeToFirstRow</code>, <code>elapsed</code> and
+ * <code>rowsPerSecond</code>. Times are in milliseconds from the request.
+ * <p>
+ * The response body is not kept (for other extractors and assertions) unless
+ * <code>"keepBody"</code> is true.
+ *
+ * @author David.Biesack@sas.com
+ * @see UnRAVLStreamingExtractor
+ */
+@UnRAVLExtractorPlugin("csv")
+public class CsvExtractor extends BaseStreamingExtractor {
+
+    private static final Logger logger = Logger.getLogger(CsvExtractor.class);
+
+    private ArrayNode headers;
+    private JsonNode first, last;
+    private final Map<String, ArrayNode> columns = new LinkedHashMap<String, ArrayNode>();
+
+    public CsvExtractor() {
+        super("csv", "row", "CSV row");
+    }
+
+    @Override
+    public void consume(UnRAVL current, ObjectNode extractor, ApiCall call,
+            InputStream body) throws IOException, UnRAVLException {
+        ObjectNode spec = spec(extractor);
+        String rowVar = stringField(spec, "row", "row");
+        boolean header = !spec.has("header") || spec.get("header").asBoolean();
+        String delimiter = stringField(spec, "delimiter", ",");
+        if (delimiter.length() != 1)
+            throw new UnRAVLException(String.format(
+                    "csv delimiter %s must be a single character", delimiter));
+        sampling(spec);
+        List<UnRAVLAssertion> assertions = assertions(spec, call);
+
+        start(call);
+        Parser parser = new Parser(new BufferedReader(new InputStreamReader(
+                body, Text.UTF_8)), delimiter.charAt(0));
+        try {
+            List<String> fields = parser.row();
+            if (header && fields != null) {
+                headers = Json.jsonNodeFactory().arrayNode();
+                for (String h : fields)
+                    headers.add(h);
+                fields = parser.row();
+            }
+            int selected[] = selectColumns(spec);
+            for (; fields != null; fields = parser.row()) {
+                counted();
+                JsonNode row = row(fields);
+                if (first == null)
+                    first = row;
+                last = row;
+                sample(row);
+                int c = 0;
+                for (ArrayNode column : columns.values()) {
+                    int i = selected[c++];
+                    if (i < fields.size())
+                        column.add(fields.get(i));
+                    else
+                        column.addNull();
+                }
+                if (!assertions.isEmpty()) {
+                    current.bind(rowVar, row);
+                    check(current, call, assertions);
+                }
+            }
+        } finally {
+            finished();
+        }
+        passed(call, assertions);
+        logger.info(String.format("Read %d CSV rows in %dms", count, elapsed));
+    }
+
+    // Resolve the "columns" spec to column indexes, in the order of columns
+    private int[] selectColumns(ObjectNode spec) throws UnRAVLException {
+        JsonNode select = spec.get("columns");
+        if (select == null)
+            return new int[0];
+        int selected[] = new int[select.size()];
+        int c = 0;
+        for (Map.Entry<String, JsonNode> e : Json.fields(Json.object(select))) {
+            JsonNode column = e.getValue();
+            int index = -1;
+            if (column.isInt())
+                index = column.intValue();
+            else if (headers != null)
+                for (int i = 0; i < headers.size(); i++)
+                    if (headers.get(i).textValue().equals(column.asText()))
+                        index = i;
+            if (index < 0)
+                throw new UnRAVLException(String.format(
+                        "csv column %s not found in headers %s", column,
+                        headers));
+            selected[c++] = index;
+            columns.put(e.getKey(), Json.jsonNodeFactory().arrayNode());
+        }
+        return selected;
+    }
+
+    private JsonNode row(List<String> fields) throws UnRAVLException {
+        if (headers == null) {
+            ArrayNode row = Json.jsonNodeFactory().arrayNode();
+            for (String f : fields)
+                row.add(f);
+            return row;
+        }
+        if (fields.size() > headers.size())
+            throw new UnRAVLException(String.format(
+                    "CSV row %d has %d fields but there are only %d headers",
+                    count, fields.size(), headers.size()));
+        ObjectNode row = Json.jsonNodeFactory().objectNode();
+        for (int i = 0; i < fields.size(); i++)
+            row.put(headers.get(i).textValue(), fields.get(i));
+        return row;
+    }
+
+    @Override
+    protected void bindResults(UnRAVL current, ObjectNode spec)
+            throws UnRAVLException {
+        bind(current, spec, "headers", headers);
+        bind(current, spec, "first", first);
+        bind(current, spec, "last", last);
+        for (Map.Entry<String, ArrayNode> column : columns.entrySet())
+            current.bind(column.getKey(), column.getValue());
+    }
+
+    /**
+     * Reads rows of RFC 4180 CSV: fields may be quoted with <code>"</code>,
+     * quoted fields may contain delimiters, line breaks and doubled quotes
+     * (<code>""</code>), and rows end with CRLF or LF. Blank lines are skipped.
+     */
+    static class Parser {
+        private final Reader in;
+        private final char delimiter;
+        private final StringBuilder field = new StringBuilder();
+        private int next = -2; // a character read ahead; -2 if none
+
+        Parser(Reader in, char delimiter) {
+            this.in = in;
+            this.delimiter = delimiter;
+        }
+
+        private int read() throws IOException {
+            if (next != -2) {
+                int c = next;
+                next = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        /**
+         * @return the fields of the next row, or null at the end of the input
+         * @throws IOException
+         *             if the input cannot be read
+         * @throws UnRAVLException
+         *             if a quoted field is not terminated
+         */
+        List<String> row() throws IOException, UnRAVLException {
+            int c = read();
+            while (c == '\r' || c == '\n')
+                c = read();
+            if (c == -1)
+                return null;
+            List<String> fields = new ArrayList<String>();
+            field.setLength(0);
+            while (true) {
+                if (c == '"' && field.length() == 0) {
+                    // quoted field
+                    while (true) {
+                        c = read();
+                        if (c == -1)
+                            throw new UnRAVLException(
+                                    "Unterminated quoted field in CSV response");
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"')
+                                break;
+                        }
+                        field.append((char) c);
+                    }
+                    continue;
+                }
+                if (c == delimiter) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    fields.add(field.toString());
+                    if (c == '\r') {
+                        next = read();
+                        if (next == '\n')
+                            next = -2;
+                    }
+                    return fields;
+                } else
+                    field.append((char) c);
+                c = read();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
+import com.sas.unravl.util.Digests;
+import com.sas.unravl.util.Json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An extractor which binds digests (hashes) of the response body to
+ * variables:
+ *
+ * <pre>
+ * { "digest" : { "varName" : "sha256", "lengthVar" : "length" } }
+ * </pre>
+ *
+ * Each value names a digest algorithm (see {@link Digests}); the variable is
+ * bound to the digest as a lower case hexadecimal string. The value
+ * <code>"length"</code> binds the number of bytes in the response body as a
+ * Long. Digests are computed while the response body is read.
+ *
+ * @author David.Biesack@sas.com
+ */
+@UnRAVLExtractorPlugin("digest")
+public class DigestExtractor extends BaseUnRAVLExtractor {
+
+    @Override
+    public void extract(UnRAVL current, ObjectNode extractor, ApiCall call)
+            throws UnRAVLException {
+        super.extract(current, extractor, call);
+        JsonNode spec = Json.firstFieldValue(extractor);
+        if (!spec.isObject())
+            throw new UnRAVLException(
+                    "digest extractor value must be an object: { \"varName\" : \"sha256\" }");
+        List<String> names = new ArrayList<String>();
+        for (JsonNode name : spec) {
+            if (!name.isTextual())
+                throw new UnRAVLException("digest extractor value " + name
+                        + " is not a digest name string");
+            if (!name.textValue().equals("length"))
+                names.add(name.textValue());
+        }
+        Digests digests = call.getResponseDigests(names);
+        for (Map.Entry<String, JsonNode> e : Json.fields(spec)) {
+            String name = e.getValue().textValue();
+            if (name.equals("length"))
+                current.bind(e.getKey(), Long.valueOf(digests.length()));
+            else
+                current.bind(e.getKey(), digests.hex(name));
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -152,11 +153,11 @@ public class HeadersExtractor extends BaseUnRAVLExtractor {
 
     private void bindHeaderByPattern(UnRAVL current, ArrayNode a,
             String headerName, String headerValue, int offset)
-            throws UnRAVLAssertionException {
+            throws UnRAVLException {
         String varName;
         {
             String regex = current.expand(a.get(offset + 1).textValue());
-            Pattern pattern = Pattern.compile(regex);
+            Pattern pattern = Patterns.compile(regex, "headers extractor");
             Matcher matcher = pattern.matcher(headerValue);
             if (matcher.matches()) {
                 for (int i = 1, v = offset + 2; i <= matcher.groupCount()
@@ -36,6 +36,11 @@ import org.apache.log4j.Logger;
  * be "unwrapped". An <code>ObjectNode</code> will be unwrapped into a
  * <code>java.util.Map</code>; a <code>ArrayNode</code> will be unwrapped into a
  * <code>java.util.List</code>.
+ * <p>
+ * The <code>@file-name</code> form writes the response body to the file as it
+ * was received. With the option <code>"pretty" : true</code>, the JSON is
+ * pretty printed as it is written.
+ * </p>
  *
  * @author David.Biesack@sas.com
  */
@@ -62,7 +67,7 @@ public class JsonExtractor extends BaseUnRAVLExtractor {
         if (to.startsWith(UnRAVL.REDIRECT_PREFIX)) {
             String where = to.substring(UnRAVL.REDIRECT_PREFIX.length());
             where = getScript().expand(where);
-            Json.extractToStream(json, where);
+            writeResponseBody(call, where, booleanOption(extractor, "pretty"));
             if (!where.equals("-"))
                 logger.info("Wrote JSON to file " + where);
         } else {
@@ -9,11 +9,11 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -462,8 +462,8 @@ public class LinksExtractor extends BaseUnRAVLExtractor {
     private boolean matches(ObjectNode root, JsonNode actual, JsonNode expected)
             throws UnRAVLException {
         if (actual.isTextual() && expected.isTextual()) {
-            Pattern p = Pattern.compile(expected.textValue());
-            return p.matcher(actual.textValue()).matches();
+            return Patterns.matches(expected.textValue(), actual.textValue(),
+                    key(root) + " extractor");
         }
         throw new UnRAVLException(String.format(
                 "%s extractor selector requires string values", key(root)));
@@ -0,0 +1,116 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.util.Json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An extractor for newline delimited JSON (NDJSON, or JSON lines) response
+ * bodies, where the body is a sequence of JSON values rather than one JSON
+ * document.
+ *
+ * <pre>
+ * { "ndjson" : { "record" : "varName",
+ *                "assert" : [ assertion, ..., assertion ],
+ *                "count" : "varName",
+ *                "first" : "varName",
+ *                "last" : "varName",
+ *                "sample" : "varName",
+ *                "sampleSize" : number,
+ *                "metrics" : "varName" },
+ *   "keepBody" : boolean
+ * }
+ * </pre>
+ *
+ * All the fields are optional. The records are parsed as the response is
+ * read. Each record is bound to the <code>"record"</code> variable (default
+ * <code>"record"</code>) and the <code>"assert"</code> assertions are
+ * evaluated for it; they can refer to the record by that name, for example
+ * <code>{ "jsonPath" : { "$.id" : 1 }, "from" : "record" }</code> or the
+ * Groovy assertion <code>"record.id &gt; 0"</code>. Reading stops at the first
+ * record which fails an assertion.
+ * <p>
+ * After the response is read, the number of records, the first and last
+ * records, and a random sample of at most <code>"sampleSize"</code> records
+ * (default 10) are bound to the named variables. Records are not otherwise
+ * kept. The <code>"metrics"</code> variable is bound to a JSON object with
+ * the fields <code>count</code>, <code>timeToFirstRecord</code> (milliseconds
+ * from the request to the first record), <code>elapsed</code> (milliseconds
+ * from the request to the end of the response) and
+ * <code>recordsPerSecond</code>.
+ * <p>
+ * The response body is not kept (for other extractors and assertions) unless
+ * <code>"keepBody"</code> is true.
+ *
+ * @author David.Biesack@sas.com
+ * @see UnRAVLStreamingExtractor
+ */
+@UnRAVLExtractorPlugin("ndjson")
+public class NdjsonExtractor extends BaseStreamingExtractor {
+
+    private static final Logger logger = Logger
+            .getLogger(NdjsonExtractor.class);
+
+    private JsonNode first, last;
+
+    public NdjsonExtractor() {
+        super("ndjson", "record", "NDJSON record");
+    }
+
+    @Override
+    public void consume(UnRAVL current, ObjectNode extractor, ApiCall call,
+            InputStream body) throws IOException, UnRAVLException {
+        ObjectNode spec = spec(extractor);
+        String recordVar = stringField(spec, "record", "record");
+        sampling(spec);
+        List<UnRAVLAssertion> assertions = assertions(spec, call);
+
+        start(call);
+        MappingIterator<JsonNode> records = new ObjectMapper().readValues(
+                Json.jsonFactory().createParser(body), JsonNode.class);
+        try {
+            while (records.hasNextValue()) {
+                JsonNode record = records.nextValue();
+                counted();
+                if (first == null)
+                    first = record;
+                last = record;
+                sample(record);
+                if (!assertions.isEmpty()) {
+                    current.bind(recordVar, record);
+                    check(current, call, assertions);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new UnRAVLException(String.format(
+                    "Invalid NDJSON record %d: %s", count + 1,
+                    e.getOriginalMessage()), e);
+        } finally {
+            finished();
+        }
+        passed(call, assertions);
+        logger.info(String.format("Read %d NDJSON records in %dms", count,
+                elapsed));
+    }
+
+    @Override
+    protected void bindResults(UnRAVL current, ObjectNode spec)
+            throws UnRAVLException {
+        bind(current, spec, "first", first);
+        bind(current, spec, "last", last);
+    }
+}
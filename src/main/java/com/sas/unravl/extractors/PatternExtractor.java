@@ -9,6 +9,7 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -92,7 +93,7 @@ public class PatternExtractor extends BaseUnRAVLExtractor {
                     + " in pattern extractor " + extractor + " is not bound");
         String text = value.toString();
         String regex = current.expand(a.get(1).textValue());
-        Pattern pattern = Pattern.compile(regex);
+        Pattern pattern = Patterns.compile(regex, "pattern extractor");
         Matcher matcher = pattern.matcher(text);
         if (matcher.matches()) {
             for (int i = 1, v = 2; i <= matcher.groupCount() && v < a.size(); i++, v++) {
@@ -0,0 +1,266 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertionException;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An extractor for <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">
+ * server-sent events</a> (<code>text/event-stream</code>) response bodies.
+ * Events are parsed, bound, and checked as they arrive, and the extractor
+ * stops reading when a stop condition is met.
+ *
+ * <pre>
+ * { "sse" : { "event" : "varName",
+ *             "assert" : [ assertion, ..., assertion ],
+ *             "maxEvents" : number,
+ *             "timeout" : milliseconds,
+ *             "until" : "expression",
+ *             "count" : "varName",
+ *             "last" : "varName",
+ *             "events" : "varName",
+ *             "metrics" : "varName" },
+ *   "keepBody" : boolean
+ * }
+ * </pre>
+ *
+ * All the fields are optional. Each event is bound as a JSON object to the
+ * <code>"event"</code> variable (default <code>"event"</code>). The object has
+ * the fields <code>event</code> (the event type, default
+ * <code>"message"</code>), <code>data</code>, <code>id</code> (the last event
+ * ID), <code>retry</code> if the event set it, and <code>json</code>, the
+ * data parsed as JSON, if the data is a JSON object or array. Then the
+ * <code>"assert"</code> assertions are evaluated; reading stops at the first
+ * event which fails an assertion.
+ * <p>
+ * Reading also stops after <code>"maxEvents"</code> events, after
+ * <code>"timeout"</code> milliseconds (measured from the request), when the
+ * <code>"until"</code> expression (in the script language) returns true for
+ * an event, or at the end of the response. The rest of the response is not
+ * read.
+ * <p>
+ * The event count and last event are bound to the <code>"count"</code> and
+ * <code>"last"</code> variables; <code>"events"</code> binds an array of all
+ * events (which are otherwise not kept). <code>"metrics"</code> binds a JSON
+ * object with the fields <code>count</code>, <code>timeToFirstEvent</code>,
+ * <code>elapsed</code>, <code>eventsPerSecond</code>, <code>stoppedBy</code>
+ * (<code>"maxEvents"</code>, <code>"timeout"</code>, <code>"until"</code>,
+ * <code>"assert"</code> or <code>"end"</code>) and <code>latency</code>, a
+ * histogram of the time between events (see {@link LatencyHistogram}). Times
+ * are in milliseconds.
+ * <p>
+ * The response body is not kept (for other extractors and assertions) unless
+ * <code>"keepBody"</code> is true.
+ *
+ * @author David.Biesack@sas.com
+ * @see UnRAVLStreamingExtractor
+ */
+@UnRAVLExtractorPlugin("sse")
+public class SseExtractor extends BaseStreamingExtractor {
+
+    private static final Logger logger = Logger.getLogger(SseExtractor.class);
+
+    private static final Timer timer = new Timer("UnRAVL SSE timeout", true);
+
+    private ObjectNode last;
+    private ArrayNode events;
+    private String stoppedBy = "end";
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public SseExtractor() {
+        super("sse", "event", "Server-sent event");
+    }
+
+    @Override
+    public void consume(final UnRAVL current, ObjectNode extractor,
+            final ApiCall call, InputStream body) throws IOException,
+            UnRAVLException {
+        ObjectNode spec = spec(extractor);
+        String eventVar = stringField(spec, "event", "event");
+        long maxEvents = spec.has("maxEvents") ? spec.get("maxEvents")
+                .asLong() : Long.MAX_VALUE;
+        long timeout = spec.has("timeout") ? spec.get("timeout").asLong() : 0;
+        String until = stringField(spec, "until", null);
+        if (spec.has("events"))
+            events = Json.jsonNodeFactory().arrayNode();
+        List<UnRAVLAssertion> assertions = assertions(spec, call);
+
+        final long start = start(call);
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        TimerTask timeoutTask = null;
+        if (timeout > 0) {
+            timeoutTask = new TimerTask() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    call.abortResponse();
+                }
+            };
+            timer.schedule(timeoutTask,
+                    Math.max(0, start + timeout - System.currentTimeMillis()));
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body,
+                Text.UTF_8));
+        long previous = 0;
+        try {
+            EventParser parser = new EventParser();
+            for (String line = reader.readLine(); line != null; line = reader
+                    .readLine()) {
+                ObjectNode event = parser.line(line);
+                if (event == null)
+                    continue;
+                long now = System.currentTimeMillis();
+                if (count > 0)
+                    latency.record(now - previous);
+                previous = now;
+                counted();
+                last = event;
+                if (events != null)
+                    events.add(event);
+                current.bind(eventVar, event);
+                check(current, call, assertions);
+                if (count >= maxEvents) {
+                    stoppedBy = "maxEvents";
+                    break;
+                }
+                if (until != null
+                        && Boolean.TRUE.equals(current.eval(current
+                                .expand(until)))) {
+                    stoppedBy = "until";
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (!timedOut.get())
+                throw e;
+        } finally {
+            if (timeoutTask != null)
+                timeoutTask.cancel();
+            finished();
+        }
+        if (timedOut.get())
+            stoppedBy = "timeout";
+        else if (!stoppedBy.equals("end"))
+            call.abortResponse();
+        passed(call, assertions);
+        logger.info(String.format("Read %d server-sent events in %dms (%s)",
+                count, elapsed, stoppedBy));
+    }
+
+    @Override
+    protected void check(UnRAVL current, ApiCall call,
+            List<UnRAVLAssertion> assertions) throws UnRAVLException {
+        try {
+            super.check(current, call, assertions);
+        } catch (UnRAVLAssertionException e) {
+            stoppedBy = "assert";
+            call.abortResponse();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void bindResults(UnRAVL current, ObjectNode spec)
+            throws UnRAVLException {
+        bind(current, spec, "last", last);
+        bind(current, spec, "events", events);
+    }
+
+    @Override
+    protected ObjectNode metrics() {
+        ObjectNode m = super.metrics();
+        m.put("stoppedBy", stoppedBy);
+        m.set("latency", latency.toJson());
+        return m;
+    }
+
+    /**
+     * Parses the lines of an event stream into events, as per the
+     * server-sent events specification.
+     */
+    static class EventParser {
+        private String type;
+        private StringBuilder data;
+        private String lastEventId = "";
+        private Long retry;
+
+        /**
+         * Process one line of the stream
+         *
+         * @param line
+         *            the line, without the line terminator
+         * @return the event, if the line is the blank line which ends an event
+         *         with data; else null
+         */
+        ObjectNode line(String line) {
+            if (line.length() == 0)
+                return dispatch();
+            if (line.startsWith(":"))
+                return null; // comment
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" "))
+                value = value.substring(1);
+            if (field.equals("event"))
+                type = value;
+            else if (field.equals("data")) {
+                if (data == null)
+                    data = new StringBuilder(value);
+                else
+                    data.append('\n').append(value);
+            } else if (field.equals("id")) {
+                if (value.indexOf('\0') < 0)
+                    lastEventId = value;
+            } else if (field.equals("retry")) {
+                if (value.matches("\\d+"))
+                    retry = Long.valueOf(value);
+            }
+            return null;
+        }
+
+        private ObjectNode dispatch() {
+            ObjectNode event = null;
+            if (data != null) {
+                event = Json.jsonNodeFactory().objectNode();
+                event.put("event", type == null || type.length() == 0 ? "message"
+                        : type);
+                String d = data.toString();
+                event.put("data", d);
+                event.put("id", lastEventId);
+                if (retry != null)
+                    event.put("retry", retry.longValue());
+                String t = d.trim();
+                if (t.startsWith("{") || t.startsWith("["))
+                    try {
+                        event.set("json", Json.parse(t));
+                    } catch (UnRAVLException e) {
+                        // not JSON; only bind the data text
+                    }
+            }
+            type = null;
+            data = null;
+            retry = null;
+            return event;
+        }
+    }
+}
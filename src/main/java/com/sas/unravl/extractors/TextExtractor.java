@@ -9,12 +9,7 @@ import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.generators.Text;
 import com.sas.unravl.util.Json;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
-
+import org.apache.http.Header;
 import org.apache.log4j.Logger;
 
 /**
@@ -23,8 +18,13 @@ import org.apache.log4j.Logger;
  * <pre>
  * { "text" : "varName" }
  * { "text" : "@file-name" }
+ * { "text" : "@file-name", "pretty" : true }
  * </pre>
  *
+ * The second form writes the response body to the file as it was received.
+ * In the third form, a JSON response (as indicated by the Content-Type
+ * header) is pretty printed as it is written.
+ * <p>
  * TODO: allow an encoding, such as<br>
  * <code>{ "text" : "@file-name", "encoding": "UTF-16" }</code>
  * 
@@ -51,19 +51,11 @@ public class TextExtractor extends BaseUnRAVLExtractor {
         if (to.startsWith(UnRAVL.REDIRECT_PREFIX)) {
             String where = to.substring(UnRAVL.REDIRECT_PREFIX.length());
             where = getScript().expand(where);
-            try {
-                boolean stdout = where.equals("-");
-                Writer f = stdout ? new PrintWriter(System.out)
-                        : new OutputStreamWriter(new FileOutputStream(where),
-                                Text.UTF_8);
-                f.write(text);
-                if (stdout)
-                    System.out.println();
-                else
-                    f.close();
-            } catch (IOException e) {
-                throw new UnRAVLException(e.getMessage(), e);
-            }
+            Header contentType = call.getResponseHeader("Content-Type");
+            boolean pretty = booleanOption(extractor, "pretty")
+                    && contentType != null
+                    && getScript().bodyIsJson(new Header[] { contentType });
+            writeResponseBody(call, where, pretty);
             if (!where.equals("-"))
                 logger.info("Wrote text to file " + where);
         } else {
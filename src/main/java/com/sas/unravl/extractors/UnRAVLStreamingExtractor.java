@@ -0,0 +1,50 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An extractor which consumes the response body as a stream, while the
+ * response is being read, rather than after the whole body has been read.
+ * <p>
+ * Before calling the API, {@link ApiCall} looks for a streaming extractor in
+ * the script's "bind" list (at most one is allowed). It calls
+ * {@link #consume(UnRAVL, ObjectNode, ApiCall, InputStream)} with the response
+ * body stream as soon as the response headers arrive, then later calls
+ * {@link #extract(UnRAVL, ObjectNode, ApiCall)} on the same instance, in its
+ * normal place in the "bind" list, to bind results. An exception thrown by
+ * consume is rethrown after extract.
+ * <p>
+ * The bytes the extractor reads are not kept as the response body, so that
+ * memory use does not depend on the size of the response, unless the
+ * scriptlet has the option <code>"keepBody" : true</code>. The extractor
+ * may stop reading before the end of the stream.
+ *
+ * @author David.Biesack@sas.com
+ */
+public interface UnRAVLStreamingExtractor extends UnRAVLExtractor {
+
+    /**
+     * Consume the response body.
+     *
+     * @param current
+     *            the current script
+     * @param extractor
+     *            the extractor scriptlet
+     * @param call
+     *            the API call; the status and response headers are available
+     * @param body
+     *            the response body stream; this is closed by the caller
+     * @throws IOException
+     *             if the body cannot be read
+     * @throws UnRAVLException
+     *             if the body is invalid or an assertion fails
+     */
+    public void consume(UnRAVL current, ObjectNode extractor, ApiCall call,
+            InputStream body) throws IOException, UnRAVLException;
+}
@@ -0,0 +1,274 @@
+package com.sas.unravl.extractors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Xml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This extractor evaluates one or more XPath expressions on the XML response
+ * body and binds the resulting string values to variables in the current
+ * environment. For example, for the XML response
+ *
+ * <pre>
+ * &lt;order id="1234"&gt;
+ *   &lt;item sku="a1"&gt;&lt;price&gt;10.00&lt;/price&gt;&lt;/item&gt;
+ *   &lt;item sku="b2"&gt;&lt;price&gt;2.50&lt;/price&gt;&lt;/item&gt;
+ * &lt;/order&gt;
+ * </pre>
+ *
+ * the following sets the variables <var>orderId</var> to "1234",
+ * <var>sku</var> to "b2" and <var>price</var> to "10.00":
+ *
+ * <pre>
+ * { "xpath" : { "orderId" : "/order/@id",
+ *               "sku" : "/order/item[2]/@sku",
+ *               "price" : "//price" } }
+ * </pre>
+ *
+ * The response is read with a streaming (StAX) parser, not loaded into a DOM,
+ * so only a subset of XPath is supported: absolute location paths made of
+ * child (<code>/</code>) and descendant (<code>//</code>) steps, each an
+ * element name or <code>*</code> with an optional position such as
+ * <code>[2]</code>, and optionally ending in an attribute step
+ * <code>@name</code> or <code>text()</code>. Names match the local name of
+ * elements and attributes (namespace prefixes are ignored). An element's value
+ * is its text content, including the text of its descendants, with leading
+ * and trailing whitespace removed. The paths are expanded before they are
+ * used.
+ * <p>
+ * Each variable is bound to the first match, and reading stops as soon as all
+ * the paths have matched; it is an error if a path does not match. With the
+ * option <code>"all" : true</code>, the whole document is read and each
+ * variable is bound to a <code>List&lt;String&gt;</code> of all the matches.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+@UnRAVLExtractorPlugin({ "xpath", "xPath" })
+public class XPathExtractor extends BaseUnRAVLExtractor {
+
+    private static final Logger logger = Logger.getLogger(XPathExtractor.class);
+
+    @Override
+    public void extract(UnRAVL current, ObjectNode extractor, ApiCall call)
+            throws UnRAVLException {
+        super.extract(current, extractor, call);
+        ObjectNode bindings = Json.object(Json.firstFieldValue(extractor));
+        boolean all = booleanOption(extractor, "all");
+        Map<String, Query> queries = new LinkedHashMap<String, Query>();
+        for (Map.Entry<String, JsonNode> entry : Json.fields(bindings)) {
+            JsonNode path = entry.getValue();
+            if (!path.isTextual())
+                throw new UnRAVLException(
+                        "xpath extractor requires string path values, found "
+                                + path);
+            queries.put(entry.getKey(),
+                    new Query(current.expand(path.textValue())));
+        }
+        evaluate(call, queries.values(), all);
+        for (Map.Entry<String, Query> entry : queries.entrySet()) {
+            Query q = entry.getValue();
+            if (all)
+                current.bind(entry.getKey(), q.values);
+            else if (q.values.isEmpty())
+                throw new UnRAVLException(String.format(
+                        "XPath %s did not match the XML response body", q.path));
+            else
+                current.bind(entry.getKey(), q.values.get(0));
+        }
+    }
+
+    private static void evaluate(ApiCall call, Collection<Query> queries,
+            boolean all) throws UnRAVLException {
+        Xml.Path path = new Xml.Path();
+        List<Capture> captures = new ArrayList<Capture>();
+        int unmatched = queries.size();
+        try {
+            XMLStreamReader reader = Xml.reader(call
+                    .getResponseBodyAsInputStream());
+            try {
+                while (reader.hasNext() && (all || unmatched > 0)) {
+                    switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        path.start(reader.getLocalName());
+                        for (Query q : queries) {
+                            if (!all
+                                    && (!q.values.isEmpty() || capturing(
+                                            captures, q)))
+                                continue;
+                            if (!q.matches(path))
+                                continue;
+                            if (q.attribute == null) {
+                                captures.add(new Capture(q, path.depth()));
+                                continue;
+                            }
+                            String value = attribute(reader, q.attribute);
+                            if (value != null) {
+                                if (q.values.isEmpty())
+                                    unmatched--;
+                                q.values.add(value);
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        for (Capture c : captures)
+                            if (!c.query.text || path.depth() == c.depth)
+                                c.text.append(reader.getText());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        for (int i = captures.size() - 1; i >= 0; i--) {
+                            Capture c = captures.get(i);
+                            if (c.depth == path.depth()) {
+                                captures.remove(i);
+                                if (c.query.values.isEmpty())
+                                    unmatched--;
+                                c.query.values.add(c.text.toString().trim());
+                            }
+                        }
+                        path.end();
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new UnRAVLException("Invalid XML response body: "
+                    + e.getMessage(), e);
+        }
+        if (!all)
+            logger.debug(String.format(
+                    "Evaluated %d XPaths, stopping at XML element %s",
+                    queries.size(), path));
+    }
+
+    private static boolean capturing(List<Capture> captures, Query q) {
+        for (Capture c : captures)
+            if (c.query == q)
+                return true;
+        return false;
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+        for (int i = 0, n = reader.getAttributeCount(); i < n; i++)
+            if (reader.getAttributeLocalName(i).equals(name))
+                return reader.getAttributeValue(i);
+        return null;
+    }
+
+    /** The text collected for an element which matched a query */
+    private static class Capture {
+        final Query query;
+        final int depth;
+        final StringBuilder text = new StringBuilder();
+
+        Capture(Query query, int depth) {
+            this.query = query;
+            this.depth = depth;
+        }
+    }
+
+    /** A parsed XPath in the supported subset, and its values */
+    static class Query {
+        private static final Pattern STEP = Pattern
+                .compile("(//|/)((?:[\\w.\\-]+:)?[\\w.\\-]+|\\*)(?:\\[(\\d+)\\])?");
+        private static final Pattern LAST = Pattern
+                .compile("/(?:@(?:[\\w.\\-]+:)?([\\w.\\-]+)|(text\\(\\)))$");
+
+        final String path;
+        private final List<Step> steps = new ArrayList<Step>();
+        final String attribute;
+        final boolean text;
+        final List<String> values = new ArrayList<String>();
+
+        Query(String path) throws UnRAVLException {
+            this.path = path;
+            String p = path.trim();
+            Matcher last = LAST.matcher(p);
+            if (last.find()) {
+                attribute = last.group(1);
+                text = last.group(2) != null;
+                p = p.substring(0, last.start());
+            } else {
+                attribute = null;
+                text = false;
+            }
+            Matcher m = STEP.matcher(p);
+            int end = 0;
+            while (m.find() && m.start() == end) {
+                String name = m.group(2);
+                int colon = name.indexOf(':');
+                steps.add(new Step(m.group(1).equals("//"),
+                        name.substring(colon + 1),
+                        m.group(3) == null ? 0 : Integer.parseInt(m.group(3))));
+                end = m.end();
+            }
+            if (end != p.length() || steps.isEmpty())
+                throw new UnRAVLException(String.format(
+                        "Unsupported XPath %s", path));
+        }
+
+        /**
+         * @return true if the current element (the last one in path) is
+         *         selected by the steps of this query
+         */
+        boolean matches(Xml.Path path) {
+            return matches(path, steps.size() - 1, path.depth() - 1);
+        }
+
+        private boolean matches(Xml.Path path, int step, int depth) {
+            if (step < 0)
+                return depth < 0;
+            if (depth < 0 || !steps.get(step).matches(path, depth))
+                return false;
+            if (!steps.get(step).descendant)
+                return matches(path, step - 1, depth - 1);
+            for (int d = depth - 1; d >= -1; d--)
+                if (matches(path, step - 1, d))
+                    return true;
+            return false;
+        }
+    }
+
+    private static class Step {
+        final boolean descendant;
+        final String name;
+        final int position;
+
+        Step(boolean descendant, String name, int position) {
+            this.descendant = descendant;
+            this.name = name;
+            this.position = position;
+        }
+
+        boolean matches(Xml.Path path, int depth) {
+            if (name.equals("*"))
+                return position == 0 || path.index(depth) == position;
+            return path.name(depth).equals(name)
+                    && (position == 0 || path.position(depth) == position);
+        }
+    }
+}
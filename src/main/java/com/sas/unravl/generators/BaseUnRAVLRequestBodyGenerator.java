@@ -32,7 +32,10 @@ import org.springframework.beans.factory.annotation.Autowired;
  * JsonNode scriptlet element that defines the body generator.
  * <p>
  * Body generators should extend {@link BaseUnRAVLRequestBodyGenerator} and
- * their getBody() method should invoke super.getBody(script,node)
+ * their getBody() method should invoke super.getBody(script,node). Body
+ * generators which also implement {@link UnRAVLStreamingRequestBodyGenerator}
+ * implement getRequestBody() instead; this class's getBody() then returns the
+ * body which getRequestBody() writes.
  * 
  * @author David.Biesack@sas.com
  */
@@ -45,6 +48,11 @@ public class BaseUnRAVLRequestBodyGenerator extends BaseUnRAVLPlugin implements
         setScript(script);
         setScriptlet(scriptlet);
         setCall(call);
+        if (this instanceof UnRAVLStreamingRequestBodyGenerator) {
+            RequestBody body = ((UnRAVLStreamingRequestBodyGenerator) this)
+                    .getRequestBody(script, scriptlet, call);
+            return body == null ? null : body.stream();
+        }
         return null;
     }
 
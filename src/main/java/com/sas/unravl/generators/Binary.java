@@ -11,13 +11,9 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 /**
  * This class produces a binary byte stream from a JSON 'binary' specification.
@@ -36,7 +32,7 @@ import java.net.URL;
  */
 public class Binary {
 
-    private static final int BUFSIZE = 256;
+    private static final int BUFSIZE = 8192;
     ByteArrayOutputStream bytes = new ByteArrayOutputStream();
     private final UnRAVL script;
 
@@ -122,22 +118,7 @@ public class Binary {
     }
 
     private void buildFromStream(String fileOrURL) throws IOException {
-        InputStream is = null;
-        try {
-            URL url = new URL(fileOrURL);
-            is = url.openStream();
-        } catch (MalformedURLException e) {
-            File f = new File(fileOrURL);
-            if (f.exists()) {
-                is = new FileInputStream(f);
-            } else {
-                is = getClass().getResourceAsStream(fileOrURL);
-            }
-        }
-        if (is == null) {
-            throw new IOException("No such file or URL " + fileOrURL);
-        }
-        copy(is, bytes);
+        Resources.get(fileOrURL).writeTo(bytes);
     }
 
     /**
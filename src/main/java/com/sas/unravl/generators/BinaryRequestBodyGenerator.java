@@ -8,7 +8,6 @@ import com.sas.unravl.annotations.UnRAVLRequestBodyGeneratorPlugin;
 import com.sas.unravl.util.Json;
 
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * Generates a binary request body for this API call. The node bodySpec can have
@@ -31,15 +30,17 @@ import java.io.InputStream;
  *
  */
 @UnRAVLRequestBodyGeneratorPlugin("binary")
-public class BinaryRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
+public class BinaryRequestBodyGenerator extends
+        BaseUnRAVLRequestBodyGenerator implements
+        UnRAVLStreamingRequestBodyGenerator {
 
     @Override
-    public InputStream getBody(UnRAVL script, ObjectNode bodySpec, ApiCall call)
-            throws IOException, UnRAVLException {
+    public RequestBody getRequestBody(UnRAVL script, ObjectNode bodySpec,
+            ApiCall call) throws IOException, UnRAVLException {
         Binary binary = new Binary(script, Json.object(bodySpec), "binary");
         byte requestBody[] = binary.bytes();
         script.bind("requestBody", requestBody);
-        return binary.stream();
+        return RequestBody.of(requestBody);
     }
 
 }
@@ -8,9 +8,7 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLRequestBodyGeneratorPlugin;
 import com.sas.unravl.util.Json;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Map.Entry;
@@ -60,12 +58,15 @@ import org.apache.log4j.Logger;
  *
  */
 @UnRAVLRequestBodyGeneratorPlugin("form")
-public class FormBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
+public class FormBodyGenerator extends BaseUnRAVLRequestBodyGenerator
+        implements UnRAVLStreamingRequestBodyGenerator {
 
     @Override
-    public InputStream getBody(UnRAVL script, ObjectNode bodySpec, ApiCall call)
-            throws IOException, UnRAVLException {
-        super.getBody(script, bodySpec, call);
+    public RequestBody getRequestBody(UnRAVL script, ObjectNode bodySpec,
+            ApiCall call) throws IOException, UnRAVLException {
+        setScript(script);
+        setScriptlet(bodySpec);
+        setCall(call);
         JsonNode json = Json.firstFieldValue(bodySpec);
         ObjectNode inputJson = null;
         StringBuilder body = new StringBuilder();
@@ -105,9 +106,9 @@ public class FormBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
         }
         String bodyText = body.toString();
         script.bind("requestBody", bodyText);
-        script.addRequestHeader(new BasicHeader("Content-Type",
+        call.setRequestHeader(new BasicHeader("Content-Type",
                 "application/x-www-form-urlencoded"));
-        return new ByteArrayInputStream(Text.utf8(bodyText));
+        return RequestBody.of(Text.utf8(bodyText));
     }
 
     private static final Logger logger = Logger
@@ -8,9 +8,7 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLRequestBodyGeneratorPlugin;
 import com.sas.unravl.util.Json;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * Generates a JSON request body for this API call. The node can have one of
@@ -32,16 +30,24 @@ import java.io.InputStream;
  * "requestBody". Variables are expanded within text values in the resulting
  * JSON.
  * <p>
+ * The JSON is serialized once in advance to compute the
+ * <code>Content-Length</code> header, then serialized directly onto the
+ * request stream. If the option <code>"contentLength" : false</code> is
+ * present, or the system property <code>unravl.json.contentLength</code> is
+ * false and the option is absent, the JSON is serialized only once and sent
+ * with chunked transfer encoding.
+ * <p>
  * 
  * @author David.Biesack@sas.com
  * 
  */
 @UnRAVLRequestBodyGeneratorPlugin("json")
-public class JsonRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
+public class JsonRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator
+        implements UnRAVLStreamingRequestBodyGenerator {
 
     @Override
-    public InputStream getBody(UnRAVL script, ObjectNode bodySpec, ApiCall call)
-            throws IOException, UnRAVLException {
+    public RequestBody getRequestBody(UnRAVL script, ObjectNode bodySpec,
+            ApiCall call) throws IOException, UnRAVLException {
         JsonNode json = bodySpec.get("json");
         JsonNode body = null;
         if (json.isTextual()) {
@@ -70,8 +76,10 @@ public class JsonRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
                             json));
         }
         script.bind("requestBody", body);
-        String jsonText = body.toString();
-        return new ByteArrayInputStream(Text.utf8(jsonText));
+        boolean contentLength = bodySpec.has("contentLength") ? booleanOption(
+                bodySpec, "contentLength") : Boolean.parseBoolean(System
+                .getProperty("unravl.json.contentLength", "true"));
+        return RequestBody.json(body, contentLength);
     }
 
 }
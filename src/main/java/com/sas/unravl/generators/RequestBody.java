@@ -0,0 +1,174 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.generators;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.sas.unravl.util.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body which writes itself to the request stream, created by an
+ * {@link UnRAVLStreamingRequestBodyGenerator}. Unlike an {@link InputStream}
+ * body, the body need not be copied into a byte array and then from the byte
+ * array into the request; for example, a {@link #json(JsonNode, boolean) JSON
+ * body} is serialized directly onto the connection.
+ *
+ * @author David.Biesack@sas.com
+ */
+public abstract class RequestBody {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Write the body.
+     *
+     * @param out
+     *            the request body stream; this is not closed
+     * @throws IOException
+     *             if the body cannot be written
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return the length of the body in bytes, or -1 if it is not known in
+     *         advance (in which case the body is sent with chunked transfer
+     *         encoding)
+     */
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * @return true if the body may be written more than once. This is false
+     *         unless a subclass says otherwise.
+     */
+    public boolean isReplayable() {
+        return false;
+    }
+
+    /**
+     * @return the body as an input stream. This writes the body into memory;
+     *         it is used for the {@link UnRAVLRequestBodyGenerator} contract
+     *         and {@link com.sas.unravl.ApiCall#getRequestStream()}.
+     * @throws IOException
+     *             if the body cannot be written
+     */
+    public InputStream stream() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTo(bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * Create a body from bytes. The body may be written more than once.
+     *
+     * @param bytes
+     *            the body
+     * @return the request body
+     */
+    public static RequestBody of(final byte[] bytes) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+
+            @Override
+            public long getContentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public boolean isReplayable() {
+                return true;
+            }
+
+            @Override
+            public InputStream stream() {
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+
+    /**
+     * Create a body from an input stream, for {@link UnRAVLRequestBodyGenerator}
+     * objects which do not write the body themselves. The body may be written
+     * only once.
+     *
+     * @param in
+     *            the body
+     * @return the request body
+     */
+    public static RequestBody of(final InputStream in) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Binary.copy(in, out);
+            }
+
+            @Override
+            public InputStream stream() {
+                return in;
+            }
+        };
+    }
+
+    /**
+     * Create a body which serializes JSON as UTF-8 with a Jackson
+     * {@link JsonGenerator} directly onto the request stream. The body may be
+     * written more than once.
+     *
+     * @param json
+     *            the JSON value
+     * @param contentLength
+     *            if true, compute the content length in advance by serializing
+     *            the JSON once without storing it, so that the request has a
+     *            <code>Content-Length</code> header rather than chunked
+     *            transfer encoding
+     * @return the request body
+     */
+    public static RequestBody json(final JsonNode json,
+            final boolean contentLength) {
+        return new RequestBody() {
+            private long length = -1;
+
+            @Override
+            public boolean isReplayable() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                JsonGenerator g = Json.jsonFactory().createGenerator(out,
+                        JsonEncoding.UTF8);
+                g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                mapper.writeTree(g, json);
+                g.close();
+            }
+
+            @Override
+            public long getContentLength() {
+                if (contentLength && length < 0) {
+                    CountingOutputStream count = new CountingOutputStream(
+                            ByteStreams.nullOutputStream());
+                    try {
+                        writeTo(count);
+                        length = count.getCount();
+                    } catch (IOException e) {
+                        // not expected writing to a null stream; send chunked
+                    }
+                }
+                return length;
+            }
+        };
+    }
+}
@@ -0,0 +1,316 @@
+package com.sas.unravl.generators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of the content of files and URLs referenced with
+ * <code>"@file-or-url"</code> by {@link Text} and {@link Binary}, so that
+ * expected bodies, body templates and scripts are not read again each time
+ * they are used.
+ * <p>
+ * The cached content is immutable. Files are reloaded when their modification
+ * time or size changes. HTTP and HTTPS resources are revalidated with a
+ * conditional request using the <code>ETag</code> and
+ * <code>Last-Modified</code> response headers; a resource without either
+ * header is not cached. Resources loaded from the class path are cached until
+ * evicted.
+ * <p>
+ * Files at least as large as the system property
+ * <code>unravl.resources.map.threshold</code> (default 1MB) are memory mapped
+ * rather than read into the heap. The cache discards the least recently used
+ * content when the heap content exceeds <code>unravl.resources.cache.size</code>
+ * bytes (default 64MB) or the number of entries exceeds
+ * <code>unravl.resources.cache.entries</code> (default 256).
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Resources {
+
+    private static final Logger logger = Logger.getLogger(Resources.class);
+
+    private static final int BUFSIZE = 8192;
+
+    private static final long mapThreshold = Long.getLong(
+            "unravl.resources.map.threshold", 1024 * 1024);
+    private static final long maximumHeap = Long.getLong(
+            "unravl.resources.cache.size", 64L * 1024 * 1024);
+    private static final int maximumEntries = Integer.getInteger(
+            "unravl.resources.cache.entries", 256);
+
+    private static final LinkedHashMap<String, Content> cache = new LinkedHashMap<String, Content>(
+            16, 0.75f, true);
+    private static long heap;
+
+    private Resources() {
+    }
+
+    /**
+     * Return the content of a file, URL, or class path resource.
+     *
+     * @param fileOrURL
+     *            a URL, or a file name or class path resource name
+     * @return the content
+     * @throws IOException
+     *             if the resource does not exist or cannot be read
+     */
+    public static Content get(String fileOrURL) throws IOException {
+        Content cached;
+        synchronized (cache) {
+            cached = cache.get(fileOrURL);
+        }
+        Content content;
+        try {
+            URL url = new URL(fileOrURL);
+            File f = file(url);
+            if (f != null)
+                content = fromFile(f, cached);
+            else
+                content = fromURL(url, cached);
+        } catch (MalformedURLException e) {
+            File f = new File(fileOrURL);
+            if (f.exists()) {
+                content = fromFile(f, cached);
+            } else if (cached != null && cached.file == null) {
+                content = cached; // a class path resource
+            } else {
+                InputStream is = Resources.class
+                        .getResourceAsStream(fileOrURL);
+                if (is == null) {
+                    remove(fileOrURL); // the file was deleted
+                    throw new IOException("No such file or URL " + fileOrURL);
+                }
+                content = new Content(read(is), null, null, null, true);
+            }
+        }
+        if (content != cached)
+            put(fileOrURL, content);
+        return content;
+    }
+
+    // The file for a file: URL, or null
+    private static File file(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Content fromFile(File f, Content cached) throws IOException {
+        long modified = f.lastModified();
+        long length = f.length();
+        if (cached != null && cached.file != null && cached.file.equals(f)
+                && cached.lastModified == modified
+                && cached.buffer.capacity() == length)
+            return cached;
+        ByteBuffer buffer;
+        if (length >= mapThreshold) {
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("File " + f + " is too large ("
+                        + length + " bytes)");
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        0, length);
+            } finally {
+                raf.close();
+            }
+        } else {
+            byte bytes[] = new byte[(int) length];
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        Content content = new Content(buffer, null, null, f, true);
+        content.lastModified = modified;
+        return content;
+    }
+
+    private static Content fromURL(URL url, Content cached) throws IOException {
+        URLConnection conn = url.openConnection();
+        if (cached != null && conn instanceof HttpURLConnection) {
+            if (cached.etag != null)
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModifiedHeader != null)
+                conn.setRequestProperty("If-Modified-Since",
+                        cached.lastModifiedHeader);
+            if (((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                logger.trace("Not modified: " + url);
+                return cached;
+            }
+        }
+        String etag = conn.getHeaderField("ETag");
+        String lastModified = conn.getHeaderField("Last-Modified");
+        return new Content(read(conn.getInputStream()), etag, lastModified,
+                null, etag != null || lastModified != null);
+    }
+
+    private static ByteBuffer read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte buffer[] = new byte[BUFSIZE];
+        try {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                out.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static void put(String key, Content content) {
+        if (!content.cacheable)
+            return; // cannot revalidate
+        synchronized (cache) {
+            Content old = cache.put(key, content);
+            if (old != null)
+                heap -= old.heapSize();
+            heap += content.heapSize();
+            evict();
+        }
+    }
+
+    private static void remove(String key) {
+        synchronized (cache) {
+            Content old = cache.remove(key);
+            if (old != null)
+                heap -= old.heapSize();
+        }
+    }
+
+    // called while synchronized on cache
+    private static void evict() {
+        Iterator<Content> it = cache.values().iterator();
+        while ((heap > maximumHeap || cache.size() > maximumEntries)
+                && it.hasNext()) {
+            Content eldest = it.next();
+            heap -= eldest.heapSize();
+            it.remove();
+        }
+    }
+
+    /** Remove all content from the cache. */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            heap = 0;
+        }
+    }
+
+    /** @return the number of resources in the cache */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * The immutable content of a file or URL. The bytes are available as a
+     * read-only {@link ByteBuffer} (which may be memory mapped) or as a
+     * stream; the UTF-8 text is decoded once, when first requested.
+     */
+    public static final class Content {
+        private final ByteBuffer buffer;
+        private final String etag;
+        private final String lastModifiedHeader;
+        private final File file;
+        private final boolean cacheable;
+        private long lastModified;
+        private String text;
+
+        private Content(ByteBuffer buffer, String etag,
+                String lastModifiedHeader, File file, boolean cacheable) {
+            this.buffer = buffer.asReadOnlyBuffer();
+            this.etag = etag;
+            this.lastModifiedHeader = lastModifiedHeader;
+            this.file = file;
+            this.cacheable = cacheable;
+        }
+
+        /** @return the number of bytes */
+        public int size() {
+            return buffer.capacity();
+        }
+
+        /** @return true if the content is a memory mapped file */
+        public boolean isMapped() {
+            return buffer.isDirect();
+        }
+
+        /**
+         * @return a new read-only buffer positioned at the start of the
+         *         content
+         */
+        public ByteBuffer buffer() {
+            ByteBuffer b = buffer.duplicate();
+            b.clear();
+            return b;
+        }
+
+        /** @return a copy of the content */
+        public byte[] bytes() {
+            byte b[] = new byte[size()];
+            buffer().get(b);
+            return b;
+        }
+
+        /**
+         * Write the content to a stream
+         *
+         * @param out
+         *            the output stream; this is not closed
+         * @throws IOException
+         *             if the content could not be written
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            ByteBuffer b = buffer();
+            byte chunk[] = new byte[Math.min(BUFSIZE, b.remaining())];
+            while (b.hasRemaining()) {
+                int n = Math.min(chunk.length, b.remaining());
+                b.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+
+        /**
+         * @return the content decoded as UTF-8 text. The text of heap content
+         *         is decoded once; memory mapped content is decoded each time
+         *         so that the text is not retained.
+         */
+        public synchronized String text() {
+            if (text != null)
+                return text;
+            String t = Text.UTF_8.decode(buffer()).toString();
+            if (!isMapped())
+                text = t;
+            return t;
+        }
+
+        private long heapSize() {
+            return isMapped() ? 0 : size();
+        }
+    }
+}
@@ -7,9 +7,7 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLRequestBodyGeneratorPlugin;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * Generates a text request body for this API call. The value associated with
@@ -30,17 +28,18 @@ import java.io.InputStream;
  *
  */
 @UnRAVLRequestBodyGeneratorPlugin("text")
-public class TextRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
+public class TextRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator
+        implements UnRAVLStreamingRequestBodyGenerator {
 
     @Override
-    public InputStream getBody(UnRAVL script, ObjectNode body, ApiCall call)
-            throws IOException, UnRAVLException {
+    public RequestBody getRequestBody(UnRAVL script, ObjectNode body,
+            ApiCall call) throws IOException, UnRAVLException {
         JsonNode value = body.get("text");
         Text request = new Text(script, value);
         String requestBody = request.text();
         requestBody = script.expand(requestBody);
         script.bind("requestBody", requestBody);
-        return new ByteArrayInputStream(Text.utf8(requestBody));
+        return RequestBody.of(Text.utf8(requestBody));
     }
 
 }
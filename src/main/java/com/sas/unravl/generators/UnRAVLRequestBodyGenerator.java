@@ -13,7 +13,9 @@ import java.io.InputStream;
  * body from a specification in an {@link UnRAVL} script. Body generators
  * typically bind a value named "requestBody" to the content that they generate
  * (usually a String value). Implementors should extend
- * {@link BaseUnRAVLRequestBodyGenerator}.
+ * {@link BaseUnRAVLRequestBodyGenerator}. Generators which can write the
+ * body to the request stream should implement
+ * {@link UnRAVLStreamingRequestBodyGenerator}.
  * 
  * @author David.Biesack@sas.com
  */
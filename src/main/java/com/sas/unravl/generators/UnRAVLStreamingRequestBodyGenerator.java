@@ -0,0 +1,48 @@
+package com.sas.unravl.generators;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+
+import java.io.IOException;
+
+/**
+ * A request body generator which writes the request body to the request
+ * stream, rather than returning an input stream which {@link ApiCall} copies
+ * into the request.
+ * <p>
+ * {@link ApiCall} calls
+ * {@link #getRequestBody(UnRAVL, ObjectNode, ApiCall)} instead of
+ * {@link #getBody(UnRAVL, ObjectNode, ApiCall)} before the API call, and
+ * writes the returned {@link RequestBody} when the request is sent. If the
+ * body knows its {@link RequestBody#getContentLength() length}, the request
+ * has a <code>Content-Length</code> header; otherwise it uses chunked transfer
+ * encoding. Implementations which extend
+ * {@link BaseUnRAVLRequestBodyGenerator} inherit a
+ * {@link #getBody(UnRAVL, ObjectNode, ApiCall)} which buffers the request
+ * body.
+ *
+ * @author David.Biesack@sas.com
+ */
+public interface UnRAVLStreamingRequestBodyGenerator extends
+        UnRAVLRequestBodyGenerator {
+
+    /**
+     * Generate the body.
+     *
+     * @param script
+     *            the currently running UnRAVL script
+     * @param scriptlet
+     *            the JSON specification for this instance
+     * @param call
+     *            The current API call
+     * @return the request body
+     * @throws IOException
+     *             if an I/O problem occurs
+     * @throws UnRAVLException
+     *             if the body cannot be generated
+     */
+    public RequestBody getRequestBody(UnRAVL script, ObjectNode scriptlet,
+            ApiCall call) throws IOException, UnRAVLException;
+}
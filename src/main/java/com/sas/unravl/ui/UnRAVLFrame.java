@@ -10,6 +10,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.google.common.io.Files;
 import com.sas.unravl.ApiCall;
+import com.sas.unravl.BindingListener;
+import com.sas.unravl.CallSummary;
 import com.sas.unravl.Main;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
@@ -143,6 +145,7 @@ public class UnRAVLFrame extends JFrame {
         runtime = new UnRAVLRuntime();
         changedVars = new LinkedHashMap<String, Object>();
         runtime.addPropertyChangeListener(new RuntimePropertyChangeListener());
+        runtime.addBindingChangeSetListener(new ChangedVarsListener());
         updateVarTab();
         updateCallsTab();
         outputTextArea.setText("");
@@ -166,7 +169,8 @@ public class UnRAVLFrame extends JFrame {
         }
     }
 
-    private ApiCall call;
+    private ApiCall call; // null if only the summary was kept
+    private CallSummary summary;
 
     void addHandlers() {
         textAreas = new JTextArea[] { jsonSourceTextArea, outputTextArea,
@@ -549,6 +553,22 @@ public class UnRAVLFrame extends JFrame {
 
     LinkedHashMap<String, Object> changedVars = new LinkedHashMap<String, Object>();
 
+    class ChangedVarsListener implements BindingListener.ChangeSet {
+
+        @Override
+        public void changed(UnRAVLRuntime source, ApiCall call,
+                Map<String, Object> changes) {
+            if (source == runtime) {
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null)
+                        changedVars.remove(change.getKey());
+                    else
+                        changedVars.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+    }
+
     class RuntimePropertyChangeListener implements PropertyChangeListener {
 
         @Override
@@ -556,20 +576,14 @@ public class UnRAVLFrame extends JFrame {
             Object source = evt.getSource();
             if (source == runtime) {
                 String name = evt.getPropertyName();
-                if (name.startsWith(UnRAVLRuntime.ENV_PROPERTY_CHANGE_PREFIX)) {
-                    changedVars.put(name
-                            .substring(UnRAVLRuntime.ENV_PROPERTY_CHANGE_PREFIX
-                                    .length()), evt.getNewValue());
-                } else {
-                    switch (name) {
-                    case ("calls"): // NOI18N
-                        if (callIndex > runtime.size()) {
-                            callIndex = 0;
-                        }
-                        updateCallsTab();
-                    default:
-                        ;
+                switch (name) {
+                case ("calls"): // NOI18N
+                    if (callIndex > runtime.size()) {
+                        callIndex = 0;
                     }
+                    updateCallsTab();
+                default:
+                    ;
                 }
             }
         }
@@ -577,17 +591,21 @@ public class UnRAVLFrame extends JFrame {
 
     private void updateCallsTab() {
         try {
-            if (runtime == null || runtime.size() == 0) {
+            List<CallSummary> history = runtime == null ? new ArrayList<CallSummary>()
+                    : runtime.getCallHistory().getSummaries();
+            if (history.isEmpty()) {
                 // no calls in the runtime: reset the view to empty
                 // create an empty ApiCall. Use a different UnRAVLRuntime so
                 // we don't skew this app's UnRAVLRuntime
                 callIndex = 0;
                 call = new ApiCall(new UnRAVL(new UnRAVLRuntime()));
+                summary = new CallSummary(call);
             } else {
-                callIndex = Math.min(callIndex, runtime.size() - 1);
-                call = runtime.getApiCalls().get(callIndex);
+                callIndex = Math.min(callIndex, history.size() - 1);
+                summary = history.get(callIndex);
+                call = summary.getApiCall();
             }
-            next.setEnabled(callIndex < runtime.size() - 1);
+            next.setEnabled(callIndex < history.size() - 1);
             previous.setEnabled(callIndex > 0);
             updateCall();
         } catch (UnRAVLException ex) {
@@ -605,37 +623,38 @@ public class UnRAVLFrame extends JFrame {
                 // local vars make debugging easier...
                 UnRAVLFrame f = UnRAVLFrame.this;
                 ApiCall call = f.call;
-                f.method.setText(call.getMethod() == null ? NONE : call
+                CallSummary record = f.summary;
+                f.method.setText(record.getMethod() == null ? NONE : record
                         .getMethod().name());
-                f.testName.setText((call.getScript() == null
-                        || call.getScript().getName() == null || call
-                        .getScript().getName().trim().length() == 0) ? NONE
-                        : call.getScript().getName());
-                f.url.setText(call.getURI() == null ? NONE : call.getURI());
-                f.responseCode.setText(statusLine(call.getHttpStatus()));
-                setHeaders(call.getScript().getRequestHeaders(),
+                f.testName.setText((record.getScriptName() == null || record
+                        .getScriptName().trim().length() == 0) ? NONE : record
+                        .getScriptName());
+                f.url.setText(record.getURI() == null ? NONE : record.getURI());
+                f.responseCode.setText(statusLine(record.getHttpStatus()));
+                setHeaders(call == null ? null : call.getRequestHeaders(),
                         f.requestHeaders);
-                setHeaders(
-                        call.getResponseHeaders() == null ? null : Arrays
-                                .asList(call.getResponseHeaders()),
-                        f.responseHeaders);
-                String body = call.getResponseBody() == null ? "" : call // NOI18N
+                setHeaders(call == null || call.getResponseHeaderMap() == null ? null
+                        : call.getResponseHeaderMap().list(), f.responseHeaders);
+                String body = call == null || call.getResponseBody() == null ? "" : call // NOI18N
                         .getResponseBody().toString();
-                if (call.getException() != null) {
-                    setStatusText(call.getException().getMessage());
+                if (record.getExceptionMessage() != null) {
+                    setStatusText(record.getExceptionMessage());
                 } else {
-                    int passed = call.getPassedAssertions().size();
-                    int failed = call.getFailedAssertions().size();
-                    int skipped = call.getSkippedAssertions().size();
+                    int passed = record.getPassedCount();
+                    int failed = record.getFailedCount();
+                    int skipped = record.getSkippedCount();
                     String summary = String.format(
                             resources.getString("SUMMARY.txt"), passed, failed,
                             skipped);
-                    if (call.wasCancelled()) {
+                    if (record.wasCancelled()) {
                         summary += resources.getString("CANCELLED.txt");
                     }
-                    if (call.wasSkipped()) {
+                    if (record.wasSkipped()) {
                         summary += resources.getString("SKIPPED.txt");
                     }
+                    if (call == null) {
+                        summary += resources.getString("SUMMARIZED.txt");
+                    }
                     setStatusText(summary);
                 }
                 if (f.prettyPrintResponseBody.isSelected()) {
@@ -0,0 +1,316 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.sas.unravl.ApiCall;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes response bodies and API call reports to standard output from a
+ * background thread, so that formatting (such as pretty printing JSON) and
+ * console output do not slow down the thread which runs the API calls.
+ * <p>
+ * Output is queued in a bounded queue; if the queue is full, the output is
+ * dropped and counted rather than blocking the caller. Only the first
+ * <code>unravl.log.body.max</code> bytes of each body are written. In quiet
+ * mode, bodies and per-call reports are not written at all; only the
+ * aggregate counts are reported by {@link #summary()}. Callers may also pass
+ * their own {@link Counts}, such as one per {@link com.sas.unravl.UnRAVLRuntime},
+ * to count only their own calls and output. The following system
+ * properties configure the reporter:
+ * <dl>
+ * <dt>unravl.log.quiet</dt>
+ * <dd>if true, use quiet mode (default false)</dd>
+ * <dt>unravl.log.queue.size</dt>
+ * <dd>the maximum number of queued bodies and reports (default 1000)</dd>
+ * <dt>unravl.log.body.max</dt>
+ * <dd>the maximum number of bytes of each body to write (default 65536)</dd>
+ * </dl>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class AsyncReporter {
+
+    private static final Logger logger = Logger.getLogger(AsyncReporter.class);
+
+    private static final long FLUSH_TIMEOUT = 30000; // milliseconds
+
+    private static final AsyncReporter instance = new AsyncReporter(
+            Boolean.getBoolean("unravl.log.quiet"), Integer.getInteger(
+                    "unravl.log.queue.size", 1000).intValue(),
+            Integer.getInteger("unravl.log.body.max", 64 * 1024).intValue(),
+            System.out);
+
+    private final boolean quiet;
+    private final int maxBodySize;
+    private final PrintStream out;
+    private final BlockingQueue<Runnable> queue;
+    private final Counts total = new Counts();
+    private volatile Thread writer;
+
+    /**
+     * Counts of reported API calls and assertions, and of dropped and
+     * truncated output.
+     */
+    public static final class Counts {
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong truncated = new AtomicLong();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong passed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        /** @return the number of bodies and reports dropped because the queue was full */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        /** @return the number of bodies which were truncated */
+        public long getTruncatedCount() {
+            return truncated.get();
+        }
+
+        /**
+         * @return a one line summary of the reported API calls and
+         *         assertions, and of dropped and truncated output
+         */
+        public String summary() {
+            return String.format(
+                    "%d API calls, %d errors; assertions: %d passed, %d failed, %d skipped;"
+                            + " output: %d dropped, %d bodies truncated",
+                    calls.get(), errors.get(), passed.get(), failed.get(),
+                    skipped.get(), dropped.get(), truncated.get());
+        }
+    }
+
+    /**
+     * Create a reporter. Most callers should use the shared
+     * {@link #getInstance() instance}.
+     *
+     * @param quiet
+     *            if true, only count the API calls
+     * @param queueSize
+     *            the maximum number of queued bodies and reports
+     * @param maxBodySize
+     *            the maximum number of bytes of each body to write
+     * @param out
+     *            where to write the output
+     */
+    public AsyncReporter(boolean quiet, int queueSize, int maxBodySize,
+            PrintStream out) {
+        this.quiet = quiet;
+        this.maxBodySize = Math.max(0, maxBodySize);
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize));
+    }
+
+    /** @return the shared reporter which writes to System.out */
+    public static AsyncReporter getInstance() {
+        return instance;
+    }
+
+    /** @return true if only aggregate counts are reported */
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    /**
+     * Queue a response (or request) body to be written.
+     *
+     * @param label
+     *            a label to write before the body
+     * @param body
+     *            the body. At most <code>unravl.log.body.max</code> bytes of
+     *            it are copied before this returns.
+     * @param json
+     *            if true, pretty print the body as JSON
+     */
+    public void body(String label, ByteBuffer body, boolean json) {
+        body(label, body, json, null);
+    }
+
+    /**
+     * Queue a response (or request) body to be written.
+     *
+     * @param label
+     *            a label to write before the body
+     * @param body
+     *            the body. At most <code>unravl.log.body.max</code> bytes of
+     *            it are copied before this returns.
+     * @param json
+     *            if true, pretty print the body as JSON
+     * @param counts
+     *            if not null, also count dropped or truncated output here
+     */
+    public void body(final String label, ByteBuffer body, final boolean json,
+            Counts counts) {
+        if (quiet)
+            return;
+        // copy only what is written, so the queue does not hold whole bodies
+        final byte bytes[] = new byte[Math.min(body.remaining(), maxBodySize)];
+        body.duplicate().get(bytes);
+        final int omitted = body.remaining() - bytes.length;
+        if (omitted > 0) {
+            total.truncated.incrementAndGet();
+            if (counts != null)
+                counts.truncated.incrementAndGet();
+        }
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                out.println(label);
+                writeBody(bytes, json);
+                if (omitted > 0)
+                    out.println("... (" + omitted + " more bytes not shown)");
+            }
+        }, counts);
+    }
+
+    private void writeBody(byte bytes[], boolean json) {
+        if (json) {
+            ByteArrayOutputStream pretty = new ByteArrayOutputStream(
+                    bytes.length + bytes.length / 2);
+            try {
+                Json.prettyPrint(new ByteArrayInputStream(bytes), pretty);
+                pretty.writeTo(out);
+                out.println();
+                return;
+            } catch (IOException e) {
+                // invalid or truncated JSON; write the bytes as is
+            }
+        }
+        out.write(bytes, 0, bytes.length);
+        out.println();
+    }
+
+    /**
+     * Count the results of an API call and queue its report (see
+     * {@link ApiCall#report(PrintStream)}) to be written. The report is
+     * rendered before this returns, so the queue does not hold the call.
+     *
+     * @param call
+     *            the API call
+     */
+    public void report(ApiCall call) {
+        report(call, null);
+    }
+
+    /**
+     * Count the results of an API call and queue its report (see
+     * {@link ApiCall#report(PrintStream)}) to be written. The report is
+     * rendered before this returns, so the queue does not hold the call.
+     *
+     * @param call
+     *            the API call
+     * @param counts
+     *            if not null, also count the call and its output here
+     */
+    public void report(ApiCall call, Counts counts) {
+        count(total, call);
+        if (counts != null)
+            count(counts, call);
+        if (quiet)
+            return;
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        call.report(new PrintStream(report));
+        final byte bytes[] = report.toByteArray();
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                out.write(bytes, 0, bytes.length);
+            }
+        }, counts);
+    }
+
+    private static void count(Counts counts, ApiCall call) {
+        counts.calls.incrementAndGet();
+        counts.passed.addAndGet(call.getPassedAssertions().size());
+        counts.failed.addAndGet(call.getFailedAssertions().size());
+        counts.skipped.addAndGet(call.getSkippedAssertions().size());
+        if (call.getException() != null)
+            counts.errors.incrementAndGet();
+    }
+
+    private void enqueue(Runnable output, Counts counts) {
+        startWriter();
+        if (!queue.offer(output)) {
+            total.dropped.incrementAndGet();
+            if (counts != null)
+                counts.dropped.incrementAndGet();
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null)
+            return;
+        writer = new Thread("UnRAVL output") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        queue.take().run();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Wait (for at most 30 seconds) until all the queued output has been
+     * written.
+     */
+    public void flush() {
+        if (writer == null)
+            return;
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable marker = new Runnable() {
+            @Override
+            public void run() {
+                out.flush();
+                done.countDown();
+            }
+        };
+        try {
+            if (queue.offer(marker, FLUSH_TIMEOUT, TimeUnit.MILLISECONDS))
+                done.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the number of bodies and reports dropped because the queue was full */
+    public long getDroppedCount() {
+        return total.getDroppedCount();
+    }
+
+    /** @return the number of bodies which were truncated */
+    public long getTruncatedCount() {
+        return total.getTruncatedCount();
+    }
+
+    /**
+     * @return a one line summary of all the reported API calls and
+     *         assertions, and of dropped and truncated output
+     */
+    public String summary() {
+        return total.summary();
+    }
+}
@@ -0,0 +1,221 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.sas.unravl.UnRAVLException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Computes one or more digests (and the length) of a byte stream, such as a
+ * response body, as the bytes are read. Digest names are case insensitive;
+ * <code>"sha256"</code>, <code>"sha-256"</code> and <code>"SHA-256"</code> all
+ * name the SHA-256 digest. Supported names are <code>"md5"</code>,
+ * <code>"sha1"</code>, <code>"sha256"</code>, <code>"sha384"</code>,
+ * <code>"sha512"</code>, <code>"crc32"</code>, and any other
+ * {@link MessageDigest} algorithm name.
+ * <p>
+ * Digest values are returned as lower case hexadecimal strings.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class Digests {
+
+    private static final String CRC32 = "CRC32";
+    private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+    private final Map<String, Object> digests = new LinkedHashMap<String, Object>();
+    private final Map<String, String> values = new LinkedHashMap<String, String>();
+    private long length;
+
+    /**
+     * Create a set of digests.
+     *
+     * @param names
+     *            the digest names
+     * @throws UnRAVLException
+     *             if a name is not a supported digest algorithm
+     */
+    public Digests(Collection<String> names) throws UnRAVLException {
+        for (String name : names) {
+            String algorithm = algorithm(name);
+            if (digests.containsKey(algorithm))
+                continue;
+            if (algorithm.equals(CRC32))
+                digests.put(algorithm, new CRC32());
+            else
+                try {
+                    digests.put(algorithm, MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new UnRAVLException(String.format(
+                            "Unsupported digest algorithm %s", name), e);
+                }
+        }
+    }
+
+    /**
+     * Return the canonical algorithm name for a digest name
+     *
+     * @param name
+     *            a digest name such as "sha256"
+     * @return the algorithm name, such as "SHA-256"
+     */
+    public static String algorithm(String name) {
+        String n = name.trim().toUpperCase(Locale.ENGLISH);
+        if (n.equals("CRC") || n.equals("CRC-32"))
+            return CRC32;
+        if (n.matches("SHA\\d+"))
+            return n.equals("SHA1") ? "SHA-1" : "SHA-" + n.substring(3);
+        return n;
+    }
+
+    /**
+     * Compute digests of a byte array
+     *
+     * @param bytes
+     *            the bytes
+     * @param names
+     *            the digest names
+     * @return the digests of the bytes
+     * @throws UnRAVLException
+     *             if a name is not a supported digest algorithm
+     */
+    public static Digests of(byte[] bytes, Collection<String> names)
+            throws UnRAVLException {
+        Digests d = new Digests(names);
+        d.update(bytes, 0, bytes.length);
+        return d;
+    }
+
+    /**
+     * @param names
+     *            digest names
+     * @return true if this computes all the named digests
+     */
+    public boolean includes(Collection<String> names) {
+        for (String name : names)
+            if (!digests.containsKey(algorithm(name)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Add bytes to each digest
+     *
+     * @param b
+     *            the bytes
+     * @param off
+     *            the offset of the first byte to add
+     * @param len
+     *            the number of bytes to add
+     */
+    public synchronized void update(byte[] b, int off, int len) {
+        if (!values.isEmpty())
+            throw new IllegalStateException("Digests are complete");
+        for (Object d : digests.values()) {
+            if (d instanceof MessageDigest)
+                ((MessageDigest) d).update(b, off, len);
+            else
+                ((CRC32) d).update(b, off, len);
+        }
+        length += len;
+    }
+
+    /**
+     * Return a stream which adds the bytes read from <var>in</var> to these
+     * digests
+     *
+     * @param in
+     *            an input stream
+     * @return a stream which reads from in
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    update(new byte[] { (byte) b }, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0)
+                    update(b, off, n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                byte buffer[] = new byte[(int) Math.min(n, 8192)];
+                long skipped = 0;
+                while (skipped < n) {
+                    int r = read(buffer, 0,
+                            (int) Math.min(buffer.length, n - skipped));
+                    if (r < 0)
+                        break;
+                    skipped += r;
+                }
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /** @return the number of bytes added */
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Return a digest value. No more bytes may be added after this.
+     *
+     * @param name
+     *            the digest name
+     * @return the digest as a lower case hex string
+     * @throws UnRAVLException
+     *             if this does not compute the named digest
+     */
+    public synchronized String hex(String name) throws UnRAVLException {
+        String algorithm = algorithm(name);
+        Object d = digests.get(algorithm);
+        if (d == null)
+            throw new UnRAVLException(String.format(
+                    "Digest %s was not computed", name));
+        if (values.isEmpty()) {
+            for (Map.Entry<String, Object> e : digests.entrySet()) {
+                Object digest = e.getValue();
+                String hex;
+                if (digest instanceof MessageDigest)
+                    hex = hex(((MessageDigest) digest).digest());
+                else
+                    hex = String.format("%08x", ((CRC32) digest).getValue());
+                values.put(e.getKey(), hex);
+            }
+        }
+        return values.get(algorithm);
+    }
+
+    private static String hex(byte[] bytes) {
+        char chars[] = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,163 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * An immutable, case-insensitive multimap of HTTP headers. The headers are
+ * kept in the order they were received, and are also indexed by lower case
+ * name so that looking up a header by name does not scan all the headers. A
+ * header name may have several values.
+ * <p>
+ * The Apache {@link Header} array view (see {@link #toArray()}) and the Spring
+ * {@link HttpHeaders} view (see {@link #toHttpHeaders()}) are created on first
+ * use and reused after that.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class Headers {
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    private final List<Header> headers;
+    private final Map<String, List<Header>> index;
+    private Header[] array;
+    private HttpHeaders httpHeaders;
+
+    /**
+     * Create the header map from the headers of a Spring HTTP response. The
+     * headers are copied; later changes to <var>headers</var> do not affect
+     * this object.
+     *
+     * @param headers
+     *            the response headers
+     */
+    public Headers(HttpHeaders headers) {
+        this.headers = new ArrayList<Header>(headers.size());
+        this.index = new HashMap<String, List<Header>>(headers.size() * 2);
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            for (String value : e.getValue())
+                add(new BasicHeader(e.getKey(), value));
+        }
+    }
+
+    /**
+     * Create the header map from an array of Apache headers.
+     *
+     * @param headers
+     *            the headers; may be null
+     */
+    public Headers(Header[] headers) {
+        int n = headers == null ? 0 : headers.length;
+        this.headers = new ArrayList<Header>(n);
+        this.index = new HashMap<String, List<Header>>(n * 2);
+        for (int i = 0; i < n; i++)
+            add(headers[i]);
+    }
+
+    private void add(Header header) {
+        headers.add(header);
+        String key = key(header.getName());
+        List<Header> values = index.get(key);
+        if (values == null) {
+            values = new ArrayList<Header>(1);
+            index.put(key, values);
+        }
+        values.add(header);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @param name
+     *            a header name, such as "Content-Type"; case is ignored
+     * @return the first header with that name, or null if there is none
+     */
+    public Header getFirst(String name) {
+        List<Header> values = index.get(key(name));
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * @param name
+     *            a header name; case is ignored
+     * @return the value of the first header with that name, or null if there
+     *         is none
+     */
+    public String getFirstValue(String name) {
+        Header h = getFirst(name);
+        return h == null ? null : h.getValue();
+    }
+
+    /**
+     * @param name
+     *            a header name; case is ignored
+     * @return all the headers with that name, in the order received. The list
+     *         is empty if there are no such headers.
+     */
+    public List<Header> get(String name) {
+        List<Header> values = index.get(key(name));
+        if (values == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @param name
+     *            a header name; case is ignored
+     * @return true if there is at least one header with that name
+     */
+    public boolean contains(String name) {
+        return index.containsKey(key(name));
+    }
+
+    /** @return the number of headers (counting each value) */
+    public int size() {
+        return headers.size();
+    }
+
+    /** @return all the headers, in the order received */
+    public List<Header> list() {
+        return Collections.unmodifiableList(headers);
+    }
+
+    /**
+     * @return the headers as an array of Apache headers. The array is shared;
+     *         callers should not modify it.
+     */
+    public synchronized Header[] toArray() {
+        if (array == null)
+            array = headers.isEmpty() ? NO_HEADERS : headers
+                    .toArray(new Header[headers.size()]);
+        return array;
+    }
+
+    /**
+     * @return the headers as read-only Spring HttpHeaders
+     */
+    public synchronized HttpHeaders toHttpHeaders() {
+        if (httpHeaders == null) {
+            HttpHeaders copy = new HttpHeaders();
+            for (Header h : headers)
+                copy.add(h.getName(), h.getValue());
+            httpHeaders = HttpHeaders.readOnlyHttpHeaders(copy);
+        }
+        return httpHeaders;
+    }
+
+    @Override
+    public String toString() {
+        return headers.toString();
+    }
+}
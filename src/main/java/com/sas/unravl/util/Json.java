@@ -1,8 +1,10 @@
 // Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
 package com.sas.unravl.util;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -27,6 +29,8 @@ import com.sas.unravl.generators.Text;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -319,6 +323,31 @@ public class Json {
         }
     }
 
+    /**
+     * Copy JSON from one stream to another, pretty printing it. The JSON is
+     * copied token by token rather than parsed into a tree, so the memory used
+     * does not depend on the size of the JSON.
+     *
+     * @param in
+     *            the JSON source (UTF-8, UTF-16 or UTF-32)
+     * @param out
+     *            where to write the pretty printed JSON, in UTF-8
+     * @throws IOException
+     *             if the input is not valid JSON or cannot be read, or the
+     *             output cannot be written
+     */
+    public static void prettyPrint(InputStream in, OutputStream out)
+            throws IOException {
+        JsonFactory jf = jsonFactory();
+        JsonParser p = jf.createParser(in);
+        JsonGenerator g = jf.createGenerator(out, JsonEncoding.UTF8);
+        g.useDefaultPrettyPrinter();
+        while (p.nextToken() != null)
+            g.copyCurrentEvent(p);
+        g.flush();
+        p.close();
+    }
+
     public static JsonFactory jsonFactory() {
         return new JsonFactory();
     }
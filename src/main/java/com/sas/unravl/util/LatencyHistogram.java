@@ -0,0 +1,94 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A fixed size histogram of latencies, in milliseconds. Latencies are counted
+ * in buckets with upper bounds of 1, 2, 5, 10, 20, 50, ... 60000 milliseconds,
+ * plus one bucket for longer latencies, so the memory used does not depend on
+ * the number of latencies recorded. Percentiles are estimated as the upper
+ * bound of the bucket which contains them (or the maximum latency, if that is
+ * smaller).
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author David.Biesack@sas.com
+ */
+public class LatencyHistogram {
+
+    private static final long BOUNDS[] = { 1, 2, 5, 10, 20, 50, 100, 200, 500,
+            1000, 2000, 5000, 10000, 20000, 60000 };
+
+    private final long counts[] = new long[BOUNDS.length + 1];
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Record a latency
+     *
+     * @param millis
+     *            the latency in milliseconds
+     */
+    public void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i])
+            i++;
+        counts[i]++;
+        count++;
+        total += millis;
+        min = Math.min(min, millis);
+        max = Math.max(max, millis);
+    }
+
+    /** @return the number of latencies recorded */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Estimate a percentile
+     *
+     * @param percent
+     *            the percentile, from 0 to 100
+     * @return the estimated latency at that percentile, or 0 if no latencies
+     *         were recorded
+     */
+    public long percentile(double percent) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(percent / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+        }
+        return max;
+    }
+
+    /**
+     * @return a JSON object with the count, min, max, mean, p50, p90 and p99
+     *         latencies, and a "histogram" object which maps each non-empty
+     *         bucket (such as "&lt;=50") to its count
+     */
+    public ObjectNode toJson() {
+        ObjectNode json = Json.jsonNodeFactory().objectNode();
+        json.put("count", count);
+        json.put("min", count == 0 ? 0 : min);
+        json.put("max", max);
+        json.put("mean", count == 0 ? 0.0 : (double) total / count);
+        json.put("p50", percentile(50));
+        json.put("p90", percentile(90));
+        json.put("p99", percentile(99));
+        ObjectNode histogram = json.putObject("histogram");
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0)
+                histogram.put(i < BOUNDS.length ? "<=" + BOUNDS[i] : ">"
+                        + BOUNDS[BOUNDS.length - 1], counts[i]);
+        }
+        return json;
+    }
+}
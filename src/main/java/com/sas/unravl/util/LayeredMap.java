@@ -0,0 +1,318 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map made of layers: a mutable overlay on top of a chain of immutable
+ * parent layers which may be shared with other maps. {@link #fork()} creates
+ * a copy of the map in constant time: the current contents become an
+ * immutable layer shared by the original and the copy, and each gets a new,
+ * empty overlay. Changes to either map are made only in its own overlay, so
+ * they are not visible in the other.
+ * <p>
+ * Lookups fall through the layers, from the overlay to the root. Removing a
+ * key which is in a parent layer records a <em>tombstone</em> in the overlay.
+ * When the chain of layers grows too deep (after repeated forks of a map
+ * which has also been changed), the layers are flattened into one.
+ * <p>
+ * A map may also have <em>fallback</em> maps, such as the Java system
+ * properties. These are read through when a key is not in any layer, so their
+ * current values are used and they are never copied. Putting a key in the map
+ * shadows the fallback value; removing it hides the fallback value. The
+ * fallback maps are shared by forks of the map.
+ * <p>
+ * Iteration order is that of a <code>LinkedHashMap</code> built by applying
+ * the layers from the root up. Null keys are not allowed; null values are.
+ * This class is not thread safe.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ * @author David.Biesack@sas.com
+ */
+public class LayeredMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int MAX_DEPTH = 8;
+
+    // marks a key which is removed in this layer but present in a parent
+    // layer or a fallback map
+    private static final Object TOMBSTONE = new Object();
+
+    // the result of a lookup of a key which is not in any layer
+    private static final Object ABSENT = new Object();
+
+    private LayeredMap<K, V> parent; // immutable; may be shared
+    private LinkedHashMap<K, Object> overlay;
+    private int size; // the number of entries in the layers
+    private int depth;
+    private List<? extends Map<?, ? extends V>> fallbacks;
+
+    /** Create an empty map */
+    public LayeredMap() {
+        this.overlay = new LinkedHashMap<K, Object>();
+        this.fallbacks = Collections.emptyList();
+    }
+
+    /**
+     * Create a map with a copy of the entries of another map
+     *
+     * @param map
+     *            the initial entries
+     */
+    public LayeredMap(Map<? extends K, ? extends V> map) {
+        this(map, Collections.<Map<?, ? extends V>> emptyList());
+    }
+
+    /**
+     * Create a map with a copy of the entries of another map, and fallback
+     * maps which are read when a key is not found in this map.
+     *
+     * @param map
+     *            the initial entries
+     * @param fallbacks
+     *            maps to read, in order, when a key is not found. These are
+     *            not copied, so later changes to them are visible. Their keys
+     *            should be instances of <code>K</code>.
+     */
+    public LayeredMap(Map<? extends K, ? extends V> map,
+            List<? extends Map<?, ? extends V>> fallbacks) {
+        this.overlay = new LinkedHashMap<K, Object>(map);
+        this.size = overlay.size();
+        this.fallbacks = fallbacks;
+    }
+
+    // an empty overlay over a parent layer
+    private LayeredMap(LayeredMap<K, V> parent,
+            List<? extends Map<?, ? extends V>> fallbacks) {
+        this.parent = parent;
+        this.overlay = new LinkedHashMap<K, Object>();
+        this.size = parent == null ? 0 : parent.size;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.fallbacks = fallbacks;
+    }
+
+    /**
+     * Create a copy of this map, in constant time. Subsequent changes to this
+     * map or to the copy do not affect the other.
+     *
+     * @return the copy
+     */
+    public LayeredMap<K, V> fork() {
+        if (!overlay.isEmpty()) {
+            // move this map's overlay into an immutable layer
+            LayeredMap<K, V> layer = new LayeredMap<K, V>(parent, fallbacks);
+            layer.overlay = overlay;
+            layer.size = size;
+            parent = layer;
+            overlay = new LinkedHashMap<K, Object>();
+            depth = layer.depth + 1;
+            if (depth > MAX_DEPTH)
+                flatten();
+        }
+        return new LayeredMap<K, V>(parent, fallbacks);
+    }
+
+    // Replace the parent layers with a single layer
+    private void flatten() {
+        LayeredMap<K, V> layer = new LayeredMap<K, V>(null, fallbacks);
+        layer.overlay = parent.layers();
+        layer.size = parent.size;
+        parent = layer;
+        depth = 1;
+    }
+
+    // the entries of the layers, in iteration order, with tombstones (which
+    // may hide fallback values)
+    private LinkedHashMap<K, Object> layers() {
+        List<LayeredMap<K, V>> layers = new ArrayList<LayeredMap<K, V>>(
+                depth + 1);
+        for (LayeredMap<K, V> m = this; m != null; m = m.parent)
+            layers.add(m);
+        LinkedHashMap<K, Object> merged = new LinkedHashMap<K, Object>();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            for (Map.Entry<K, Object> e : layers.get(i).overlay.entrySet()) {
+                merged.put(e.getKey(), e.getValue());
+            }
+        }
+        return merged;
+    }
+
+    // the entries of this map, in iteration order: the fallback entries
+    // first, then the entries of the layers
+    private LinkedHashMap<K, V> merged() {
+        LinkedHashMap<K, V> merged = new LinkedHashMap<K, V>();
+        for (int i = fallbacks.size() - 1; i >= 0; i--)
+            for (Map.Entry<?, ? extends V> e : fallbacks.get(i).entrySet())
+                merged.put(key(e.getKey()), e.getValue());
+        for (Map.Entry<K, Object> e : layers().entrySet()) {
+            if (e.getValue() == TOMBSTONE)
+                merged.remove(e.getKey());
+            else
+                merged.put(e.getKey(), cast(e.getValue()));
+        }
+        return merged;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(Object key) {
+        return (K) key;
+    }
+
+    private boolean inFallback(Object key) {
+        if (key == null)
+            return false;
+        for (Map<?, ? extends V> fallback : fallbacks)
+            if (fallback.containsKey(key))
+                return true;
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+
+    // the value in the top-most layer which has the key, TOMBSTONE if the key
+    // was removed, or ABSENT if no layer has the key
+    private Object inLayers(Object key) {
+        for (LayeredMap<K, V> m = this; m != null; m = m.parent) {
+            Object v = m.overlay.get(key);
+            if (v != null || m.overlay.containsKey(key))
+                return v;
+        }
+        return ABSENT;
+    }
+
+    // the value of the key, or TOMBSTONE if the map does not contain the key
+    private Object lookup(Object key) {
+        if (key == null)
+            return TOMBSTONE;
+        Object v = inLayers(key);
+        if (v != ABSENT)
+            return v;
+        for (Map<?, ? extends V> fallback : fallbacks) {
+            v = fallback.get(key);
+            if (v != null || fallback.containsKey(key))
+                return v;
+        }
+        return TOMBSTONE;
+    }
+
+    private static boolean live(Object value) {
+        return value != ABSENT && value != TOMBSTONE;
+    }
+
+    @Override
+    public V get(Object key) {
+        Object v = lookup(key);
+        return v == TOMBSTONE ? null : cast(v);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return lookup(key) != TOMBSTONE;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null)
+            throw new NullPointerException("null key");
+        Object old = lookup(key);
+        if (!live(inLayers(key)))
+            size++;
+        overlay.put(key, value);
+        return old == TOMBSTONE ? null : cast(old);
+    }
+
+    @Override
+    public V remove(Object key) {
+        Object old = lookup(key);
+        if (old == TOMBSTONE)
+            return null;
+        if (live(inLayers(key)))
+            size--;
+        if ((parent != null && live(parent.inLayers(key))) || inFallback(key))
+            overlay.put(key(key), TOMBSTONE);
+        else
+            overlay.remove(key);
+        return cast(old);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If this map has fallback maps, this reads all their keys.
+     */
+    @Override
+    public int size() {
+        int n = size;
+        if (!fallbacks.isEmpty()) {
+            HashSet<Object> seen = new HashSet<Object>();
+            for (Map<?, ? extends V> fallback : fallbacks)
+                for (Object key : fallback.keySet())
+                    if (seen.add(key) && inLayers(key) == ABSENT)
+                        n++;
+        }
+        return n;
+    }
+
+    /** Remove all the entries, and the fallback maps. */
+    @Override
+    public void clear() {
+        parent = null;
+        overlay = new LinkedHashMap<K, Object>();
+        size = 0;
+        depth = 0;
+        fallbacks = Collections.emptyList();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                // iterate over a snapshot, so remove() can change the layers
+                final Iterator<Map.Entry<K, V>> entries = merged().entrySet()
+                        .iterator();
+                return new Iterator<Map.Entry<K, V>>() {
+                    private Map.Entry<K, V> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        current = entries.next();
+                        return new SimpleImmutableEntry<K, V>(current);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null)
+                            throw new IllegalStateException();
+                        LayeredMap.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LayeredMap.this.size();
+            }
+        };
+    }
+}
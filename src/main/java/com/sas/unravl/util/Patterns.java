@@ -0,0 +1,192 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.sas.unravl.UnRAVLException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A shared, bounded cache of compiled regular expressions. Extractors and
+ * assertions which match values against (expanded) regular expressions use
+ * {@link #compile(String, String)} instead of {@link Pattern#compile(String)}
+ * or {@link String#matches(String)} so that the same regular expression is
+ * compiled only once, no matter how many scripts or calls use it.
+ * <p>
+ * The cache holds at most {@link #getMaximumSize()} patterns and discards the
+ * least recently used pattern when full. The size may be set with the system
+ * property <code>unravl.patterns.cache.size</code> (default 256). Invalid
+ * regular expressions are also remembered, so the syntax error is logged only
+ * once; later uses throw the same error without logging it again.
+ * <p>
+ * All methods are thread safe.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Patterns {
+
+    private static final Logger logger = Logger.getLogger(Patterns.class);
+
+    /** Default maximum number of cached patterns */
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private static final int maximumSize = Math.max(1, Integer.getInteger(
+            "unravl.patterns.cache.size", DEFAULT_MAXIMUM_SIZE));
+
+    // Values are either a Pattern or a PatternSyntaxException
+    private static final LinkedHashMap<String, Object> cache = new LinkedHashMap<String, Object>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if (size() > maximumSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+    private static long errors;
+
+    private Patterns() {
+    }
+
+    /**
+     * Return the compiled form of a regular expression, compiling it only if
+     * it is not already in the cache.
+     *
+     * @param regex
+     *            the regular expression, after environment expansion
+     * @param where
+     *            describes where the regular expression is used, such as
+     *            <code>"headers assertion"</code>; used in error messages
+     * @return the compiled pattern
+     * @throws UnRAVLException
+     *             if the regular expression is not valid. The message includes
+     *             the index of the error within the regular expression.
+     */
+    public static Pattern compile(String regex, String where)
+            throws UnRAVLException {
+        Object cached;
+        synchronized (cache) {
+            cached = cache.get(regex);
+            if (cached != null)
+                hits++;
+            else
+                misses++;
+        }
+        if (cached == null) {
+            try {
+                cached = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                cached = e;
+                synchronized (cache) {
+                    errors++;
+                }
+                logger.error(message(e, where));
+            }
+            synchronized (cache) {
+                cache.put(regex, cached);
+            }
+        }
+        if (cached instanceof PatternSyntaxException) {
+            PatternSyntaxException e = (PatternSyntaxException) cached;
+            throw new UnRAVLException(message(e, where), e);
+        }
+        return (Pattern) cached;
+    }
+
+    /**
+     * Test if the entire input matches a regular expression. This is the
+     * cached equivalent of <code>input.matches(regex)</code>.
+     *
+     * @param regex
+     *            the regular expression, after environment expansion
+     * @param input
+     *            the text to match
+     * @param where
+     *            describes where the regular expression is used
+     * @return true iff the entire input matches the regular expression
+     * @throws UnRAVLException
+     *             if the regular expression is not valid
+     */
+    public static boolean matches(String regex, CharSequence input,
+            String where) throws UnRAVLException {
+        return compile(regex, where).matcher(input).matches();
+    }
+
+    private static String message(PatternSyntaxException e, String where) {
+        return String.format(
+                "Invalid regular expression %s in %s at index %d: %s",
+                e.getPattern(), where, e.getIndex(), e.getDescription());
+    }
+
+    /** @return the maximum number of patterns held in the cache */
+    public static int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** @return the number of patterns currently in the cache */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** @return the number of lookups satisfied from the cache */
+    public static long getHitCount() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /** @return the number of lookups that required compiling the pattern */
+    public static long getMissCount() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    /** @return the number of patterns discarded because the cache was full */
+    public static long getEvictionCount() {
+        synchronized (cache) {
+            return evictions;
+        }
+    }
+
+    /** @return the number of invalid regular expressions encountered */
+    public static long getErrorCount() {
+        synchronized (cache) {
+            return errors;
+        }
+    }
+
+    /**
+     * @return a one line summary of the cache statistics, suitable for logging
+     */
+    public static String statistics() {
+        synchronized (cache) {
+            return String.format(
+                    "Patterns cache: size %d/%d, hits %d, misses %d, evictions %d, errors %d",
+                    cache.size(), maximumSize, hits, misses, evictions,
+                    errors);
+        }
+    }
+
+    /** Remove all patterns from the cache and reset the statistics. */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            hits = misses = evictions = errors = 0;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Utility methods for reading XML with a streaming (StAX) parser, so that
+ * large XML documents are processed without building a DOM.
+ * <p>
+ * The parser is namespace aware, coalesces adjacent text, and does not
+ * process DTDs or external entities.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Xml {
+
+    private static final XMLInputFactory factory = newFactory();
+
+    private Xml() {
+    }
+
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+        return f;
+    }
+
+    /**
+     * Create a streaming XML reader
+     *
+     * @param in
+     *            the XML bytes; the encoding is determined from the XML
+     *            declaration (default UTF-8)
+     * @return the reader
+     * @throws XMLStreamException
+     *             if the reader cannot be created
+     */
+    public static XMLStreamReader reader(InputStream in)
+            throws XMLStreamException {
+        synchronized (factory) {
+            return factory.createXMLStreamReader(in);
+        }
+    }
+
+    /**
+     * Create a streaming XML reader
+     *
+     * @param in
+     *            the XML text
+     * @return the reader
+     * @throws XMLStreamException
+     *             if the reader cannot be created
+     */
+    public static XMLStreamReader reader(Reader in) throws XMLStreamException {
+        synchronized (factory) {
+            return factory.createXMLStreamReader(in);
+        }
+    }
+
+    /**
+     * Tracks the path to the current element while reading an XML document,
+     * including each element's position among its siblings, so that locations
+     * can be reported as XPath expressions such as
+     * <code>/order/item[2]/price</code>.
+     */
+    public static class Path {
+        private final List<String> names = new ArrayList<String>();
+        private final List<Integer> positions = new ArrayList<Integer>();
+        private final List<Integer> indexes = new ArrayList<Integer>();
+        private final List<Map<String, Integer>> siblings = new ArrayList<Map<String, Integer>>();
+        private final List<Integer> elementCounts = new ArrayList<Integer>();
+
+        public Path() {
+            siblings.add(new HashMap<String, Integer>());
+            elementCounts.add(Integer.valueOf(0));
+        }
+
+        /**
+         * Enter an element
+         *
+         * @param localName
+         *            the element's local name
+         */
+        public void start(String localName) {
+            int depth = names.size();
+            Map<String, Integer> counts = siblings.get(depth);
+            Integer n = counts.get(localName);
+            int position = n == null ? 1 : n.intValue() + 1;
+            counts.put(localName, Integer.valueOf(position));
+            int index = elementCounts.get(depth).intValue() + 1;
+            elementCounts.set(depth, Integer.valueOf(index));
+            names.add(localName);
+            positions.add(Integer.valueOf(position));
+            indexes.add(Integer.valueOf(index));
+            siblings.add(new HashMap<String, Integer>());
+            elementCounts.add(Integer.valueOf(0));
+        }
+
+        /** Leave the current element */
+        public void end() {
+            int depth = names.size();
+            names.remove(depth - 1);
+            positions.remove(depth - 1);
+            indexes.remove(depth - 1);
+            siblings.remove(depth);
+            elementCounts.remove(depth);
+        }
+
+        /** @return the number of open elements */
+        public int depth() {
+            return names.size();
+        }
+
+        /**
+         * @param i
+         *            the depth, from 0 (the root element)
+         * @return the local name of the element at that depth
+         */
+        public String name(int i) {
+            return names.get(i);
+        }
+
+        /**
+         * @param i
+         *            the depth
+         * @return the (1-based) position of the element at that depth among
+         *         its siblings with the same name
+         */
+        public int position(int i) {
+            return positions.get(i).intValue();
+        }
+
+        /**
+         * @param i
+         *            the depth
+         * @return the (1-based) position of the element at that depth among
+         *         all its sibling elements
+         */
+        public int index(int i) {
+            return indexes.get(i).intValue();
+        }
+
+        @Override
+        public String toString() {
+            if (names.isEmpty())
+                return "/";
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < names.size(); i++) {
+                b.append('/').append(names.get(i));
+                if (positions.get(i).intValue() > 1)
+                    b.append('[').append(positions.get(i)).append(']');
+            }
+            return b.toString();
+        }
+    }
+}
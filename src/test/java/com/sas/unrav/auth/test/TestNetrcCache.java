@@ -0,0 +1,85 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unrav.auth.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.auth.HostCredentials;
+import com.sas.unravl.auth.NetrcCredentialsProvider;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the netrc index is read again when the file changes.
+ */
+public class TestNetrcCache {
+
+    String userHome;
+    File home;
+    File netrc;
+    NetrcCredentialsProvider provider = new NetrcCredentialsProvider();
+
+    @Before
+    public void before() throws IOException {
+        userHome = System.getProperty("user.home");
+        home = Files.createTempDirectory("unravl-netrc").toFile();
+        netrc = new File(home, ".netrc");
+        System.setProperty("user.home", home.getAbsolutePath());
+        provider.setRuntime(new UnRAVLRuntime());
+    }
+
+    @After
+    public void after() {
+        System.setProperty("user.home", userHome);
+        netrc.delete();
+        home.delete();
+    }
+
+    private void write(String content, long modified) throws IOException {
+        try (FileWriter writer = new FileWriter(netrc)) {
+            writer.write(content);
+        }
+        netrc.setLastModified(modified);
+    }
+
+    private String password(String host, String login) throws IOException {
+        HostCredentials cred = provider.getHostCredentials(host, login, null,
+                false);
+        return cred == null ? null : cred.getPassword();
+    }
+
+    @Test
+    public void lookup() throws IOException {
+        write("machine a.com login u1 password p1\n"
+                + "machine a.com login u2 password p2\n"
+                + "machine A.com port 8080 login u3 password p3\n", 100000L);
+        assertEquals("p1", password("a.com", null));
+        assertEquals("p2", password("a.com", "u2"));
+        assertEquals("p3", password("a.com:8080", null));
+        assertEquals("p3", password("A.COM:8080", "u3"));
+        assertNull(password("a.com", "u3"));
+        assertNull(password("b.com", null));
+    }
+
+    @Test
+    public void reload() throws IOException {
+        write("machine a.com login u1 password p1\n", 100000L);
+        assertEquals("p1", password("a.com", null));
+        // same size, new modification time
+        write("machine a.com login u1 password p2\n", 200000L);
+        assertEquals("p2", password("a.com", null));
+        // same modification time, new size
+        write("machine a.com login u1 password p33\n", 200000L);
+        assertEquals("p33", password("a.com", null));
+        netrc.delete();
+        assertNull(password("a.com", null));
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unrav.auth.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.auth.OAuth2TokenCache;
+import com.sas.unravl.auth.OAuth2TokenCache.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestOAuth2TokenCache {
+
+    /** Counts fetches; each fetch returns token-1, token-2, ... */
+    static class CountingFetcher implements OAuth2TokenCache.Fetcher {
+        final AtomicInteger fetches = new AtomicInteger();
+        final long expiresIn;
+        final long delay;
+
+        CountingFetcher(long expiresIn, long delay) {
+            this.expiresIn = expiresIn;
+            this.delay = delay;
+        }
+
+        @Override
+        public Callable<Token> prepare() {
+            return new Callable<Token>() {
+                @Override
+                public Token call() throws Exception {
+                    Thread.sleep(delay);
+                    return new Token("token-" + fetches.incrementAndGet(),
+                            expiresIn);
+                }
+            };
+        }
+    }
+
+    private static String url() {
+        return "http://auth.example.com/token/" + System.nanoTime();
+    }
+
+    @Test
+    public void cached() throws Exception {
+        String url = url();
+        CountingFetcher fetcher = new CountingFetcher(0, 0);
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        assertEquals("token-2",
+                OAuth2TokenCache.getAccessToken(url, "c", "other", fetcher));
+        assertEquals(2, fetcher.fetches.get());
+    }
+
+    @Test
+    public void keyIncludesSecrets() throws Exception {
+        String url = url();
+        CountingFetcher fetcher = new CountingFetcher(0, 0);
+        String key = OAuth2TokenCache.key(url, "c", "secret", "u", "pw");
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(key, "u", fetcher));
+        assertEquals("token-1", OAuth2TokenCache.getAccessToken(
+                OAuth2TokenCache.key(url, "c", "secret", "u", "pw"), "u",
+                fetcher));
+        assertEquals("token-2", OAuth2TokenCache.getAccessToken(
+                OAuth2TokenCache.key(url, "c", "secret", "u", "other"), "u",
+                fetcher));
+        assertEquals("token-3", OAuth2TokenCache.getAccessToken(
+                OAuth2TokenCache.key(url, "c", null, "u", "pw"), "u",
+                fetcher));
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        String url = url();
+        CountingFetcher fetcher = new CountingFetcher(0, 0);
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        OAuth2TokenCache.invalidate("token-1");
+        assertEquals("token-2",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        assertEquals("token-2",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        final String url = url();
+        final CountingFetcher fetcher = new CountingFetcher(0, 200);
+        final CountDownLatch done = new CountDownLatch(8);
+        final List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        String token = OAuth2TokenCache.getAccessToken(url,
+                                "c", "u", fetcher);
+                        synchronized (tokens) {
+                            tokens.add(token);
+                        }
+                    } catch (UnRAVLException e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(8, tokens.size());
+        for (String token : tokens)
+            assertEquals("token-1", token);
+        assertEquals(1, fetcher.fetches.get());
+    }
+
+    @Test
+    public void refreshBeforeExpiry() throws Exception {
+        String url = url();
+        // a 2 second lifetime is refreshed after 1 second
+        CountingFetcher fetcher = new CountingFetcher(2, 0);
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        Thread.sleep(1100);
+        // the current token is still returned while it is refreshed
+        assertEquals("token-1",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+        for (int i = 0; i < 50 && fetcher.fetches.get() < 2; i++)
+            Thread.sleep(20);
+        Thread.sleep(50);
+        assertEquals("token-2",
+                OAuth2TokenCache.getAccessToken(url, "c", "u", fetcher));
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void missingToken() throws Exception {
+        OAuth2TokenCache.getAccessToken(url(), "c", "u",
+                new OAuth2TokenCache.Fetcher() {
+                    @Override
+                    public Callable<Token> prepare() {
+                        return new Callable<Token>() {
+                            @Override
+                            public Token call() {
+                                return new Token(null, 0);
+                            }
+                        };
+                    }
+                });
+    }
+}
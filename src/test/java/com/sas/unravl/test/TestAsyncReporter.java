@@ -0,0 +1,121 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.AsyncReporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the bounded, asynchronous output of response bodies.
+ */
+public class TestAsyncReporter {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(Text.UTF_8));
+    }
+
+    @Test
+    public void truncateBody() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncReporter reporter = new AsyncReporter(false, 10, 5,
+                new PrintStream(out, true, "UTF-8"));
+        reporter.body("Body:", bytes("0123456789"), false);
+        reporter.flush();
+        String text = out.toString("UTF-8");
+        assertTrue(text.contains("01234\n"));
+        assertTrue(text.contains("(5 more bytes not shown)"));
+        assertEquals(1, reporter.getTruncatedCount());
+    }
+
+    @Test
+    public void copyBody() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncReporter reporter = new AsyncReporter(false, 10, 5,
+                new PrintStream(out, true, "UTF-8"));
+        byte body[] = "0123456789".getBytes(Text.UTF_8);
+        reporter.body("Body:", ByteBuffer.wrap(body), false);
+        body[0] = 'x';
+        reporter.flush();
+        assertTrue(out.toString("UTF-8").contains("01234\n"));
+    }
+
+    @Test
+    public void separateCounts() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncReporter reporter = new AsyncReporter(false, 10, 5,
+                new PrintStream(out, true, "UTF-8"));
+        AsyncReporter.Counts run1 = new AsyncReporter.Counts();
+        AsyncReporter.Counts run2 = new AsyncReporter.Counts();
+        reporter.body("Body:", bytes("0123456789"), false, run1);
+        reporter.body("Body:", bytes("0123456789"), false, run1);
+        reporter.body("Body:", bytes("0123"), false, run2);
+        reporter.flush();
+        assertEquals(2, run1.getTruncatedCount());
+        assertEquals(0, run2.getTruncatedCount());
+        assertEquals(2, reporter.getTruncatedCount());
+    }
+
+    @Test
+    public void prettyPrintJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncReporter reporter = new AsyncReporter(false, 10, 1000,
+                new PrintStream(out, true, "UTF-8"));
+        reporter.body("Body:", bytes("{\"a\":[1,2]}"), true);
+        reporter.body("Invalid:", bytes("{\"a\":"), true);
+        reporter.flush();
+        String text = out.toString("UTF-8");
+        assertTrue(text.contains("\"a\" : [ 1, 2 ]"));
+        assertTrue(text.contains("Invalid:\n{\"a\":\n"));
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        OutputStream blocked = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(false, 1, 1000,
+                new PrintStream(blocked));
+        reporter.body("1", bytes("one"), false);
+        // the writer thread is now blocked writing the first body
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        reporter.body("2", bytes("two"), false); // queued
+        reporter.body("3", bytes("three"), false); // dropped
+        reporter.body("4", bytes("four"), false); // dropped
+        assertEquals(2, reporter.getDroppedCount());
+        release.countDown();
+        reporter.flush();
+    }
+
+    @Test
+    public void quiet() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncReporter reporter = new AsyncReporter(true, 10, 1000,
+                new PrintStream(out, true, "UTF-8"));
+        assertTrue(reporter.isQuiet());
+        reporter.body("Body:", bytes("text"), false);
+        reporter.flush();
+        assertEquals(0, out.size());
+        assertTrue(reporter.summary().startsWith("0 API calls"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.BindingListener;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link BindingListener} notifications from {@link UnRAVLRuntime}.
+ */
+public class TestBindingListener extends TestBase {
+
+    static class Recorder implements BindingListener, BindingListener.ChangeSet {
+        final List<String> bound = new ArrayList<String>();
+        final List<Map<String, Object>> changeSets = new ArrayList<Map<String, Object>>();
+        final List<ApiCall> calls = new ArrayList<ApiCall>();
+
+        @Override
+        public void bound(UnRAVLRuntime runtime, String varName,
+                Object oldValue, Object newValue) {
+            bound.add(varName);
+        }
+
+        @Override
+        public void changed(UnRAVLRuntime runtime, ApiCall call,
+                Map<String, Object> changes) {
+            changeSets.add(new LinkedHashMap<String, Object>(changes));
+            calls.add(call);
+        }
+    }
+
+    @Test
+    public void identityChangeDetection() throws UnRAVLException {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        Recorder recorder = new Recorder();
+        runtime.addBindingListener(recorder);
+        JsonNode body = mockJson("{ 'a' : [1, 2, 3] }");
+        runtime.bind("body", body);
+        runtime.bind("body", body); // same object: no event
+        runtime.bind("body", mockJson("{ 'a' : [1, 2, 3] }")); // equal, not same
+        runtime.unbind("body");
+        runtime.unbind("body"); // not bound: no event
+        assertEquals(3, recorder.bound.size());
+        runtime.removeBindingListener(recorder);
+        runtime.bind("x", "y");
+        assertEquals(3, recorder.bound.size());
+    }
+
+    @Test
+    public void propertyChangeWithEqualValues() throws UnRAVLException {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        final List<PropertyChangeEvent> events = new ArrayList<PropertyChangeEvent>();
+        runtime.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                events.add(evt);
+            }
+        });
+        JsonNode first = mockJson("{ 'a' : 1 }");
+        JsonNode second = mockJson("{ 'a' : 1 }");
+        runtime.bind("body", first);
+        runtime.bind("body", second);
+        assertEquals(2, events.size());
+        assertEquals("env.body", events.get(1).getPropertyName());
+        assertSame(first, events.get(1).getOldValue());
+        assertSame(second, events.get(1).getNewValue());
+    }
+
+    @Test
+    public void changeSetPerCall() throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        Recorder recorder = new Recorder();
+        runtime.addBindingChangeSetListener(recorder);
+        runtime.bind("outside", "call");
+        runtime.execute(Json.object(mockJson("{ 'env' : { 'x' : 1, 'y' : 2 } }")));
+        assertEquals(2, recorder.changeSets.size());
+        assertNull(recorder.calls.get(0));
+        assertEquals("call", recorder.changeSets.get(0).get("outside"));
+        Map<String, Object> changes = recorder.changeSets.get(1);
+        assertSame(runtime.getApiCalls().get(0), recorder.calls.get(1));
+        assertTrue(changes.containsKey("x"));
+        assertTrue(changes.containsKey("y"));
+        assertTrue(changes.containsKey("unravlScript"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests "cas" auth against a local CAS server, including logging in again when
+ * the server rejects a cached TGT.
+ */
+public class TestCASAuth extends TestBase {
+
+    HttpServer server;
+    String base;
+    final AtomicInteger logins = new AtomicInteger();
+    final AtomicInteger tickets = new AtomicInteger();
+    volatile String cookie;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        base = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/tickets", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/tickets")) {
+                    exchange.getResponseHeaders().add("Location",
+                            base + "/tickets/TGT-" + logins.incrementAndGet());
+                    respond(exchange, 201, "");
+                } else if (path.endsWith("/TGT-expired")) {
+                    respond(exchange, 404, "TGT not found");
+                } else {
+                    respond(exchange, 200, "ST-" + tickets.incrementAndGet());
+                }
+            }
+        });
+        server.createContext("/api", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                cookie = exchange.getRequestHeaders().getFirst("Cookie");
+                exchange.getResponseHeaders().add("Set-Cookie",
+                        "session=" + tickets.get() + "; Path=/");
+                respond(exchange, 200, "{}");
+            }
+        });
+        server.createContext("/redirect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Set-Cookie",
+                        "redirected=true; Path=/");
+                exchange.getResponseHeaders().add("Location", base + "/api");
+                respond(exchange, 302, "");
+            }
+        });
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1)
+                ;
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1
+                : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (bytes.length > 0)
+                out.write(bytes);
+        }
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void call(UnRAVLRuntime runtime) throws Exception {
+        call(runtime, "/api");
+    }
+
+    private void call(UnRAVLRuntime runtime, String path) throws Exception {
+        runtime.execute(Json.object(mockJson("{ 'GET' : '" + base + path
+                + "', 'auth' : { 'cas' : '" + base
+                + "/tickets', 'login' : 'u', 'password' : 'p' } }")));
+    }
+
+    @Test
+    public void cachedTGT() throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        call(runtime);
+        call(runtime);
+        assertEquals(1, logins.get());
+        assertEquals("ST-2", runtime.binding("casAuth.ST"));
+        assertEquals(base + "/tickets/TGT-1", runtime.binding("casAuth.TGT"));
+        assertEquals(0, runtime.report());
+    }
+
+    @Test
+    public void noCookiesShared() throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        call(runtime);
+        call(new UnRAVLRuntime());
+        assertNull(cookie);
+        // cookies are kept while following the redirects of one call...
+        call(runtime, "/redirect");
+        assertEquals("redirected=true", cookie);
+        // ...but not after
+        call(runtime);
+        assertNull(cookie);
+    }
+
+    @Test
+    public void reloginWhenTGTRejected() throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.bind("u.localhost.TGT", base + "/tickets/TGT-expired");
+        call(runtime);
+        assertEquals(1, logins.get());
+        assertEquals("ST-1", runtime.binding("casAuth.ST"));
+        assertEquals(base + "/tickets/TGT-1",
+                runtime.binding("u.localhost.TGT"));
+        assertEquals(0, runtime.report());
+    }
+}
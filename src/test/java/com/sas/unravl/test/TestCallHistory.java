@@ -0,0 +1,76 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.sas.unravl.CallHistory;
+import com.sas.unravl.CallHistory.Retention;
+import com.sas.unravl.CallSummary;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the retention of API calls in a {@link CallHistory}.
+ */
+public class TestCallHistory extends TestBase {
+
+    private static void run(UnRAVLRuntime runtime, String name,
+            boolean passes) throws Exception {
+        runtime.execute(Json.object(mockJson("{ 'name' : '" + name
+                + "', 'assert' : [ '" + passes + "' ] }")));
+    }
+
+    private static UnRAVLRuntime runtime(Retention retention, int size)
+            throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.setCallHistory(new CallHistory(retention, size));
+        run(runtime, "a", true);
+        run(runtime, "b", true);
+        run(runtime, "c", true);
+        run(runtime, "d", false);
+        return runtime;
+    }
+
+    @Test
+    public void all() throws Exception {
+        UnRAVLRuntime runtime = runtime(Retention.ALL, 1);
+        assertEquals(4, runtime.size());
+        assertEquals(4, runtime.getApiCalls().size());
+        assertEquals(1, runtime.report());
+    }
+
+    @Test
+    public void last() throws Exception {
+        UnRAVLRuntime runtime = runtime(Retention.LAST, 2);
+        assertEquals(2, runtime.size());
+        assertEquals("c", runtime.getApiCalls().get(0).getScript().getName());
+        assertEquals(4, runtime.getCallHistory().getCallCount());
+        assertEquals(1, runtime.report());
+    }
+
+    @Test
+    public void failures() throws Exception {
+        UnRAVLRuntime runtime = runtime(Retention.FAILURES, 1);
+        List<CallSummary> history = runtime.getCallHistory().getSummaries();
+        assertEquals(2, history.size());
+        CallSummary passed = history.get(0);
+        assertEquals("c", passed.getScriptName());
+        assertNull(passed.getApiCall());
+        assertEquals(1, passed.getPassedCount());
+        CallSummary failed = history.get(1);
+        assertEquals("d", failed.getScriptName());
+        assertNotNull(failed.getApiCall());
+        assertEquals(1, failed.getFailedCount());
+        assertEquals(1, runtime.getApiCalls().size());
+        assertEquals(1, runtime.report());
+
+        runtime.reset();
+        assertEquals(0, runtime.size());
+        assertEquals(1, runtime.report());
+    }
+}
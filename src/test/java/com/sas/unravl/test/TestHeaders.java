@@ -0,0 +1,82 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Headers;
+import com.sas.unravl.util.Json;
+
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+public class TestHeaders extends TestBase {
+
+    @Test
+    public void fromSpring() {
+        HttpHeaders spring = new HttpHeaders();
+        spring.add("Content-Type", "application/json");
+        spring.add("Set-Cookie", "a=1");
+        spring.add("Set-Cookie", "b=2");
+        Headers headers = new Headers(spring);
+        assertEquals(3, headers.size());
+        assertEquals("application/json",
+                headers.getFirstValue("content-type"));
+        assertEquals(2, headers.get("SET-COOKIE").size());
+        assertEquals("b=2", headers.get("set-cookie").get(1).getValue());
+        assertTrue(headers.contains("CONTENT-TYPE"));
+        assertFalse(headers.contains("Location"));
+        assertNull(headers.getFirst("Location"));
+        assertEquals(0, headers.get("Location").size());
+        assertSame(headers.toHttpHeaders(), headers.toHttpHeaders());
+        assertEquals(spring, headers.toHttpHeaders());
+        spring.add("Location", "/a"); // the headers are a copy
+        assertFalse(headers.contains("Location"));
+        assertFalse(headers.toHttpHeaders().containsKey("Location"));
+        assertSame(headers.toArray(), headers.toArray());
+        assertEquals("Set-Cookie", headers.toArray()[2].getName());
+    }
+
+    @Test
+    public void fromApache() {
+        Headers headers = new Headers(new Header[] {
+                new BasicHeader("Location", "/a"),
+                new BasicHeader("location", "/b") });
+        assertEquals("/a", headers.getFirstValue("LOCATION"));
+        assertEquals(2, headers.toHttpHeaders().get("Location").size());
+        assertEquals(0, new Headers((Header[]) null).size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyHttpHeaders() {
+        new Headers(new HttpHeaders()).toHttpHeaders().add("Location", "/a");
+    }
+
+    @Test
+    public void requestHeadersPerCall() throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        UnRAVL script = new UnRAVL(runtime, Json.object(mockJson(
+                "{ 'headers' : { 'Accept' : 'text/plain',"
+                        + " 'Content-Type' : 'text/plain' },"
+                        + " 'body' : { 'form' : { 'a' : 1 } } }")));
+        ApiCall first = script.run();
+        ApiCall second = script.run();
+        assertEquals(2, script.getRequestHeaders().size());
+        for (ApiCall call : new ApiCall[] { first, second }) {
+            List<Header> headers = call.getRequestHeaders();
+            assertEquals(2, headers.size());
+            assertEquals("Accept", headers.get(0).getName());
+            assertEquals("application/x-www-form-urlencoded", headers.get(1)
+                    .getValue());
+        }
+    }
+}
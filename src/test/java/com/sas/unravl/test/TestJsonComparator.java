@@ -0,0 +1,119 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.assertions.JsonComparator;
+import com.sas.unravl.util.Json;
+
+import org.junit.Test;
+
+public class TestJsonComparator extends TestBase {
+
+    private static String compare(JsonComparator c, String expected,
+            String actual) throws UnRAVLException {
+        return c.compare(mockJson(expected), mockJson(actual));
+    }
+
+    @Test
+    public void equal() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(null, false, false);
+        assertNull(compare(c, "{'a':[1,2.5,'x',true,null],'b':{}}",
+                "{'b':{},'a':[1,2.5,'x',true,null]}"));
+    }
+
+    @Test
+    public void reportsPathOfFirstDifference() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(null, false, false);
+        assertEquals("at /a/1/b: found 3, expected 2",
+                compare(c, "{'a':[{},{'b':2}]}", "{'a':[{},{'b':3}]}"));
+        assertEquals("at /x~1y~0z: missing field \"x/y~z\"",
+                compare(c, "{'x/y~z':1}", "{}"));
+        assertEquals("at /c: unexpected field \"c\"",
+                compare(c, "{'a':1}", "{'a':1,'c':2}"));
+        assertEquals("at /2: unexpected element 3",
+                compare(c, "[1,2]", "[1,2,3]"));
+        assertEquals("at /: found [1], expected an object",
+                compare(c, "{}", "[1]"));
+        assertEquals("at /0: found 1.0, expected 1",
+                compare(c, "[1]", "[1.0]"));
+    }
+
+    @Test
+    public void expandsExpectedStringsOnly() throws UnRAVLException {
+        UnRAVL script = scriptFixture();
+        JsonComparator c = new JsonComparator(script, false, false);
+        assertNull(compare(c, "{'{where}':'{who}'}", "{'API':'hackers'}"));
+        assertEquals("at /a: found \"{who}\", expected \"hackers\"",
+                compare(c, "{'a':'{who}'}", "{'a':'{who}'}"));
+    }
+
+    @Test
+    public void subset() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(null, true, false);
+        assertNull(compare(c, "{'a':[1,3],'b':{'c':1}}",
+                "{'a':[0,1,2,3],'b':{'c':1,'d':2},'e':3}"));
+        assertEquals("at /a: no element matches expected element 1 1",
+                compare(c, "{'a':[3,1]}", "{'a':[1,2,3]}"));
+    }
+
+    @Test
+    public void ignoreOrder() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(null, false, true);
+        assertNull(compare(c, "[{'id':2},{'id':1},{'id':1}]",
+                "[{'id':1},{'id':1},{'id':2}]"));
+        assertNull(compare(c, "[{'a':[1,2],'b':1.50},3]",
+                "[3,{'b':1.5,'a':[2,1]}]"));
+        assertEquals("at /: 1 expected element not found: [2] {\"id\":2};"
+                + " 1 unexpected element: [2] {\"id\":1}",
+                compare(c, "[{'id':1},{'id':1},{'id':2}]",
+                        "[{'id':1},{'id':1},{'id':1}]"));
+        assertEquals("at /: array has 2 elements, expected 1;"
+                + " 1 unexpected element: [1] 1", compare(c, "[1]", "[1,1]"));
+    }
+
+    @Test
+    public void subsetIgnoringOrder() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(null, true, true);
+        // the first expected element matches both actual elements; it must
+        // not take the only one the second expected element matches
+        assertNull(compare(c, "[{'a':1},{'a':1,'b':2}]",
+                "[{'a':1,'b':2},{'a':1}]"));
+        assertNull(compare(c, "[{'a':1},{'b':2},{'a':1,'b':2}]",
+                "[{'a':1,'b':2},{'a':1,'b':2,'c':3},{'b':2,'a':1}]"));
+        assertEquals("at /: no element matches expected element 2 {\"a\":1}",
+                compare(c, "[{'a':1},{'a':1},{'a':1}]",
+                        "[{'a':1,'b':2},{'a':1},{'b':2}]"));
+    }
+
+    @Test
+    public void ignoreOrderLargeArrays() throws UnRAVLException {
+        ArrayNode expected = Json.jsonNodeFactory().arrayNode();
+        ArrayNode actual = Json.jsonNodeFactory().arrayNode();
+        int n = 50000;
+        for (int i = 0; i < n; i++) {
+            expected.addObject().put("id", i).put("name", "item " + i);
+            actual.addObject().put("name", "item " + (n - 1 - i))
+                    .put("id", n - 1 - i);
+        }
+        JsonComparator c = new JsonComparator(null, false, true);
+        assertNull(c.compare(expected, actual));
+        ((ObjectNode) actual.get(7)).put("id", -1);
+        assertEquals("at /: 1 expected element not found: [49992]"
+                + " {\"id\":49992,\"name\":\"item 49992\"};"
+                + " 1 unexpected element: [7]"
+                + " {\"name\":\"item 49992\",\"id\":-1}",
+                c.compare(expected, actual));
+    }
+
+    @Test
+    public void ignoreOrderExpandsExpected() throws UnRAVLException {
+        JsonComparator c = new JsonComparator(scriptFixture(), false, true);
+        assertNull(compare(c, "[{'{where}':'{who}'},'x']",
+                "['x',{'API':'hackers'}]"));
+    }
+}
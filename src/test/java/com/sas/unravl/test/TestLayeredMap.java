@@ -0,0 +1,169 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.LayeredMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the copy-on-write environment used to copy runtimes.
+ */
+public class TestLayeredMap {
+
+    private static LayeredMap<String, Object> map(Object... keyValues) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2)
+            m.put((String) keyValues[i], keyValues[i + 1]);
+        return new LayeredMap<String, Object>(m);
+    }
+
+    @Test
+    public void forkIsolatesChanges() {
+        LayeredMap<String, Object> parent = map("a", 1, "b", 2);
+        LayeredMap<String, Object> child = parent.fork();
+        child.put("a", 10);
+        child.put("c", 3);
+        parent.put("b", 20);
+        parent.put("d", 4);
+        assertEquals(10, child.get("a"));
+        assertEquals(2, child.get("b"));
+        assertFalse(child.containsKey("d"));
+        assertEquals(1, parent.get("a"));
+        assertEquals(20, parent.get("b"));
+        assertFalse(parent.containsKey("c"));
+        assertEquals(3, child.size());
+        assertEquals(3, parent.size());
+    }
+
+    @Test
+    public void removeHidesParentBinding() {
+        LayeredMap<String, Object> parent = map("a", 1, "b", null);
+        LayeredMap<String, Object> child = parent.fork();
+        assertTrue(child.containsKey("b"));
+        assertEquals(1, child.remove("a"));
+        assertNull(child.remove("a"));
+        assertFalse(child.containsKey("a"));
+        assertNull(child.get("a"));
+        assertEquals(1, child.size());
+        assertEquals(1, parent.get("a"));
+        child.put("a", 5);
+        assertEquals(5, child.get("a"));
+        assertEquals(2, child.size());
+    }
+
+    @Test
+    public void iterationOrder() {
+        LayeredMap<String, Object> m = map("a", 1, "b", 2, "c", 3);
+        LayeredMap<String, Object> child = m.fork();
+        child.remove("b");
+        child.put("a", 0);
+        child.put("d", 4);
+        assertEquals(Arrays.asList("a", "c", "d"), new ArrayList<String>(
+                child.keySet()));
+        assertEquals(Arrays.<Object> asList(0, 3, 4), new ArrayList<Object>(
+                child.values()));
+        for (Iterator<String> i = child.keySet().iterator(); i.hasNext();)
+            if (i.next().equals("c"))
+                i.remove();
+        assertEquals(Arrays.asList("a", "d"),
+                new ArrayList<String>(child.keySet()));
+        assertEquals(3, m.size());
+    }
+
+    @Test
+    public void repeatedForks() {
+        LayeredMap<String, Object> m = map("n", 0);
+        LayeredMap<String, Object> previous = m;
+        for (int i = 1; i <= 50; i++) {
+            previous = m.fork();
+            m.put("n", i);
+            m.put("v" + i, i);
+        }
+        assertEquals(50, m.get("n"));
+        assertEquals(51, m.size());
+        assertEquals(49, previous.get("n"));
+        assertEquals(50, previous.size());
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(m);
+        assertEquals(copy, m);
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertEquals(49, previous.get("v49"));
+    }
+
+    @Test
+    public void fallback() {
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        Map<String, String> second = new LinkedHashMap<String, String>();
+        first.put("a", "first");
+        second.put("a", "second");
+        second.put("b", "second");
+        List<Map<String, ?>> fallbacks = new ArrayList<Map<String, ?>>();
+        fallbacks.add(first);
+        fallbacks.add(second);
+        LayeredMap<String, Object> m = new LayeredMap<String, Object>(
+                new LinkedHashMap<String, Object>(), fallbacks);
+        assertEquals("first", m.get("a"));
+        assertEquals("second", m.get("b"));
+        assertEquals(2, m.size());
+        first.put("c", "later");
+        assertEquals("later", m.get("c"));
+        assertEquals(3, m.size());
+
+        LayeredMap<String, Object> child = m.fork();
+        assertEquals("first", child.put("a", "bound"));
+        assertEquals("second", child.remove("b"));
+        assertFalse(child.containsKey("b"));
+        assertEquals(2, child.size());
+        assertEquals(Arrays.asList("a", "c"),
+                new ArrayList<String>(child.keySet()));
+        assertEquals("first", m.get("a"));
+        assertEquals("second", m.get("b"));
+        assertNull(m.get(null));
+    }
+
+    @Test
+    public void systemPropertiesAreReadThrough() {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        String name = "unravl.test.layered." + System.nanoTime();
+        assertFalse(runtime.bound(name));
+        System.setProperty(name, "system");
+        try {
+            assertEquals("system", runtime.binding(name));
+            assertEquals(System.getProperty("user.dir"),
+                    runtime.binding("user.dir"));
+            runtime.bind(name, "bound");
+            assertEquals("bound", runtime.expand("{" + name + "}"));
+            runtime.unbind(name);
+            assertFalse(runtime.bound(name));
+            assertEquals("system", new UnRAVLRuntime().binding(name));
+        } finally {
+            System.clearProperty(name);
+        }
+    }
+
+    @Test
+    public void copiedRuntime() {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.bind("x", "one");
+        UnRAVLRuntime copy = new UnRAVLRuntime(runtime);
+        copy.bind("x", "two");
+        copy.bind("y", "new");
+        runtime.unbind("x");
+        assertEquals("two", copy.binding("x"));
+        assertEquals("{x} {y}", runtime.expand("{x} {y}"));
+        assertEquals("two new", copy.expand("{x} {y}"));
+        assertFalse(runtime.bound("x"));
+    }
+}
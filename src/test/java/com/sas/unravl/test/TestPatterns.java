@@ -0,0 +1,54 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.util.Patterns;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestPatterns {
+
+    @Test
+    public void cached() throws UnRAVLException {
+        Patterns.clear();
+        Pattern p = Patterns.compile("^2..$", "test");
+        assertSame(p, Patterns.compile("^2..$", "test"));
+        assertEquals(1, Patterns.getMissCount());
+        assertEquals(1, Patterns.getHitCount());
+        assertEquals(1, Patterns.size());
+        assertTrue(Patterns.matches("^2..$", "204", "test"));
+        assertFalse(Patterns.matches("^2..$", "404", "test"));
+    }
+
+    @Test
+    public void invalid() {
+        Patterns.clear();
+        for (int i = 0; i < 2; i++) {
+            try {
+                Patterns.compile("a(b", "test");
+                fail("expected UnRAVLException");
+            } catch (UnRAVLException e) {
+                assertTrue(e.getMessage().contains("in test at index"));
+            }
+        }
+        assertEquals(1, Patterns.getErrorCount());
+        assertEquals(1, Patterns.getMissCount());
+    }
+
+    @Test
+    public void bounded() throws UnRAVLException {
+        Patterns.clear();
+        int max = Patterns.getMaximumSize();
+        for (int i = 0; i <= max; i++)
+            Patterns.compile("x" + i, "test");
+        assertEquals(max, Patterns.size());
+        assertEquals(1, Patterns.getEvictionCount());
+    }
+}
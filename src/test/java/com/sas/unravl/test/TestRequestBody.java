@@ -0,0 +1,118 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.RequestBody;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that request bodies are written to the request stream, with or without
+ * a Content-Length header.
+ */
+public class TestRequestBody extends TestBase {
+
+    HttpServer server;
+    String uri;
+    String body;
+    String contentLength;
+    String transferEncoding;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        uri = "http://localhost:" + server.getAddress().getPort() + "/api";
+        server.createContext("/api", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentLength = exchange.getRequestHeaders().getFirst(
+                        "Content-Length");
+                transferEncoding = exchange.getRequestHeaders().getFirst(
+                        "Transfer-Encoding");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    for (int b = in.read(); b != -1; b = in.read())
+                        bytes.write(b);
+                }
+                body = bytes.toString("UTF-8");
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private UnRAVLRuntime post(String bodySpec) throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.execute(Json.object(mockJson("{ 'POST' : '" + uri
+                + "', 'body' : " + bodySpec + " }")));
+        return runtime;
+    }
+
+    @Test
+    public void jsonChunked() throws Exception {
+        post("{ 'json' : { 'a' : [ 1, 'x' ] }, 'contentLength' : false }");
+        assertEquals("{\"a\":[1,\"x\"]}", body);
+        assertNull(contentLength);
+        assertEquals("chunked", transferEncoding);
+    }
+
+    @Test
+    public void jsonContentLength() throws Exception {
+        post("{ 'json' : { 'a' : [ 1, 'x' ] } }");
+        assertEquals("{\"a\":[1,\"x\"]}", body);
+        assertEquals("13", contentLength);
+    }
+
+    @Test
+    public void text() throws Exception {
+        post("{ 'text' : 'h\u00e9llo' }");
+        assertEquals("h\u00e9llo", body);
+        assertEquals("6", contentLength);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void keepContentAfterGetRequestBody() throws Exception {
+        ApiCall call = post("{ 'text' : 'hello' }").getApiCalls().get(0);
+        RequestBody content = call.getRequestContent();
+        assertTrue(content.isReplayable());
+        assertEquals("hello", call.getRequestBody().toString("UTF-8"));
+        assertSame(content, call.getRequestContent());
+        assertFalse(RequestBody.of(new ByteArrayInputStream(new byte[0]))
+                .isReplayable());
+    }
+
+    @Test
+    public void repeatable() throws Exception {
+        RequestBody json = RequestBody.json(Json.parse("[true,null]"), true);
+        assertEquals(11, json.getContentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        json.writeTo(out);
+        json.writeTo(out);
+        assertEquals("[true,null][true,null]", out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.generators.Resources;
+import com.sas.unravl.generators.Text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestResources {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachesFileUntilChanged() throws IOException {
+        File f = folder.newFile("text.txt");
+        write(f, new byte[] { 'a', 'b', 'c' });
+        Resources.Content c1 = Resources.get(f.getPath());
+        assertEquals("abc", c1.text());
+        assertSame(c1, Resources.get(f.getPath()));
+        write(f, new byte[] { 'a', 'b', 'c', 'd' });
+        Resources.Content c2 = Resources.get(f.getPath());
+        assertNotSame(c1, c2);
+        assertEquals("abcd", c2.text());
+        assertEquals("abcd", Resources.get(f.toURI().toString()).text());
+    }
+
+    @Test(expected = IOException.class)
+    public void deletedFileIsNotCached() throws IOException {
+        File f = folder.newFile("deleted.txt");
+        write(f, new byte[] { 'a', 'b', 'c' });
+        assertEquals("abc", Resources.get(f.getPath()).text());
+        assertTrue(f.delete());
+        Resources.get(f.getPath());
+    }
+
+    @Test
+    public void mapsLargeFiles() throws IOException {
+        File f = folder.newFile("large.dat");
+        byte bytes[] = new byte[2 * 1024 * 1024];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        write(f, bytes);
+        Resources.Content c = Resources.get(f.getPath());
+        assertTrue(c.isMapped());
+        assertEquals(bytes.length, c.size());
+        assertArrayEquals(bytes, c.bytes());
+    }
+
+    @Test
+    public void smallFilesAreNotMapped() throws IOException {
+        File f = folder.newFile("small.txt");
+        write(f, Text.utf8("\u03C0"));
+        Resources.Content c = Resources.get(f.getPath());
+        assertFalse(c.isMapped());
+        assertEquals("\u03C0", c.text());
+    }
+
+    private static void write(File f, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(bytes);
+        out.close();
+    }
+}
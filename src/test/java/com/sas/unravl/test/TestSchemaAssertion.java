@@ -0,0 +1,61 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.assertions.SchemaAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
+import com.sas.unravl.assertions.UnRAVLAssertionException;
+import com.sas.unravl.util.Json;
+
+import org.junit.Test;
+
+public class TestSchemaAssertion extends TestBase {
+
+    // Bind v0 ... v39 to one element arrays, and create a schema assertion
+    // which validates them all
+    private static ObjectNode manyValues(UnRAVL script) throws Exception {
+        ObjectNode assertion = (ObjectNode) mockJson("{ 'schema' : { 'maxItems' : 2 }, 'values' : [] }");
+        ArrayNode values = (ArrayNode) assertion.get("values");
+        for (int i = 0; i < 40; i++) {
+            ArrayNode a = Json.jsonNodeFactory().arrayNode();
+            a.add(i);
+            script.bind("v" + i, a);
+            values.add("v" + i);
+        }
+        return assertion;
+    }
+
+    @Test
+    public void parallelValidationReportsFirstFailure() throws Exception {
+        UnRAVL script = new UnRAVL(new UnRAVLRuntime());
+        ObjectNode assertion = manyValues(script);
+        // v25 fails with three elements; v31 also fails, with four
+        script.bind("v25", mockJson("[1, 2, 3]"));
+        script.bind("v31", mockJson("[1, 2, 3, 4]"));
+        ApiCall call = new ApiCall(script);
+        for (int run = 0; run < 5; run++) {
+            try {
+                new SchemaAssertion().check(script, assertion, Stage.ASSERT,
+                        call);
+                fail("expected UnRAVLAssertionException");
+            } catch (UnRAVLAssertionException e) {
+                assertTrue(e.getMessage(),
+                        e.getMessage().contains("instance has 3 elements"));
+            }
+        }
+    }
+
+    @Test
+    public void parallelValidationPasses() throws Exception {
+        UnRAVL script = new UnRAVL(new UnRAVLRuntime());
+        ObjectNode assertion = manyValues(script);
+        new SchemaAssertion().check(script, assertion, Stage.ASSERT,
+                new ApiCall(script));
+    }
+}
@@ -0,0 +1,63 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.assertions.SchemaCache;
+import com.sas.unravl.generators.Text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSchemaCache extends TestBase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reusesCompiledSchema() throws Exception {
+        SchemaCache.clear();
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        for (int i = 0; i < 3; i++)
+            rt.execute(mockJson("{ 'env' : { 'a' : [1, 2] },"
+                    + " 'assert' : { 'schema' : { 'maxItems' : 2 }, 'value' : 'a' } }"));
+        assertEquals(0, rt.getFailedAssertionCount());
+        assertEquals(1, SchemaCache.size());
+    }
+
+    @Test
+    public void reloadsChangedReference() throws Exception {
+        SchemaCache.clear();
+        File ref = folder.newFile("ref.json");
+        write(ref, "{ \"maxItems\" : 2 }");
+        File schema = folder.newFile("schema.json");
+        write(schema, "{ \"$ref\" : \"" + ref.toURI() + "\" }");
+
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.bind("schemaFile", schema.getPath());
+        String script = "{ 'env' : { 'a' : [1, 2, 3] },"
+                + " 'assert' : { 'schema' : '@{schemaFile}', 'value' : 'a' } }";
+        rt.execute(mockJson(script));
+        assertEquals(1, rt.getFailedAssertionCount());
+
+        // change only the referenced schema; the array is now valid. Use a
+        // new runtime, since a runtime skips calls after a failure
+        write(ref, "{ \"maxItems\" : 30 }");
+        UnRAVLRuntime rt2 = new UnRAVLRuntime();
+        rt2.bind("schemaFile", schema.getPath());
+        rt2.execute(mockJson(script));
+        assertEquals(1, rt2.getCallHistory().getCallCount());
+        assertEquals(0, rt2.getFailedAssertionCount());
+    }
+
+    private static void write(File f, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(Text.utf8(text));
+        out.close();
+    }
+}
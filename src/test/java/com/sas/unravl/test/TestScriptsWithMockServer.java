@@ -1,15 +1,25 @@
 // Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
 package com.sas.unravl.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withBadRequest;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.UnRAVLPlugins;
 import com.sas.unravl.UnRAVLRuntime;
 import com.sas.unravl.assertions.JUnitWrapper;
+import com.sas.unravl.generators.Resources;
+import com.sas.unravl.util.Json;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -65,6 +75,14 @@ public class TestScriptsWithMockServer extends TestBase {
         mockServer.verify();
     }
 
+    @Test
+    public void helloJsonSubset() throws UnRAVLException {
+        createHelloJsonMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "helloJsonSubset.json");
+        mockServer.verify();
+    }
+
     @Test
     public void helloJsonFail() throws UnRAVLException {
         createHelloJsonMock();
@@ -83,6 +101,30 @@ public class TestScriptsWithMockServer extends TestBase {
                                         .toString(), MediaType.APPLICATION_JSON));
     }
 
+    @Test
+    public void extractJsonToFile() throws Exception {
+        File raw = File.createTempFile("unravl-raw", ".json");
+        File pretty = File.createTempFile("unravl-pretty", ".json");
+        raw.deleteOnExit();
+        pretty.deleteOnExit();
+        createHelloJsonMock();
+        ObjectNode script = Json.object(mockJson("{ 'GET' : '/hello.json' }"));
+        script.putArray("bind")
+                .add(Json.object(mockJson("{ 'json' : '@" + raw.getPath()
+                        + "' }")))
+                .add(Json.object(mockJson("{ 'text' : '@" + pretty.getPath()
+                        + "', 'pretty' : true }")));
+        runtime.execute(script);
+        mockServer.verify();
+        String expected = mockJson(
+                "{ 'greeting' : 'Hello', 'addressee' : 'World' }").toString();
+        // written unchanged from the response body
+        assertEquals(expected, Resources.get(raw.getPath()).text());
+        String printed = Resources.get(pretty.getPath()).text();
+        assertTrue(printed.contains("\n"));
+        assertEquals(expected, Json.parse(printed).toString());
+    }
+
     @Test
     public void helloText() throws UnRAVLException {
         createHelloTextMock();
@@ -119,6 +161,149 @@ public class TestScriptsWithMockServer extends TestBase {
                 SRC_TEST_SCRIPTS_MOCK_FAIL, "binary.json");
     }
 
+    @Test
+    public void digest() throws UnRAVLException {
+        createBinaryMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "digest.json");
+        mockServer.verify();
+    }
+
+    @Test
+    public void digestWithoutBody() throws UnRAVLException {
+        createBinaryMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "digestNoBody.json");
+        mockServer.verify();
+        List<ApiCall> calls = runtime.getApiCalls();
+        assertEquals(0, calls.get(calls.size() - 1).getResponseBody().size());
+    }
+
+    @Test
+    public void digestFail() throws UnRAVLException {
+        createBinaryMock();
+        JUnitWrapper.tryScriptsInDirectory(runtime, null,
+                SRC_TEST_SCRIPTS_MOCK_FAIL, "digest.json");
+    }
+
+    @Test
+    public void largeBinaryFile() throws Exception {
+        assertEquals(0, largeBinaryFile(-1));
+    }
+
+    @Test
+    public void largeBinaryFileFail() throws Exception {
+        assertEquals(1, largeBinaryFile(1500000));
+    }
+
+    // Compare a 2MB response to a (memory mapped) file, after changing
+    // the byte at offset change of the response, if not negative.
+    // Return the number of failed assertions
+    private int largeBinaryFile(int change) throws Exception {
+        byte bytes[] = new byte[2 * 1024 * 1024];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (i * 31);
+        File file = File.createTempFile("unravl-binary", ".dat");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        if (change >= 0)
+            bytes[change]++;
+        mockServer.expect(requestTo("/large.dat")).andRespond(
+                withSuccess(bytes, MediaType.APPLICATION_OCTET_STREAM));
+        ObjectNode script = Json.object(mockJson("{ 'GET' : '/large.dat' }"));
+        ObjectNode assertion = script.putObject("assert");
+        assertion.put("binary", "@" + file.getPath());
+        runtime.execute(script);
+        mockServer.verify();
+        return runtime.getFailedAssertionCount();
+    }
+
+    @Test
+    public void ndjson() throws UnRAVLException {
+        createNdjsonMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "ndjson.json");
+        mockServer.verify();
+        assertEquals(0, runtime.getApiCalls().get(0).getResponseBody().size());
+    }
+
+    @Test
+    public void ndjsonFail() throws UnRAVLException {
+        createNdjsonMock();
+        JUnitWrapper.tryScriptsInDirectory(runtime, null,
+                SRC_TEST_SCRIPTS_MOCK_FAIL, "ndjson.json");
+        // reading stops at the first failing record
+        assertEquals(Long.valueOf(51), runtime.binding("count"));
+    }
+
+    private void createNdjsonMock() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            body.append("{\"id\":").append(i)
+                    .append(",\"type\":\"item\"}\n");
+        mockServer.expect(requestTo("/records.ndjson")).andRespond(
+                withSuccess(body.toString(),
+                        MediaType.parseMediaType("application/x-ndjson")));
+    }
+
+    @Test
+    public void csv() throws UnRAVLException {
+        createCsvMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "csv.json");
+        mockServer.verify();
+        assertEquals(0, runtime.getApiCalls().get(0).getResponseBody().size());
+    }
+
+    @Test
+    public void csvFail() throws UnRAVLException {
+        createCsvMock();
+        JUnitWrapper.tryScriptsInDirectory(runtime, null,
+                SRC_TEST_SCRIPTS_MOCK_FAIL, "csv.json");
+        // reading stops at the first failing row
+        assertEquals(Long.valueOf(51), runtime.binding("count"));
+    }
+
+    private void createCsvMock() {
+        StringBuilder body = new StringBuilder("id,name,amount\r\n");
+        for (int i = 0; i < 100; i++) {
+            String name = i == 1 ? "\"Smith, \"\"Jo\"\"\""
+                    : i == 2 ? "\"line 1\nline 2\"" : "item " + i;
+            body.append(i).append(',').append(name).append(',')
+                    .append(i / 2.0).append("\r\n");
+        }
+        mockServer.expect(requestTo("/report.csv")).andRespond(
+                withSuccess(body.toString(),
+                        MediaType.parseMediaType("text/csv")));
+    }
+
+    @Test
+    public void xml() throws UnRAVLException {
+        createXmlMock();
+        JUnitWrapper.runScriptsInDirectory(runtime, SRC_TEST_SCRIPTS_MOCK,
+                "xml.json");
+        mockServer.verify();
+    }
+
+    @Test
+    public void xmlFail() throws UnRAVLException {
+        createXmlMock();
+        JUnitWrapper.tryScriptsInDirectory(runtime, null,
+                SRC_TEST_SCRIPTS_MOCK_FAIL, "xml.json");
+    }
+
+    private void createXmlMock() {
+        mockServer.expect(requestTo("/order.xml")).andRespond(
+                withSuccess("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<order xmlns:x=\"urn:x\" id=\"1234\">\n"
+                        + "  <item sku=\"a1\"><price>10.00</price></item>\n"
+                        + "  <item sku=\"b2\"><price>2.50</price></item>\n"
+                        + "  <note>rush <x:b>now</x:b></note>\n"
+                        + "</order>\n", MediaType.APPLICATION_XML));
+    }
+
     private void createBinaryMock() {
         mockServer.expect(requestTo("/binary.dat")).andRespond(
                 withSuccess(new String(new byte[] { 0, 1, 2, 3, 4, 5, 6 }),
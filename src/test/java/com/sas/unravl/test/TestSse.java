@@ -0,0 +1,175 @@
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the "sse" extractor against a local HTTP server which streams
+ * server-sent events.
+ */
+public class TestSse extends TestBase {
+
+    private static HttpServer server;
+    private static String base;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // An endless stream of events { "n" : 0 }, { "n" : 1 }, ...
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                OutputStream out = start(exchange);
+                try {
+                    for (int n = 0; n < 500; n++) {
+                        send(out, "data: {\"n\":" + n + "}\n\n");
+                        Thread.sleep(20);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // client closed the connection
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/finite", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                OutputStream out = start(exchange);
+                send(out, ": a comment\nretry: 100\n\n");
+                send(out, "event: greeting\nid: 1\ndata: hello\ndata: world\n\n");
+                send(out, "data:not json\r\n\r\n");
+                out.close();
+                exchange.close();
+            }
+        });
+        // don't queue requests behind a stream which is still being written
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static OutputStream start(HttpExchange exchange)
+            throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    private static void send(OutputStream out, String text)
+            throws IOException {
+        out.write(text.getBytes(Text.UTF_8));
+        out.flush();
+    }
+
+    // Run a GET of path with the sse extractor spec and return the runtime
+    private static UnRAVLRuntime run(String path, String sse)
+            throws Exception {
+        ObjectNode script = Json.object(mockJson("{ 'GET' : '" + base + path
+                + "', 'bind' : { 'sse' : " + sse + ", 'keepBody' : false } }"));
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.execute(script);
+        return runtime;
+    }
+
+    @Test
+    public void maxEvents() throws Exception {
+        long start = System.currentTimeMillis();
+        UnRAVLRuntime runtime = run("/events",
+                "{ 'maxEvents' : 5, 'count' : 'count', 'last' : 'last', 'metrics' : 'metrics',"
+                        + " 'assert' : 'event.json.n.intValue() >= 0' }");
+        assertEquals(0, runtime.getFailedAssertionCount());
+        assertEquals(Long.valueOf(5), runtime.binding("count"));
+        assertEquals(4, ((JsonNode) runtime.binding("last")).get("json")
+                .get("n").intValue());
+        JsonNode metrics = (JsonNode) runtime.binding("metrics");
+        assertEquals("maxEvents", metrics.get("stoppedBy").textValue());
+        assertEquals(4, metrics.get("latency").get("count").intValue());
+        assertTrue(metrics.get("timeToFirstEvent").longValue() >= 0);
+        // did not wait for the rest of the (10 second) stream
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void until() throws Exception {
+        UnRAVLRuntime runtime = run("/events",
+                "{ 'until' : 'event.json.n.intValue() == 3', 'count' : 'count', 'metrics' : 'metrics' }");
+        assertEquals(Long.valueOf(4), runtime.binding("count"));
+        assertEquals("until", ((JsonNode) runtime.binding("metrics")).get(
+                "stoppedBy").textValue());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        long start = System.currentTimeMillis();
+        UnRAVLRuntime runtime = run("/events",
+                "{ 'timeout' : 1000, 'count' : 'count', 'metrics' : 'metrics' }");
+        assertEquals(0, runtime.getFailedAssertionCount());
+        assertEquals("timeout", ((JsonNode) runtime.binding("metrics")).get(
+                "stoppedBy").textValue());
+        assertTrue(((Long) runtime.binding("count")).longValue() > 0);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void assertionFailureStopsReading() throws Exception {
+        UnRAVLRuntime runtime = run("/events",
+                "{ 'assert' : 'event.json.n.intValue() < 2', 'count' : 'count' }");
+        assertEquals(1, runtime.getFailedAssertionCount());
+        assertEquals(Long.valueOf(3), runtime.binding("count"));
+    }
+
+    @Test
+    public void parseEvents() throws Exception {
+        UnRAVLRuntime runtime = run("/finite",
+                "{ 'events' : 'events', 'metrics' : 'metrics' }");
+        JsonNode events = (JsonNode) runtime.binding("events");
+        assertEquals(2, events.size());
+        assertEquals("greeting", events.get(0).get("event").textValue());
+        assertEquals("hello\nworld", events.get(0).get("data").textValue());
+        assertEquals("1", events.get(0).get("id").textValue());
+        assertEquals("message", events.get(1).get("event").textValue());
+        assertEquals("not json", events.get(1).get("data").textValue());
+        assertEquals("1", events.get(1).get("id").textValue());
+        assertEquals("end", ((JsonNode) runtime.binding("metrics")).get(
+                "stoppedBy").textValue());
+    }
+
+    // Return the size of the kept response body
+    private static int keptBodySize(String bind) throws Exception {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.execute(Json.object(mockJson("{ 'GET' : '" + base
+                + "/finite', 'bind' : " + bind + " }")));
+        return runtime.getApiCalls().get(0).getResponseBody().size();
+    }
+
+    @Test
+    public void keepBody() throws Exception {
+        assertEquals(0, keptBodySize("{ 'sse' : { 'count' : 'count' } }"));
+        assertTrue(keptBodySize("{ 'sse' : { 'count' : 'count' },"
+                + " 'keepBody' : true }") > 0);
+    }
+}